@@ -0,0 +1,122 @@
+package edu.spu.teamroot.voicecloud;
+
+import android.test.AndroidTestCase;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Runs CloudSync transfers against MockCloudServer: success, cancel, timeout and bad responses.
+public class CloudSyncTest extends AndroidTestCase {
+    private static final long WAIT = 10000;
+
+    private MockCloudServer server;
+    private String oldBaseURL;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        server = new MockCloudServer();
+
+        oldBaseURL = CloudSync.getBaseURL();
+        CloudSync.setBaseURL(server.getBaseURL());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        CloudSync.setBaseURL(oldBaseURL);
+        CloudSync.setTimeout(60000);
+        server.shutdown();
+        super.tearDown();
+    }
+
+    // Records the final callbacks of a transfer.
+    private static class Result<T> implements CloudSync.Callback<T> {
+        final CountDownLatch finished = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicReference<T> value = new AtomicReference<>();
+        final AtomicReference<Exception> error = new AtomicReference<>();
+
+        @Override
+        public void onProgress(long bytes, long total) {
+        }
+
+        @Override
+        public void onSuccess(T result) {
+            value.set(result);
+            calls.incrementAndGet();
+            finished.countDown();
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            error.set(e);
+            calls.incrementAndGet();
+            finished.countDown();
+        }
+    }
+
+    public void testSave() throws Exception {
+        CloudSnapshot snapshot = TestSnapshots.create(100);
+
+        Result<String> result = new Result<>();
+        CloudSync.save(null, snapshot, result);
+
+        assertTrue(result.finished.await(WAIT, TimeUnit.MILLISECONDS));
+        assertEquals("4242", result.value.get());
+        assertNull(result.error.get());
+
+        // Saving the same snapshot again finishes at once, without a request; it must still call back
+        int requests = server.requests.get();
+
+        Result<String> again = new Result<>();
+        CloudSync.save("4242", snapshot, again);
+
+        assertTrue(again.finished.await(WAIT, TimeUnit.MILLISECONDS));
+        assertEquals("4242", again.value.get());
+        assertEquals(requests, server.requests.get());
+    }
+
+    public void testInvalidCloudId() throws Exception {
+        server.setSaveResponse("<html>Not found</html>".getBytes());
+
+        Result<String> result = new Result<>();
+        CloudSync.save(null, TestSnapshots.create(100), result);
+
+        assertTrue(result.finished.await(WAIT, TimeUnit.MILLISECONDS));
+        assertNull(result.value.get());
+        assertTrue(result.error.get() instanceof IOException);
+    }
+
+    public void testCancel() throws Exception {
+        server.setResponseDelay(1000);
+
+        Result<String> result = new Result<>();
+        CloudSync.Task task = CloudSync.save(null, TestSnapshots.create(100), result);
+        task.cancel();
+
+        assertTrue(task.isDone());
+
+        // Nothing is called back, even once the server answers
+        assertFalse(result.finished.await(3000, TimeUnit.MILLISECONDS));
+        assertEquals(0, result.calls.get());
+    }
+
+    public void testTimeout() throws Exception {
+        server.setResponseDelay(3000);
+        CloudSync.setTimeout(300);
+
+        Result<String> result = new Result<>();
+        CloudSync.save(null, TestSnapshots.create(100), result);
+
+        assertTrue(result.finished.await(WAIT, TimeUnit.MILLISECONDS));
+        assertTrue(result.error.get() instanceof TimeoutException);
+
+        // No second callback when the response arrives after all
+        Thread.sleep(3500);
+        assertEquals(1, result.calls.get());
+    }
+}
@@ -0,0 +1,113 @@
+package edu.spu.teamroot.voicecloud;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Map;
+import java.util.Random;
+
+// Fills an in-memory history database with 1M word counts through its writer (1000 sessions of
+// 1000 words), then times topWords() over every session and over the last week.
+// Results are logged under "HistoryDatabaseBenchmark".
+public class HistoryDatabaseBenchmark extends AndroidTestCase {
+    private static final int SESSIONS = 1000;
+    private static final int WORDS_PER_SESSION = 1000;
+    private static final int VOCABULARY = 20000;
+    private static final long SESSION_SPACING = 6 * 60 * 60 * 1000; // 6 hours
+    private static final long WEEK = 7 * 24 * 60 * 60 * 1000L;
+    private static final long COMMIT_TIMEOUT = 10 * 60 * 1000;
+    private static final long SEED = 40;
+
+    private HistoryDatabase database;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        database = new HistoryDatabase(getContext(), null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        database.shutdown();
+        super.tearDown();
+    }
+
+    public void testTopWords() throws InterruptedException {
+        Random random = new Random(SEED);
+        long[] totals = new long[VOCABULARY];
+
+        long start = System.nanoTime();
+
+        for (int s = 0; s < SESSIONS; s++) {
+            long started = s * SESSION_SPACING;
+            database.startSession(started);
+
+            // Distinct words per session (13 is coprime with the vocabulary size), skewed to low IDs
+            for (int i = 0; i < WORDS_PER_SESSION; i++) {
+                int word = (s * 7 + i * 13) % VOCABULARY;
+                int count = 1 + random.nextInt(word < 100 ? 50 : 5);
+
+                database.addDelta(started + i, "word" + word, count);
+                totals[word] += count;
+            }
+        }
+
+        assertTrue(database.commit(COMMIT_TIMEOUT));
+        long fill = System.nanoTime() - start;
+
+        long until = SESSIONS * SESSION_SPACING;
+        assertEquals(SESSIONS, database.getSessionCount(0, until));
+
+        start = System.nanoTime();
+        Map<String, Long> all = database.topWords(0, until, 50);
+        long allTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        Map<String, Long> week = database.topWords(until - WEEK, until, 50);
+        long weekTime = System.nanoTime() - start;
+
+        // The top word and its total match what was written
+        int top = 0;
+
+        for (int word = 1; word < VOCABULARY; word++) {
+            if (totals[word] > totals[top]) top = word;
+        }
+
+        Map.Entry<String, Long> first = all.entrySet().iterator().next();
+        assertEquals(totals[top], (long) first.getValue());
+        assertEquals(50, all.size());
+        assertEquals(50, week.size());
+
+        Log.d("HistoryDatabaseBenchmark", SESSIONS * WORDS_PER_SESSION + " rows written in " + fill / 1000000 + " ms; "
+                + "topWords over all sessions " + allTime / 1000000 + " ms, over a week " + weekTime / 1000000 + " ms");
+    }
+
+    public void testBatchingSumsDeltas() throws InterruptedException {
+        database.startSession(1000);
+
+        // Many changes to the same words land in one batch, and are summed into one row each
+        for (int i = 0; i < 1000; i++) {
+            database.addDelta(1000 + i, "alpha", 1);
+            if (i % 5 == 0) database.addDelta(1000 + i, "alpha", -1);
+            if (i % 20 == 0) database.addDelta(1000 + i, "beta", 2);
+        }
+
+        assertTrue(database.commit(COMMIT_TIMEOUT));
+
+        Map<String, Long> top = database.topWords(0, Long.MAX_VALUE, 10);
+        assertEquals(2, top.size());
+        assertEquals(800L, (long) top.get("alpha"));
+        assertEquals(100L, (long) top.get("beta"));
+
+        // A later batch adds to the existing rows
+        database.addDelta(5000, "alpha", 5);
+        database.addDelta(5000, "gamma", 1);
+        assertTrue(database.commit(COMMIT_TIMEOUT));
+
+        top = database.topWords(0, Long.MAX_VALUE, 10);
+        assertEquals(805L, (long) top.get("alpha"));
+        assertEquals(100L, (long) top.get("beta"));
+        assertEquals(1L, (long) top.get("gamma"));
+        assertEquals(1, database.getSessionCount(0, Long.MAX_VALUE));
+    }
+}
@@ -0,0 +1,246 @@
+package edu.spu.teamroot.voicecloud;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Minimal in-process HTTP/1.1 server standing in for the cloud web API.
+// Supports keep-alive, chunked and gzip request bodies, gzip responses, and random failures.
+public class MockCloudServer {
+    private final ServerSocket serverSocket;
+    private final Thread acceptThread;
+
+    private volatile byte[] loadResponse = "{}".getBytes();
+    private volatile byte[] saveResponse = "4242".getBytes();
+    private volatile boolean gzipResponses = false;
+    private volatile float failureRate = 0;
+    private volatile long responseDelay = 0;
+    private volatile int errorStatus = 0;
+    private final Random random = new Random();
+
+    // Statistics
+    public final AtomicInteger connections = new AtomicInteger();
+    public final AtomicInteger requests = new AtomicInteger();
+    public final AtomicInteger saves = new AtomicInteger(); // Successful /save requests
+    public volatile long lastRequestBytes; // Decompressed
+    public volatile long lastWireBytes;
+
+    public MockCloudServer() throws IOException {
+        serverSocket = new ServerSocket(0, 8, InetAddress.getByName("127.0.0.1"));
+
+        acceptThread = new Thread("MockCloudServer") {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        connections.incrementAndGet();
+
+                        new Thread() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        }.start();
+                    } catch (IOException e) {
+                        // Closed
+                    }
+                }
+            }
+        };
+        acceptThread.start();
+    }
+
+    // Returns the base URL to pass to JSONTransmitter.
+    public String getBaseURL() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/api";
+    }
+
+    // Sets the body returned by /api/load.json.
+    public void setLoadResponse(byte[] body) {
+        loadResponse = body;
+    }
+
+    // Sets the body returned by /api/save and /api/delta (the cloudid).
+    public void setSaveResponse(byte[] body) {
+        saveResponse = body;
+    }
+
+    // Sets whether responses are gzip compressed for clients that accept it.
+    public void setGzipResponses(boolean gzip) {
+        gzipResponses = gzip;
+    }
+
+    // Sets the fraction of requests that fail, half with HTTP 503 and half by dropping the connection.
+    public void setFailureRate(float rate) {
+        failureRate = rate;
+    }
+
+    // Sets how long each response is held back, in ms, e.g. to test timeouts.
+    public void setResponseDelay(long millis) {
+        responseDelay = millis;
+    }
+
+    // Sets a status every request is answered with, e.g. 400 to reject uploads. 0 answers normally.
+    public void setErrorStatus(int status) {
+        errorStatus = status;
+    }
+
+    public void shutdown() throws IOException {
+        serverSocket.close();
+    }
+
+    // Serves requests on a connection until the client closes it.
+    private void serve(Socket socket) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+
+            String requestLine;
+
+            while ((requestLine = readLine(in)) != null && requestLine.length() > 0) {
+                Map<String, String> headers = new HashMap<>();
+                String line;
+
+                while ((line = readLine(in)) != null && line.length() > 0) {
+                    int colon = line.indexOf(':');
+                    headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+                }
+
+                byte[] body = readBody(in, headers);
+                lastWireBytes = body.length;
+
+                if ("gzip".equalsIgnoreCase(headers.get("content-encoding"))) {
+                    body = readAll(new GZIPInputStream(new ByteArrayInputStream(body)));
+                }
+
+                lastRequestBytes = body.length;
+                requests.incrementAndGet();
+
+                String path = requestLine.split(" ")[1];
+
+                if (random.nextFloat() < failureRate) {
+                    if (random.nextBoolean()) {
+                        socket.close();
+                        return;
+                    }
+
+                    out.write("HTTP/1.1 503 Service Unavailable\r\nContent-Length: 0\r\n\r\n".getBytes());
+                    out.flush();
+                    continue;
+                }
+
+                if (errorStatus != 0) {
+                    out.write(("HTTP/1.1 " + errorStatus + " Error\r\nContent-Length: 0\r\n\r\n").getBytes());
+                    out.flush();
+                    continue;
+                }
+
+                if (responseDelay > 0) {
+                    try {
+                        Thread.sleep(responseDelay);
+                    } catch (InterruptedException e) {
+                        // Respond now
+                    }
+                }
+
+                if (path.endsWith("/save")) saves.incrementAndGet();
+
+                byte[] response = (path.endsWith("/save") || path.endsWith("/delta")) ? saveResponse : loadResponse;
+                boolean gzip = gzipResponses && headers.containsKey("accept-encoding")
+                        && headers.get("accept-encoding").contains("gzip");
+
+                if (gzip) {
+                    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                    GZIPOutputStream gzipOut = new GZIPOutputStream(compressed);
+                    gzipOut.write(response);
+                    gzipOut.close();
+                    response = compressed.toByteArray();
+                }
+
+                String head = "HTTP/1.1 200 OK\r\n"
+                        + "Content-Type: application/json\r\n"
+                        + (gzip ? "Content-Encoding: gzip\r\n" : "")
+                        + "Content-Length: " + response.length + "\r\n"
+                        + "Connection: keep-alive\r\n\r\n";
+
+                out.write(head.getBytes());
+                out.write(response);
+                out.flush();
+            }
+
+            socket.close();
+        } catch (IOException e) {
+            // Client went away
+        }
+    }
+
+    // Reads a request body, either chunked or by Content-Length.
+    private static byte[] readBody(InputStream in, Map<String, String> headers) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+            int size;
+
+            while ((size = Integer.parseInt(readLine(in).split(";")[0].trim(), 16)) > 0) {
+                copy(in, body, size);
+                readLine(in); // CRLF after chunk
+            }
+
+            readLine(in); // CRLF after last chunk
+        } else if (headers.containsKey("content-length")) {
+            copy(in, body, Integer.parseInt(headers.get("content-length")));
+        }
+
+        return body.toByteArray();
+    }
+
+    private static void copy(InputStream in, OutputStream out, int length) throws IOException {
+        byte[] buffer = new byte[8192];
+
+        while (length > 0) {
+            int read = in.read(buffer, 0, Math.min(buffer.length, length));
+            if (read < 0) throw new IOException("Unexpected end of stream");
+
+            out.write(buffer, 0, read);
+            length -= read;
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+
+        return out.toByteArray();
+    }
+
+    // Reads a CRLF terminated line, or returns null at end of stream.
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+
+        while ((c = in.read()) >= 0) {
+            if (c == '\n') return line.toString();
+            if (c != '\r') line.append((char) c);
+        }
+
+        return line.length() > 0 ? line.toString() : null;
+    }
+}
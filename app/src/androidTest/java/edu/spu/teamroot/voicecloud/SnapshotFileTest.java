@@ -0,0 +1,199 @@
+package edu.spu.teamroot.voicecloud;
+
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+// Writes and reads back snapshot files, and checks that damaged files fail cleanly.
+public class SnapshotFileTest extends AndroidTestCase {
+    private static final int MAGIC = 0x5643534E; // 'VCSN'
+    private static final int CORRUPTIONS = 500;
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        file = new File(getContext().getCacheDir(), "snapshot-test");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+        super.tearDown();
+    }
+
+    private static CloudSnapshot createSnapshot(int groupCount, int wordCount) {
+        Random random = new Random(37);
+        CloudSnapshot snapshot = new CloudSnapshot(groupCount, wordCount);
+
+        snapshot.generation = 12;
+        snapshot.width = 4000;
+        snapshot.height = 3000;
+        snapshot.timestamp = 1400000000000L;
+        snapshot.cloudId = "4242";
+
+        for (int i = 0; i < groupCount; i++) {
+            snapshot.groupIds[i] = i * 3;
+            snapshot.groupCenterX[i] = random.nextInt(4000) - 2000;
+            snapshot.groupCenterY[i] = random.nextInt(3000) - 1500;
+            snapshot.groupLeft[i] = snapshot.groupCenterX[i] - random.nextInt(500);
+            snapshot.groupTop[i] = snapshot.groupCenterY[i] - random.nextInt(500);
+            snapshot.groupRight[i] = snapshot.groupCenterX[i] + random.nextInt(500);
+            snapshot.groupBottom[i] = snapshot.groupCenterY[i] + random.nextInt(500);
+        }
+
+        for (int i = 0; i < wordCount; i++) {
+            snapshot.names[i] = (i % 7 == 0) ? "café" + i : "word" + i;
+            snapshot.counts[i] = random.nextInt(1000) + 1;
+            snapshot.timestamps[i] = snapshot.timestamp + random.nextInt(3600000) - 60000;
+            snapshot.wordGroups[i] = (groupCount > 0) ? random.nextInt(groupCount + 1) - 1 : -1;
+            snapshot.left[i] = random.nextInt(4000) - 2000;
+            snapshot.top[i] = random.nextInt(3000) - 1500;
+            snapshot.right[i] = snapshot.left[i] + random.nextInt(300);
+            snapshot.bottom[i] = snapshot.top[i] + random.nextInt(100);
+        }
+
+        return snapshot;
+    }
+
+    private byte[] readBytes() throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+
+        try {
+            int read = 0;
+            while (read < bytes.length) read += in.read(bytes, read, bytes.length - read);
+        } finally {
+            in.close();
+        }
+
+        return bytes;
+    }
+
+    // Wraps a body in a snapshot header.
+    private static ByteBuffer withHeader(byte... body) {
+        ByteBuffer buffer = ByteBuffer.allocate(9 + body.length);
+        buffer.putInt(MAGIC).put((byte) 2).putInt(body.length).put(body);
+        buffer.flip();
+
+        return buffer;
+    }
+
+    private static void assertDamaged(ByteBuffer buffer) {
+        try {
+            SnapshotFile.read(buffer);
+            fail("Read a damaged snapshot");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    public void testRoundTrip() throws IOException {
+        CloudSnapshot expected = createSnapshot(5, 1000);
+        SnapshotFile.write(expected, file);
+
+        CloudSnapshot actual = SnapshotFile.read(file);
+
+        assertEquals(expected.generation, actual.generation);
+        assertEquals(expected.width, actual.width);
+        assertEquals(expected.height, actual.height);
+        assertEquals(expected.timestamp, actual.timestamp);
+        assertEquals(expected.cloudId, actual.cloudId);
+
+        assertEquals(expected.groupCount, actual.groupCount);
+
+        for (int i = 0; i < expected.groupCount; i++) {
+            assertEquals(expected.groupIds[i], actual.groupIds[i]);
+            assertEquals(expected.groupCenterX[i], actual.groupCenterX[i]);
+            assertEquals(expected.groupCenterY[i], actual.groupCenterY[i]);
+            assertEquals(expected.groupLeft[i], actual.groupLeft[i]);
+            assertEquals(expected.groupTop[i], actual.groupTop[i]);
+            assertEquals(expected.groupRight[i], actual.groupRight[i]);
+            assertEquals(expected.groupBottom[i], actual.groupBottom[i]);
+        }
+
+        assertEquals(expected.wordCount, actual.wordCount);
+
+        for (int i = 0; i < expected.wordCount; i++) {
+            assertEquals(expected.names[i], actual.names[i]);
+            assertEquals(expected.counts[i], actual.counts[i]);
+            assertEquals(expected.timestamps[i], actual.timestamps[i]);
+            assertEquals(expected.wordGroups[i], actual.wordGroups[i]);
+            assertEquals(expected.left[i], actual.left[i]);
+            assertEquals(expected.top[i], actual.top[i]);
+            assertEquals(expected.right[i], actual.right[i]);
+            assertEquals(expected.bottom[i], actual.bottom[i]);
+        }
+    }
+
+    public void testEmptyRoundTrip() throws IOException {
+        CloudSnapshot expected = new CloudSnapshot(0, 0);
+        SnapshotFile.write(expected, file);
+
+        CloudSnapshot actual = SnapshotFile.read(file);
+
+        assertNull(actual.cloudId);
+        assertEquals(0, actual.groupCount);
+        assertEquals(0, actual.wordCount);
+    }
+
+    public void testCheckpointGeneration() throws IOException {
+        CloudSnapshot snapshot = createSnapshot(1, 10);
+        SnapshotFile.write(snapshot, 99, file);
+
+        // The file has the checkpoint's generation; the snapshot keeps its own
+        assertEquals(99, SnapshotFile.read(file).generation);
+        assertEquals(12, snapshot.generation);
+    }
+
+    public void testTruncated() throws IOException {
+        SnapshotFile.write(createSnapshot(2, 50), file);
+        byte[] bytes = readBytes();
+
+        for (int length = 0; length < bytes.length; length += 7) {
+            assertDamaged(ByteBuffer.wrap(bytes, 0, length));
+        }
+    }
+
+    public void testHugeWordCount() {
+        // generation, width, height, timestamp, empty cloudid, no groups, then 2^32 - 1 words
+        assertDamaged(withHeader(
+                (byte) 0, (byte) 0, (byte) 0, (byte) 0, (byte) 0, (byte) 0,
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0x0F));
+    }
+
+    public void testNegativeNameLength() {
+        // One word, whose name length is -1 as a varint
+        assertDamaged(withHeader(
+                (byte) 0, (byte) 0, (byte) 0, (byte) 0, (byte) 0, (byte) 0,
+                (byte) 1,
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0x0F,
+                (byte) 0, (byte) 0, (byte) 0, (byte) 0, (byte) 0, (byte) 0, (byte) 0));
+    }
+
+    // Flips random bytes of a valid file. Every read must either succeed or throw an IOException.
+    public void testRandomCorruption() throws IOException {
+        SnapshotFile.write(createSnapshot(3, 200), file);
+        byte[] original = readBytes();
+        Random random = new Random(370);
+
+        for (int i = 0; i < CORRUPTIONS; i++) {
+            byte[] bytes = original.clone();
+
+            for (int flips = random.nextInt(4) + 1; flips > 0; flips--) {
+                bytes[random.nextInt(bytes.length)] = (byte) random.nextInt(256);
+            }
+
+            try {
+                SnapshotFile.read(ByteBuffer.wrap(bytes));
+            } catch (IOException e) {
+                // Expected for most corruptions
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package edu.spu.teamroot.voicecloud;
+
+// Builds cloud snapshots for the transfer tests and benchmarks.
+public class TestSnapshots {
+    private TestSnapshots() {
+    }
+
+    // Builds a snapshot of the given number of words in one group, stamped now.
+    public static CloudSnapshot create(int wordCount) {
+        return create(wordCount, System.currentTimeMillis());
+    }
+
+    // Builds a snapshot of the given number of words in one group. Snapshots built with the same
+    // word count and timestamp are equal, e.g. as the base and current version of a delta.
+    public static CloudSnapshot create(int wordCount, long timestamp) {
+        CloudSnapshot snapshot = new CloudSnapshot(1, wordCount);
+        snapshot.width = 5000;
+        snapshot.height = 5000;
+        snapshot.timestamp = timestamp;
+
+        snapshot.groupIds[0] = 0;
+        snapshot.groupCenterX[0] = 2500;
+        snapshot.groupCenterY[0] = 2500;
+        snapshot.groupRight[0] = 5000;
+        snapshot.groupBottom[0] = 5000;
+
+        for (int i = 0; i < wordCount; i++) {
+            snapshot.names[i] = "word" + i;
+            snapshot.counts[i] = 1 + (i % 50);
+            snapshot.timestamps[i] = snapshot.timestamp + i;
+            snapshot.wordGroups[i] = 0;
+            snapshot.left[i] = i % 5000;
+            snapshot.top[i] = (i * 7) % 5000;
+            snapshot.right[i] = snapshot.left[i] + 80;
+            snapshot.bottom[i] = snapshot.top[i] + 30;
+        }
+
+        return snapshot;
+    }
+}
@@ -0,0 +1,106 @@
+package edu.spu.teamroot.voicecloud;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+
+// Benchmarks cloud save and load against MockCloudServer with payloads up to several MB.
+public class TransportBenchmark extends AndroidTestCase {
+    private static final int[] WORD_COUNTS = {1000, 10000, 50000}; // About 140 KB to 7 MB of JSON
+
+    private MockCloudServer server;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        server = new MockCloudServer();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.shutdown();
+        super.tearDown();
+    }
+
+    public void testSave() throws Exception {
+        JSONTransmitter transmitter = new JSONTransmitter(server.getBaseURL());
+
+        for (int wordCount : WORD_COUNTS) {
+            CloudSnapshot snapshot = TestSnapshots.create(wordCount);
+
+            long start = System.nanoTime();
+            String cloudID = transmitter.save(snapshot, null);
+            long elapsed = (System.nanoTime() - start) / 1000000;
+
+            assertEquals("4242", cloudID);
+            Log.d("TransportBenchmark", "Saved " + wordCount + " words (" + server.lastRequestBytes + " bytes) in " + elapsed + " ms");
+        }
+    }
+
+    public void testSaveCompressed() throws Exception {
+        JSONTransmitter transmitter = new JSONTransmitter(server.getBaseURL());
+        transmitter.setCompressRequests(true);
+
+        for (int wordCount : WORD_COUNTS) {
+            long start = System.nanoTime();
+            transmitter.save(TestSnapshots.create(wordCount), null);
+            long elapsed = (System.nanoTime() - start) / 1000000;
+
+            Log.d("TransportBenchmark", "Saved " + wordCount + " words gzipped in " + elapsed + " ms");
+        }
+    }
+
+    public void testLoad() throws Exception {
+        for (boolean gzip : new boolean[] {false, true}) {
+            server.setGzipResponses(gzip);
+
+            for (int wordCount : WORD_COUNTS) {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                CloudSerializer.write(TestSnapshots.create(wordCount), body);
+                server.setLoadResponse(body.toByteArray());
+
+                long start = System.nanoTime();
+                CloudSnapshot loaded = new JSONTransmitter(server.getBaseURL()).load("4242", null);
+                long elapsed = (System.nanoTime() - start) / 1000000;
+
+                assertEquals(wordCount, loaded.wordCount);
+                Log.d("TransportBenchmark", "Loaded " + wordCount + " words (" + body.size() + " bytes, gzip " + gzip + ") in " + elapsed + " ms");
+            }
+        }
+    }
+
+    public void testSaveDelta() throws Exception {
+        JSONTransmitter transmitter = new JSONTransmitter(server.getBaseURL());
+
+        for (int wordCount : WORD_COUNTS) {
+            CloudSnapshot base = TestSnapshots.create(wordCount);
+            CloudSnapshot current = TestSnapshots.create(wordCount, base.timestamp);
+
+            // A handful of count changes, as between two saves in one session
+            for (int i = 0; i < 10; i++) {
+                current.counts[i * (wordCount / 10)]++;
+            }
+
+            CloudDelta delta = new CloudDelta("4242", base, current);
+            assertEquals(10, delta.changedWordCount);
+
+            long start = System.nanoTime();
+            assertEquals("4242", transmitter.saveDelta(delta, null));
+            long elapsed = (System.nanoTime() - start) / 1000000;
+
+            Log.d("TransportBenchmark", "Saved delta of " + wordCount + " words (" + server.lastWireBytes + " bytes) in " + elapsed + " ms");
+        }
+    }
+
+    public void testConnectionReuse() throws Exception {
+        JSONTransmitter transmitter = new JSONTransmitter(server.getBaseURL());
+
+        for (int i = 0; i < 10; i++) {
+            transmitter.save(TestSnapshots.create(100), null);
+        }
+
+        assertEquals(10, server.requests.get());
+        assertTrue("Connections were not reused", server.connections.get() < server.requests.get());
+    }
+}
@@ -0,0 +1,151 @@
+package edu.spu.teamroot.voicecloud;
+
+import android.test.AndroidTestCase;
+
+import java.io.File;
+
+// Drains the upload outbox against a flaky MockCloudServer.
+public class UploadOutboxTest extends AndroidTestCase {
+    private static final long BASE_DELAY = 50; // Fast retries for testing
+    private static final long DRAIN_TIMEOUT = 30000;
+
+    private MockCloudServer server;
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        server = new MockCloudServer();
+
+        directory = new File(getContext().getCacheDir(), "outbox-test");
+        deleteContents(directory);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.shutdown();
+        deleteContents(directory);
+        super.tearDown();
+    }
+
+    private static void deleteContents(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    // Waits for the outbox to empty, returning the number still pending.
+    private static int drain(UploadOutbox outbox) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT;
+        int pending;
+
+        while ((pending = outbox.getPendingCount()) > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+
+        return pending;
+    }
+
+    public void testDrainsThroughFlakyServer() throws Exception {
+        server.setFailureRate(0.5f);
+
+        UploadOutbox outbox = new UploadOutbox(getContext(), directory, server.getBaseURL(), BASE_DELAY);
+
+        for (int i = 0; i < 5; i++) {
+            outbox.enqueue("cloud-" + i, TestSnapshots.create(100));
+        }
+
+        // Newer snapshot of the same cloud replaces the queued one
+        outbox.enqueue("cloud-0", TestSnapshots.create(200));
+
+        assertEquals(0, drain(outbox));
+        outbox.shutdown();
+
+        // One upload per cloud, plus at most one for the replaced snapshot if it was already in flight
+        assertTrue(server.saves.get() >= 5 && server.saves.get() <= 6);
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    public void testSurvivesRestart() throws Exception {
+        server.setFailureRate(1);
+
+        UploadOutbox outbox = new UploadOutbox(getContext(), directory, server.getBaseURL(), BASE_DELAY);
+        outbox.enqueue("cloud-0", TestSnapshots.create(100));
+        assertEquals(1, outbox.getPendingCount());
+        outbox.shutdown();
+
+        // A new outbox picks up where the old one left off
+        server.setFailureRate(0);
+
+        outbox = new UploadOutbox(getContext(), directory, server.getBaseURL(), BASE_DELAY);
+        assertEquals(1, outbox.getPendingCount());
+
+        outbox.retryNow();
+        assertEquals(0, drain(outbox));
+        outbox.shutdown();
+
+        assertEquals(1, server.saves.get());
+    }
+
+    public void testParksRejectedUpload() throws Exception {
+        server.setErrorStatus(400);
+
+        UploadOutbox outbox = new UploadOutbox(getContext(), directory, server.getBaseURL(), BASE_DELAY);
+        outbox.enqueue("cloud-0", TestSnapshots.create(100));
+
+        // Not retried: one request, then the snapshot is set aside
+        assertEquals(0, drain(outbox));
+        outbox.shutdown();
+
+        assertEquals(1, server.requests.get());
+        assertTrue(new File(directory, "cloud-0" + UploadOutbox.REJECTED_SUFFIX).exists());
+        assertEquals(1, directory.listFiles().length);
+    }
+
+    public void testPrunesRejectedUploads() throws Exception {
+        directory.mkdirs();
+        long now = System.currentTimeMillis();
+
+        // One expired, and more recent ones than are kept
+        for (int i = 0; i < 13; i++) {
+            File file = new File(directory, "cloud-" + i + UploadOutbox.REJECTED_SUFFIX);
+            assertTrue(file.createNewFile());
+            file.setLastModified((i == 0) ? now - 8 * 24 * 60 * 60 * 1000L : now - i * 60000);
+        }
+
+        // Pruned on startup: the expired one and the two oldest of the rest
+        UploadOutbox outbox = new UploadOutbox(getContext(), directory, server.getBaseURL(), BASE_DELAY);
+        assertEquals(0, outbox.getPendingCount());
+        outbox.shutdown();
+
+        assertEquals(10, directory.listFiles().length);
+        assertFalse(new File(directory, "cloud-0" + UploadOutbox.REJECTED_SUFFIX).exists());
+        assertFalse(new File(directory, "cloud-12" + UploadOutbox.REJECTED_SUFFIX).exists());
+        assertFalse(new File(directory, "cloud-11" + UploadOutbox.REJECTED_SUFFIX).exists());
+        assertTrue(new File(directory, "cloud-1" + UploadOutbox.REJECTED_SUFFIX).exists());
+    }
+
+    public void testRetriesRateLimitedUpload() throws Exception {
+        server.setErrorStatus(429);
+
+        UploadOutbox outbox = new UploadOutbox(getContext(), directory, server.getBaseURL(), BASE_DELAY);
+        outbox.enqueue("cloud-0", TestSnapshots.create(100));
+
+        // Still queued after a few failures, then delivered once the server accepts it
+        while (server.requests.get() < 3) {
+            Thread.sleep(50);
+        }
+
+        assertEquals(1, outbox.getPendingCount());
+        server.setErrorStatus(0);
+
+        outbox.retryNow();
+        assertEquals(0, drain(outbox));
+        outbox.shutdown();
+
+        assertEquals(1, server.saves.get());
+    }
+}
@@ -0,0 +1,131 @@
+package edu.spu.teamroot.voicecloud;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+// Exports 100k words to a file the way the Export CSV menu entry does, and checks that it takes
+// under a second once warm. Also checks the format of a few rows.
+// Results are logged under "WordStatsExporterBenchmark".
+public class WordStatsExporterBenchmark extends AndroidTestCase {
+    private static final int WORDS = 100000;
+    private static final int RUNS = 5;
+    private static final long LIMIT = 1000; // ms
+    private static final long START = 1400000000000L;
+    private static final long SEED = 43;
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        file = new File(getContext().getCacheDir(), "export-test.csv");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+        super.tearDown();
+    }
+
+    private static WordStatsExporter.Columns createColumns(int wordCount) {
+        Random random = new Random(SEED);
+        WordStatsExporter.Columns columns = new WordStatsExporter.Columns(
+                new String[wordCount], new int[wordCount], new long[wordCount], new long[wordCount]);
+
+        for (int i = 0; i < wordCount; i++) {
+            if (i % 50 == 49) continue; // Free ID
+
+            columns.names[i] = (i % 7 == 0) ? "café" + i : "word" + i;
+            columns.counts[i] = random.nextInt(1000) + 1;
+            columns.firstSeen[i] = START + random.nextInt(3600000);
+            columns.lastSeen[i] = columns.firstSeen[i] + random.nextInt(3600000);
+        }
+
+        return columns;
+    }
+
+    private int exportToFile(WordStatsExporter.Columns columns, Map<String, Integer> exclusionHits) throws IOException {
+        Writer writer = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024), "UTF-8");
+
+        try {
+            return WordStatsExporter.export(columns, START, START + 2 * 3600000, exclusionHits, WordStatsExporter.CSV, writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    public void testExport() throws IOException {
+        WordStatsExporter.Columns columns = createColumns(WORDS);
+        Map<String, Integer> exclusionHits = new HashMap<>();
+        exclusionHits.put("word1", 3);
+        exclusionHits.put("excluded", 5);
+
+        int expectedRows = WORDS - WORDS / 50 + 1;
+        long best = Long.MAX_VALUE;
+
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            int rows = exportToFile(columns, exclusionHits);
+            best = Math.min(best, System.nanoTime() - start);
+
+            assertEquals(expectedRows, rows);
+        }
+
+        // Header plus one line per row
+        int lines = 0;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+
+        try {
+            while (reader.readLine() != null) lines++;
+        } finally {
+            reader.close();
+        }
+
+        assertEquals(expectedRows + 1, lines);
+
+        Log.d("WordStatsExporterBenchmark", expectedRows + " rows (" + file.length() / 1024 + " KB) written in " + best / 1000000 + " ms");
+        assertTrue("Export took " + best / 1000000 + " ms", best / 1000000 < LIMIT);
+    }
+
+    public void testFormat() throws IOException {
+        WordStatsExporter.Columns columns = new WordStatsExporter.Columns(
+                new String[] {"alpha", null, "say \"hi\", then"},
+                new int[] {120, 0, 1},
+                new long[] {START, 0, START + 61000},
+                new long[] {START + 3600000, 0, START + 61000});
+
+        Map<String, Integer> exclusionHits = new HashMap<>();
+        exclusionHits.put("alpha", 2);
+        exclusionHits.put("gone", 7);
+
+        StringWriter out = new StringWriter();
+        assertEquals(3, WordStatsExporter.export(columns, START, START + 3600000, exclusionHits, WordStatsExporter.CSV, out));
+
+        String[] lines = out.toString().split("\n");
+        assertEquals(4, lines.length);
+        assertEquals("name,count,first_seen,last_seen,per_minute,exclusion_hits", lines[0]);
+        assertEquals("alpha,120,2014-05-13T16:53:20Z,2014-05-13T17:53:20Z,2.00,2", lines[1]);
+        assertEquals("\"say \"\"hi\"\", then\",1,2014-05-13T16:54:21Z,2014-05-13T16:54:21Z,0.02,0", lines[2]);
+        assertEquals("gone,0,,,0.00,7", lines[3]);
+
+        // TSV replaces separators in names instead of quoting
+        out = new StringWriter();
+        columns.names[0] = "al\tpha";
+        WordStatsExporter.export(columns, START, START + 3600000, null, WordStatsExporter.TSV, out);
+        assertTrue(out.toString().split("\n")[1].startsWith("al pha\t120\t"));
+    }
+}
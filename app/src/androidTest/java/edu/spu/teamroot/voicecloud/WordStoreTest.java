@@ -0,0 +1,85 @@
+package edu.spu.teamroot.voicecloud;
+
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+// Checks the count buckets of WordStore against random allocations, releases and count changes.
+// Only the columns are exercised, so IDs are allocated without Word objects.
+public class WordStoreTest extends AndroidTestCase {
+    private static final int OPERATIONS = 200000;
+    private static final int CHECK_INTERVAL = 5000;
+    private static final long SEED = 47;
+
+    public void testRandomOperations() {
+        WordStore store = new WordStore();
+        List<Integer> live = new ArrayList<>();
+        Random random = new Random(SEED);
+
+        for (int i = 0; i < OPERATIONS; i++) {
+            int op = random.nextInt(10);
+
+            if (op < 3 || live.isEmpty()) {
+                live.add(store.allocate(null, "word" + i));
+            } else if (op < 4) {
+                store.release(live.remove(random.nextInt(live.size())));
+            } else {
+                // Includes negative counts and counts past the last bucket
+                int id = live.get(random.nextInt(live.size()));
+                store.setCount(id, random.nextInt(WordStore.BUCKET_COUNT + 500) - 5);
+            }
+
+            if (i % CHECK_INTERVAL == 0) {
+                assertBuckets(store, live);
+            }
+
+            if (i == OPERATIONS / 2) {
+                store.clear();
+                live.clear();
+                assertBuckets(store, live);
+            }
+        }
+
+        assertBuckets(store, live);
+    }
+
+    public void testReleasedIdsAreReused() {
+        WordStore store = new WordStore();
+        int first = store.allocate(null, "first");
+        int second = store.allocate(null, "second");
+
+        store.setCount(first, 3);
+        store.release(first);
+        store.release(first); // Released twice; must not be handed out twice
+
+        int reused = store.allocate(null, "third");
+        assertEquals(first, reused);
+        assertEquals(0, store.counts[reused]);
+        assertTrue(store.allocate(null, "fourth") > second);
+
+        List<Integer> live = new ArrayList<>();
+        live.add(second);
+        live.add(reused);
+        live.add(store.size() - 1);
+        assertBuckets(store, live);
+    }
+
+    // Asserts that every live ID is in exactly one bucket, the one for its count, and nothing else is.
+    private static void assertBuckets(WordStore store, List<Integer> live) {
+        Set<Integer> seen = new HashSet<>();
+
+        for (int bucket = 0; bucket < WordStore.BUCKET_COUNT; bucket++) {
+            for (int id = store.bucketHeads[bucket]; id >= 0; id = store.nextByCount[id]) {
+                assertEquals(bucket, WordStore.bucketOf(store.counts[id]));
+                assertTrue("ID " + id + " linked twice", seen.add(id));
+            }
+        }
+
+        assertEquals(new HashSet<>(live), seen);
+        assertEquals(live.size(), store.liveCount());
+    }
+}
@@ -0,0 +1,157 @@
+package edu.spu.teamroot.voicecloud;
+
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+// Compares placing words with WordTree against the old two-level layout (root, groups of
+// about sqrt(n) words, words), at 100, 1k and 10k words. Results are logged under "WordTreeBenchmark".
+// Words are plain WordGroups with a size, so no views are involved.
+public class WordTreeBenchmark extends AndroidTestCase {
+    private static final int[] SIZES = {100, 1000, 10000};
+    private static final int CENTER = 5000;
+    private static final long SEED = 42;
+
+    public void testPlacement() {
+        for (int n : SIZES) {
+            List<WordGroup> twoLevelWords = createWords(n);
+            long twoLevel = placeTwoLevel(twoLevelWords);
+            assertNoOverlap(twoLevelWords);
+
+            List<WordGroup> treeWords = createWords(n);
+            WordTree tree = new WordTree();
+            long nLevel = placeTree(tree, treeWords);
+            assertNoOverlap(treeWords);
+            assertEquals(n, tree.check());
+
+            Log.d("WordTreeBenchmark", n + " words: two-level " + twoLevel / 1000000 + " ms, density " + density(twoLevelWords)
+                    + "; tree " + nLevel / 1000000 + " ms, density " + density(treeWords) + " (height " + tree.getHeight() + ")");
+        }
+    }
+
+    public void testRemoval() {
+        List<WordGroup> words = createWords(2000);
+        WordTree tree = new WordTree();
+        placeTree(tree, words);
+
+        // Remove every other word, then the rest; the tree must stay valid throughout
+        for (int i = 0; i < words.size(); i += 2) {
+            tree.detach(words.get(i));
+        }
+
+        assertEquals(words.size() / 2, tree.check());
+
+        for (int i = 1; i < words.size(); i += 2) {
+            tree.detach(words.get(i));
+            if (i % 101 == 0) tree.check();
+        }
+
+        assertEquals(0, tree.check());
+        assertEquals(1, tree.getHeight());
+    }
+
+    // Creates words of random sizes, the same for each run.
+    private static List<WordGroup> createWords(int n) {
+        Random random = new Random(SEED);
+        List<WordGroup> words = new ArrayList<>();
+
+        for (int i = 0; i < n; i++) {
+            int width = 40 + random.nextInt(120);
+            int height = 30 + random.nextInt(20);
+            words.add(new WordGroup(new Point(width / 2, height / 2), new Rect(0, 0, width, height)));
+        }
+
+        return words;
+    }
+
+    // Places words with the tree, as WordCloud does. Returns the time taken, in ns.
+    private static long placeTree(WordTree tree, List<WordGroup> words) {
+        long start = System.nanoTime();
+
+        tree.reset(new Rect(CENTER, CENTER, CENTER, CENTER));
+
+        for (WordGroup word : words) {
+            tree.attach(word);
+            tree.place(word, true);
+        }
+
+        return System.nanoTime() - start;
+    }
+
+    // Places words as WordCloud did before WordTree. Returns the time taken, in ns.
+    private static long placeTwoLevel(List<WordGroup> words) {
+        long start = System.nanoTime();
+
+        WordGroup root = new WordGroup();
+        root.setBounds(new Rect(CENTER, CENTER, CENTER, CENTER));
+
+        Deque<WordGroup> freeGroups = new LinkedList<>();
+        int groupSize = 0;
+        int treeSize = 0;
+
+        for (WordGroup word : words) {
+            treeSize++;
+
+            // WordCloud.getFreeGroup()
+            int newSize = 1 + (int) Math.floor(Math.sqrt(treeSize - 1));
+            WordGroup group;
+
+            if (newSize > groupSize || freeGroups.isEmpty()) {
+                groupSize = (newSize > groupSize) ? newSize : groupSize + 1;
+
+                freeGroups.clear();
+
+                for (WordGroup g : root.children) {
+                    if (g.children.size() < groupSize) freeGroups.addFirst(g);
+                }
+
+                group = new WordGroup();
+                root.addChild(group);
+            } else {
+                group = freeGroups.removeFirst();
+            }
+
+            group.addChild(word);
+
+            if (group.children.size() < groupSize) {
+                freeGroups.addFirst(group);
+            }
+
+            // WordCloud.repositionWord()
+            group.repositionChild(word, true);
+            root.repositionChild(group, group.children.size() <= 1);
+        }
+
+        return System.nanoTime() - start;
+    }
+
+    // Returns word area over the area of the box around all words.
+    private static float density(List<WordGroup> words) {
+        Rect box = new Rect();
+        long area = 0;
+
+        for (WordGroup word : words) {
+            box.union(word.bounds);
+            area += (long) word.bounds.width() * word.bounds.height();
+        }
+
+        return (float) area / ((long) box.width() * box.height());
+    }
+
+    private static void assertNoOverlap(List<WordGroup> words) {
+        for (int i = 0; i < words.size(); i++) {
+            for (int j = i + 1; j < words.size(); j++) {
+                if (Rect.intersects(words.get(i).bounds, words.get(j).bounds)) {
+                    fail("Words " + i + " and " + j + " overlap: " + words.get(i).bounds + " " + words.get(j).bounds);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package edu.spu.teamroot.voicecloud;
+
+public interface BatchWeighter {
+    // Computes text sizes (sp), ARGB colors and visibility for the first n counts.
+    // Output arrays must hold at least n elements.
+    void weighAll(int[] counts, int n, int[] sizes, int[] colors, boolean[] show);
+}
@@ -0,0 +1,279 @@
+package edu.spu.teamroot.voicecloud;
+
+import android.graphics.Point;
+import android.graphics.Rect;
+
+import java.util.Arrays;
+import java.util.List;
+
+// Repacks the attached words toward the center of the cloud once it has become sparse.
+//
+// Over a long session, groups placed early stay where they are and removed words leave holes.
+// The packing density (word area over the area of the box around all words) measures this.
+// A compactor copies the tree on the UI thread, computes new positions on a worker thread with
+// the same spiral search as WordGroup, and the cloud applies them as one batch.
+//
+// Passes are incremental: groups keep their order outward from the center, and only groups
+// that are themselves sparse have their words repacked; the rest move as a whole.
+public class CloudCompactor {
+    /*
+     * Static members
+     */
+
+    public static final float MIN_DENSITY = 0.35f; // Below this, the cloud is worth compacting
+    private static final float MIN_GROUP_DENSITY = 0.5f; // Below this, a group's words are repacked
+
+    /*
+     * Member variables
+     */
+
+    private final int centerX;
+    private final int centerY;
+    private final int padding;
+
+    private final int groupCount;
+    private final int[] groupStart; // Words of group g are groupStart[g] until groupStart[g + 1]
+
+    protected final Word[] words;
+    protected final WordGroup[] groups; // Group of each word
+
+    // Current bounds of each word, in dp
+    private final int[] left;
+    private final int[] top;
+    private final int[] right;
+    private final int[] bottom;
+
+    // Computed positions (left, top) of each word, in dp
+    protected int[] newLeft;
+    protected int[] newTop;
+
+    /*
+     * Constructors
+     */
+
+    // Copies the attached words of a tree, group by group. Call on the thread that owns the tree.
+    public CloudCompactor(WordTree tree, int padding) {
+        this.centerX = tree.root.center.x;
+        this.centerY = tree.root.center.y;
+        this.padding = padding;
+
+        List<WordGroup> treeGroups = tree.getGroups();
+        int count = tree.size();
+
+        groupCount = treeGroups.size();
+        groupStart = new int[groupCount + 1];
+
+        words = new Word[count];
+        groups = new WordGroup[count];
+
+        left = new int[count];
+        top = new int[count];
+        right = new int[count];
+        bottom = new int[count];
+
+        int i = 0;
+
+        for (int g = 0; g < groupCount; g++) {
+            WordGroup group = treeGroups.get(g);
+            groupStart[g] = i;
+
+            for (WordGroup child : group.children) {
+                words[i] = (Word) child;
+                groups[i] = group;
+
+                left[i] = child.bounds.left;
+                top[i] = child.bounds.top;
+                right[i] = child.bounds.right;
+                bottom[i] = child.bounds.bottom;
+                i++;
+            }
+        }
+
+        groupStart[groupCount] = i;
+    }
+
+    /*
+     * Methods
+     */
+
+    // Returns the number of words copied.
+    public int size() {
+        return words.length;
+    }
+
+    // Returns the packing density of the current layout: word area over the area of their bounds.
+    public float getDensity() {
+        return density(left, top, right, bottom, 0, words.length);
+    }
+
+    // Returns the packing density of the computed layout.
+    public float getNewDensity() {
+        int[] newRight = new int[words.length];
+        int[] newBottom = new int[words.length];
+
+        for (int i = 0; i < words.length; i++) {
+            newRight[i] = newLeft[i] + right[i] - left[i];
+            newBottom[i] = newTop[i] + bottom[i] - top[i];
+        }
+
+        return density(newLeft, newTop, newRight, newBottom, 0, words.length);
+    }
+
+    // Returns true if word i has a new position.
+    public boolean isMoved(int i) {
+        return newLeft[i] != left[i] || newTop[i] != top[i];
+    }
+
+    // Computes new positions. Does not touch the tree, so it may run on any thread.
+    public void compute() {
+        newLeft = Arrays.copyOf(left, words.length);
+        newTop = Arrays.copyOf(top, words.length);
+
+        Rect[] groupBounds = new Rect[groupCount];
+        long[] order = new long[groupCount];
+        int placedCount = 0;
+
+        for (int g = 0; g < groupCount; g++) {
+            int start = groupStart[g];
+            int end = groupStart[g + 1];
+            if (start == end) continue; // Empty group; nothing to place
+
+            if (end - start > 1 && density(left, top, right, bottom, start, end) < MIN_GROUP_DENSITY) {
+                repackGroup(start, end);
+            }
+
+            Rect bounds = new Rect();
+
+            for (int i = start; i < end; i++) {
+                bounds.union(newLeft[i], newTop[i], newLeft[i] + right[i] - left[i], newTop[i] + bottom[i] - top[i]);
+            }
+
+            groupBounds[g] = bounds;
+
+            // Keep groups in their order outward from the center
+            long dx = bounds.centerX() - centerX;
+            long dy = bounds.centerY() - centerY;
+            order[placedCount++] = (Math.min(dx * dx + dy * dy, Integer.MAX_VALUE) << 32) | g;
+        }
+
+        Arrays.sort(order, 0, placedCount);
+
+        Rect[] placed = new Rect[placedCount];
+
+        for (int k = 0; k < placedCount; k++) {
+            int g = (int) order[k];
+            Rect bounds = groupBounds[g];
+
+            Point offset = spiral(bounds, centerX, centerY, placed, k);
+            bounds.offset(offset.x, offset.y);
+            placed[k] = bounds;
+
+            for (int i = groupStart[g]; i < groupStart[g + 1]; i++) {
+                newLeft[i] += offset.x;
+                newTop[i] += offset.y;
+            }
+        }
+
+        // Keep words off the edges, as WordCloud.repositionWord() does
+        Rect all = new Rect();
+
+        for (int k = 0; k < placedCount; k++) {
+            all.union(placed[k]);
+        }
+
+        int dx = (all.left < padding) ? padding - all.left : 0;
+        int dy = (all.top < padding) ? padding - all.top : 0;
+
+        if (dx != 0 || dy != 0) {
+            for (int i = 0; i < words.length; i++) {
+                newLeft[i] += dx;
+                newTop[i] += dy;
+            }
+        }
+    }
+
+    // Places the words of a group again around its center, nearest the center first.
+    private void repackGroup(int start, int end) {
+        Rect bounds = new Rect();
+
+        for (int i = start; i < end; i++) {
+            bounds.union(left[i], top[i], right[i], bottom[i]);
+        }
+
+        int groupX = bounds.centerX();
+        int groupY = bounds.centerY();
+
+        long[] order = new long[end - start];
+
+        for (int i = start; i < end; i++) {
+            long dx = (left[i] + right[i]) / 2 - groupX;
+            long dy = (top[i] + bottom[i]) / 2 - groupY;
+            order[i - start] = (Math.min(dx * dx + dy * dy, Integer.MAX_VALUE) << 32) | i;
+        }
+
+        Arrays.sort(order);
+
+        Rect[] placed = new Rect[end - start];
+
+        for (int k = 0; k < order.length; k++) {
+            int i = (int) order[k];
+
+            Rect rect = new Rect(left[i], top[i], right[i], bottom[i]);
+            Point offset = spiral(rect, groupX, groupY, placed, k);
+            rect.offset(offset.x, offset.y);
+            placed[k] = rect;
+
+            newLeft[i] = rect.left;
+            newTop[i] = rect.top;
+        }
+    }
+
+    // Returns the offset that moves rect to the first point on a spiral around (x, y)
+    // where it overlaps none of the first count placed rects.
+    private static Point spiral(Rect rect, int x, int y, Rect[] placed, int count) {
+        Rect check = new Rect(rect);
+        WordGroup.Spiral spiral = new WordGroup.Spiral(x, y);
+
+        while (true) {
+            check.offsetTo(spiral.x - rect.width() / 2, spiral.y - rect.height() / 2);
+
+            if (!overlaps(check, placed, count)) {
+                return new Point(check.left - rect.left, check.top - rect.top);
+            }
+
+            spiral.next();
+        }
+    }
+
+    // Checks a rect against the first count placed rects.
+    private static boolean overlaps(Rect rect, Rect[] placed, int count) {
+        for (int i = 0; i < count; i++) {
+            if (Rect.intersects(rect, placed[i])) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // Returns word area over the area of the box around words from to to (exclusive).
+    private static float density(int[] left, int[] top, int[] right, int[] bottom, int from, int to) {
+        if (to <= from) return 1.0f;
+
+        long area = 0;
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+
+        for (int i = from; i < to; i++) {
+            area += (long) (right[i] - left[i]) * (bottom[i] - top[i]);
+
+            minX = Math.min(minX, left[i]);
+            minY = Math.min(minY, top[i]);
+            maxX = Math.max(maxX, right[i]);
+            maxY = Math.max(maxY, bottom[i]);
+        }
+
+        long box = (long) (maxX - minX) * (maxY - minY);
+        return (box > 0) ? Math.min((float) area / box, 1.0f) : 1.0f;
+    }
+}
@@ -0,0 +1,132 @@
+package edu.spu.teamroot.voicecloud;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// The changes between a snapshot the server has acknowledged and the current one.
+// Words are matched by name and groups by ID; indexes refer to the current snapshot,
+// except for removed entries, which refer to the base.
+public class CloudDelta {
+    private static final float MAX_CHANGE_RATIO = 0.5f; // Above this, a full save is about as cheap
+
+    public final String cloudid;
+    public final CloudSnapshot base;
+    public final CloudSnapshot current;
+
+    public int[] changedWords;
+    public int changedWordCount;
+    public int[] removedWords;
+    public int removedWordCount;
+
+    public int[] changedGroups;
+    public int changedGroupCount;
+    public int[] removedGroups;
+    public int removedGroupCount;
+
+    public boolean headerChanged;
+
+    // Computes the delta from base to current.
+    public CloudDelta(String cloudid, CloudSnapshot base, CloudSnapshot current) {
+        this.cloudid = cloudid;
+        this.base = base;
+        this.current = current;
+
+        headerChanged = base.width != current.width || base.height != current.height || base.timestamp != current.timestamp;
+
+        diffWords();
+        diffGroups();
+    }
+
+    /*
+     * Methods
+     */
+
+    // Returns true if nothing changed since the base.
+    public boolean isEmpty() {
+        return !headerChanged && changedWordCount == 0 && removedWordCount == 0
+                && changedGroupCount == 0 && removedGroupCount == 0;
+    }
+
+    // Returns true if the delta is small enough to be worth sending instead of the full cloud.
+    public boolean isWorthSending() {
+        int changes = changedWordCount + removedWordCount + changedGroupCount + removedGroupCount;
+        int total = current.wordCount + current.groupCount;
+
+        return changes <= MAX_CHANGE_RATIO * total;
+    }
+
+    // Finds changed, added and removed words.
+    private void diffWords() {
+        Map<String, Integer> baseIndex = new HashMap<>(base.wordCount * 2);
+
+        for (int i = 0; i < base.wordCount; i++) {
+            baseIndex.put(base.names[i], i);
+        }
+
+        changedWords = new int[current.wordCount];
+        boolean[] seen = new boolean[base.wordCount];
+
+        for (int i = 0; i < current.wordCount; i++) {
+            Integer j = baseIndex.get(current.names[i]);
+
+            if (j == null) {
+                changedWords[changedWordCount++] = i; // Added
+            } else {
+                seen[j] = true;
+
+                if (current.counts[i] != base.counts[j]
+                        || current.timestamps[i] != base.timestamps[j]
+                        || current.wordGroups[i] != base.wordGroups[j]
+                        || current.left[i] != base.left[j]
+                        || current.top[i] != base.top[j]
+                        || current.right[i] != base.right[j]
+                        || current.bottom[i] != base.bottom[j]) {
+                    changedWords[changedWordCount++] = i;
+                }
+            }
+        }
+
+        removedWords = new int[base.wordCount];
+
+        for (int j = 0; j < base.wordCount; j++) {
+            if (!seen[j]) removedWords[removedWordCount++] = j;
+        }
+    }
+
+    // Finds changed, added and removed groups.
+    private void diffGroups() {
+        Map<Integer, Integer> baseIndex = new HashMap<>(base.groupCount * 2);
+
+        for (int i = 0; i < base.groupCount; i++) {
+            baseIndex.put(base.groupIds[i], i);
+        }
+
+        changedGroups = new int[current.groupCount];
+        boolean[] seen = new boolean[base.groupCount];
+
+        for (int i = 0; i < current.groupCount; i++) {
+            Integer j = baseIndex.get(current.groupIds[i]);
+
+            if (j == null) {
+                changedGroups[changedGroupCount++] = i; // Added
+            } else {
+                seen[j] = true;
+
+                if (current.groupCenterX[i] != base.groupCenterX[j]
+                        || current.groupCenterY[i] != base.groupCenterY[j]
+                        || current.groupLeft[i] != base.groupLeft[j]
+                        || current.groupTop[i] != base.groupTop[j]
+                        || current.groupRight[i] != base.groupRight[j]
+                        || current.groupBottom[i] != base.groupBottom[j]) {
+                    changedGroups[changedGroupCount++] = i;
+                }
+            }
+        }
+
+        removedGroups = new int[base.groupCount];
+
+        for (int j = 0; j < base.groupCount; j++) {
+            if (!seen[j]) removedGroups[removedGroupCount++] = j;
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package edu.spu.teamroot.voicecloud;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.sql.Timestamp;
+
+// Streams cloud snapshots to and from the JSON schema used by the web API.
+public class CloudSerializer {
+    private static final int BUFFER_SIZE = 8192;
+
+    // Writes a snapshot as JSON to a stream. The stream is flushed, not closed.
+    public static void write(CloudSnapshot snapshot, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), BUFFER_SIZE);
+        write(snapshot, writer);
+        writer.flush();
+    }
+
+    // Writes a snapshot as JSON to a writer. The writer is flushed, not closed.
+    public static void write(CloudSnapshot snapshot, Writer out) throws IOException {
+        JsonWriter json = new JsonWriter(out);
+
+        // Reused for every word; Timestamp.toString() keeps the server's date format
+        Timestamp timestamp = new Timestamp(snapshot.timestamp);
+
+        json.beginObject();
+        json.name("cloud").beginObject();
+
+        json.name("width").value(snapshot.width);
+        json.name("height").value(snapshot.height);
+        json.name("timestamp").value(timestamp.toString());
+
+        json.name("words").beginArray();
+
+        for (int i = 0; i < snapshot.wordCount; i++) {
+            writeWord(json, snapshot, i, timestamp);
+        }
+
+        json.endArray();
+
+        json.name("groups").beginArray();
+
+        for (int i = 0; i < snapshot.groupCount; i++) {
+            writeGroup(json, snapshot, i);
+        }
+
+        json.endArray();
+
+        json.endObject();
+        json.endObject();
+        json.flush();
+    }
+
+    // Writes a delta as JSON to a stream. The stream is flushed, not closed.
+    public static void writeDelta(CloudDelta delta, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), BUFFER_SIZE);
+        writeDelta(delta, writer);
+        writer.flush();
+    }
+
+    // Writes a delta as JSON to a writer: the cloud header, changed words and groups,
+    // and the names and IDs of removed ones. The writer is flushed, not closed.
+    public static void writeDelta(CloudDelta delta, Writer out) throws IOException {
+        JsonWriter json = new JsonWriter(out);
+        CloudSnapshot snapshot = delta.current;
+        Timestamp timestamp = new Timestamp(snapshot.timestamp);
+
+        json.beginObject();
+        json.name("cloudid").value(delta.cloudid);
+        json.name("cloud").beginObject();
+
+        json.name("width").value(snapshot.width);
+        json.name("height").value(snapshot.height);
+        json.name("timestamp").value(timestamp.toString());
+
+        json.name("words").beginArray();
+
+        for (int i = 0; i < delta.changedWordCount; i++) {
+            writeWord(json, snapshot, delta.changedWords[i], timestamp);
+        }
+
+        json.endArray();
+
+        json.name("removedwords").beginArray();
+
+        for (int i = 0; i < delta.removedWordCount; i++) {
+            json.value(delta.base.names[delta.removedWords[i]]);
+        }
+
+        json.endArray();
+
+        json.name("groups").beginArray();
+
+        for (int i = 0; i < delta.changedGroupCount; i++) {
+            writeGroup(json, snapshot, delta.changedGroups[i]);
+        }
+
+        json.endArray();
+
+        json.name("removedgroups").beginArray();
+
+        for (int i = 0; i < delta.removedGroupCount; i++) {
+            json.value(delta.base.groupIds[delta.removedGroups[i]]);
+        }
+
+        json.endArray();
+
+        json.endObject();
+        json.endObject();
+        json.flush();
+    }
+
+    // Writes the word at index i. The timestamp object is reused.
+    private static void writeWord(JsonWriter json, CloudSnapshot snapshot, int i, Timestamp timestamp) throws IOException {
+        timestamp.setTime(snapshot.timestamps[i]);
+
+        json.beginObject();
+        json.name("name").value(snapshot.names[i]);
+        json.name("count").value(snapshot.counts[i]);
+        json.name("timestamp").value(timestamp.toString());
+        json.name("attached").value(snapshot.wordGroups[i] >= 0 ? 1 : 0);
+        json.name("group").value(snapshot.wordGroups[i]);
+        json.name("bottom").value(snapshot.bottom[i]);
+        json.name("left").value(snapshot.left[i]);
+        json.name("right").value(snapshot.right[i]);
+        json.name("top").value(snapshot.top[i]);
+        json.endObject();
+    }
+
+    // Writes the group at index i.
+    private static void writeGroup(JsonWriter json, CloudSnapshot snapshot, int i) throws IOException {
+        json.beginObject();
+        json.name("groupcloudid").value(snapshot.groupIds[i]);
+        json.name("centerx").value(snapshot.groupCenterX[i]);
+        json.name("centery").value(snapshot.groupCenterY[i]);
+        json.name("bottom").value(snapshot.groupBottom[i]);
+        json.name("left").value(snapshot.groupLeft[i]);
+        json.name("right").value(snapshot.groupRight[i]);
+        json.name("top").value(snapshot.groupTop[i]);
+        json.endObject();
+    }
+
+    // Reads a snapshot from a JSON stream. The stream is not closed.
+    public static CloudSnapshot read(InputStream in) throws IOException {
+        return read(new BufferedReader(new InputStreamReader(in, "UTF-8"), BUFFER_SIZE));
+    }
+
+    // Reads a snapshot from a JSON reader. Numbers may be sent as numbers or strings.
+    public static CloudSnapshot read(Reader in) throws IOException {
+        JsonReader json = new JsonReader(in);
+        CloudSnapshot snapshot = new CloudSnapshot(0, 0);
+
+        json.beginObject();
+
+        while (json.hasNext()) {
+            if (json.nextName().equals("cloud")) {
+                readCloud(json, snapshot);
+            } else {
+                json.skipValue();
+            }
+        }
+
+        json.endObject();
+
+        return snapshot;
+    }
+
+    // Reads the cloud object.
+    private static void readCloud(JsonReader json, CloudSnapshot snapshot) throws IOException {
+        json.beginObject();
+
+        while (json.hasNext()) {
+            String name = json.nextName();
+
+            if (name.equals("width")) {
+                snapshot.width = readInt(json);
+            } else if (name.equals("height")) {
+                snapshot.height = readInt(json);
+            } else if (name.equals("timestamp")) {
+                snapshot.timestamp = readTimestamp(json);
+            } else if (name.equals("words")) {
+                json.beginArray();
+
+                while (json.hasNext()) {
+                    snapshot.ensureWordCapacity(snapshot.wordCount + 1);
+                    readWord(json, snapshot, snapshot.wordCount++);
+                }
+
+                json.endArray();
+            } else if (name.equals("groups")) {
+                json.beginArray();
+
+                while (json.hasNext()) {
+                    snapshot.ensureGroupCapacity(snapshot.groupCount + 1);
+                    readGroup(json, snapshot, snapshot.groupCount++);
+                }
+
+                json.endArray();
+            } else {
+                json.skipValue();
+            }
+        }
+
+        json.endObject();
+    }
+
+    // Reads a word object into index i.
+    private static void readWord(JsonReader json, CloudSnapshot snapshot, int i) throws IOException {
+        snapshot.wordGroups[i] = -1;
+
+        json.beginObject();
+
+        while (json.hasNext()) {
+            String name = json.nextName();
+
+            if (name.equals("name")) {
+                snapshot.names[i] = json.nextString();
+            } else if (name.equals("count")) {
+                snapshot.counts[i] = readInt(json);
+            } else if (name.equals("timestamp")) {
+                snapshot.timestamps[i] = readTimestamp(json);
+            } else if (name.equals("group")) {
+                snapshot.wordGroups[i] = readInt(json);
+            } else if (name.equals("left")) {
+                snapshot.left[i] = readInt(json);
+            } else if (name.equals("top")) {
+                snapshot.top[i] = readInt(json);
+            } else if (name.equals("right")) {
+                snapshot.right[i] = readInt(json);
+            } else if (name.equals("bottom")) {
+                snapshot.bottom[i] = readInt(json);
+            } else {
+                json.skipValue();
+            }
+        }
+
+        json.endObject();
+    }
+
+    // Reads a group object into index i.
+    private static void readGroup(JsonReader json, CloudSnapshot snapshot, int i) throws IOException {
+        json.beginObject();
+
+        while (json.hasNext()) {
+            String name = json.nextName();
+
+            if (name.equals("groupcloudid")) {
+                snapshot.groupIds[i] = readInt(json);
+            } else if (name.equals("centerx")) {
+                snapshot.groupCenterX[i] = readInt(json);
+            } else if (name.equals("centery")) {
+                snapshot.groupCenterY[i] = readInt(json);
+            } else if (name.equals("left")) {
+                snapshot.groupLeft[i] = readInt(json);
+            } else if (name.equals("top")) {
+                snapshot.groupTop[i] = readInt(json);
+            } else if (name.equals("right")) {
+                snapshot.groupRight[i] = readInt(json);
+            } else if (name.equals("bottom")) {
+                snapshot.groupBottom[i] = readInt(json);
+            } else {
+                json.skipValue();
+            }
+        }
+
+        json.endObject();
+    }
+
+    // Reads an int sent as either a number or a string.
+    private static int readInt(JsonReader json) throws IOException {
+        if (json.peek() == JsonToken.NULL) {
+            json.nextNull();
+            return 0;
+        }
+
+        // nextInt() also parses numeric strings
+        return json.nextInt();
+    }
+
+    // Reads a timestamp string in java.sql.Timestamp format.
+    private static long readTimestamp(JsonReader json) throws IOException {
+        if (json.peek() == JsonToken.NULL) {
+            json.nextNull();
+            return System.currentTimeMillis();
+        }
+
+        try {
+            return Timestamp.valueOf(json.nextString()).getTime();
+        } catch (IllegalArgumentException e) {
+            return System.currentTimeMillis();
+        }
+    }
+}
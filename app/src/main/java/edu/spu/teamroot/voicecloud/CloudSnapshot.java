@@ -0,0 +1,127 @@
+package edu.spu.teamroot.voicecloud;
+
+import android.graphics.RectF;
+
+import java.util.Arrays;
+
+// A copy of the word cloud model, detached from views and safe to read from any thread.
+// Taken with WordCloud.snapshot(), which copies the word store's columns.
+public class CloudSnapshot {
+    // Layout size (dp) and cloud creation time
+    public int width;
+    public int height;
+    public long timestamp;
+
+    // Web cloudid the cloud was last saved as or loaded from, if known (kept in local snapshots only)
+    public String cloudId;
+
+    // SessionJournal generation this snapshot is a checkpoint of (local snapshots only)
+    public long generation;
+
+    // Groups
+    public int groupCount;
+    public int[] groupIds;
+    public int[] groupCenterX;
+    public int[] groupCenterY;
+    public int[] groupLeft;
+    public int[] groupTop;
+    public int[] groupRight;
+    public int[] groupBottom;
+
+    // Words; wordGroups[i] is -1 for detached words
+    public int wordCount;
+    public String[] names;
+    public int[] counts;
+    public long[] timestamps;
+    public int[] wordGroups;
+    public int[] left;
+    public int[] top;
+    public int[] right;
+    public int[] bottom;
+
+    // Last text size (sp) and color applied to each word; 0 if never weighed (e.g. read from JSON)
+    public int[] sizes;
+    public int[] colors;
+
+    // Allocates arrays for the given number of groups and words.
+    public CloudSnapshot(int groupCount, int wordCount) {
+        this.groupCount = groupCount;
+        groupIds = new int[groupCount];
+        groupCenterX = new int[groupCount];
+        groupCenterY = new int[groupCount];
+        groupLeft = new int[groupCount];
+        groupTop = new int[groupCount];
+        groupRight = new int[groupCount];
+        groupBottom = new int[groupCount];
+
+        this.wordCount = wordCount;
+        names = new String[wordCount];
+        counts = new int[wordCount];
+        timestamps = new long[wordCount];
+        wordGroups = new int[wordCount];
+        left = new int[wordCount];
+        top = new int[wordCount];
+        right = new int[wordCount];
+        bottom = new int[wordCount];
+        sizes = new int[wordCount];
+        colors = new int[wordCount];
+    }
+
+    // Returns true if a word is placed in the cloud and has been weighed, so it can be drawn.
+    public boolean isDrawn(int i) {
+        return wordGroups[i] >= 0 && sizes[i] > 0 && names[i] != null;
+    }
+
+    // Returns the area covered by the drawn words, plus padding, in dp.
+    public RectF getContentBounds() {
+        RectF bounds = null;
+
+        for (int i = 0; i < wordCount; i++) {
+            if (!isDrawn(i)) continue;
+
+            if (bounds == null) {
+                bounds = new RectF(left[i], top[i], right[i], bottom[i]);
+            } else {
+                bounds.union(left[i], top[i], right[i], bottom[i]);
+            }
+        }
+
+        if (bounds == null) {
+            return new RectF(0, 0, Math.max(width, 1), Math.max(height, 1));
+        }
+
+        bounds.inset(-WordCloud.PADDING, -WordCloud.PADDING);
+        return bounds;
+    }
+
+    // Grows the group arrays to hold at least the given number of groups.
+    public void ensureGroupCapacity(int capacity) {
+        if (capacity <= groupIds.length) return;
+
+        capacity = Math.max(capacity, groupIds.length * 2);
+        groupIds = Arrays.copyOf(groupIds, capacity);
+        groupCenterX = Arrays.copyOf(groupCenterX, capacity);
+        groupCenterY = Arrays.copyOf(groupCenterY, capacity);
+        groupLeft = Arrays.copyOf(groupLeft, capacity);
+        groupTop = Arrays.copyOf(groupTop, capacity);
+        groupRight = Arrays.copyOf(groupRight, capacity);
+        groupBottom = Arrays.copyOf(groupBottom, capacity);
+    }
+
+    // Grows the word arrays to hold at least the given number of words.
+    public void ensureWordCapacity(int capacity) {
+        if (capacity <= names.length) return;
+
+        capacity = Math.max(capacity, names.length * 2);
+        names = Arrays.copyOf(names, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        wordGroups = Arrays.copyOf(wordGroups, capacity);
+        left = Arrays.copyOf(left, capacity);
+        top = Arrays.copyOf(top, capacity);
+        right = Arrays.copyOf(right, capacity);
+        bottom = Arrays.copyOf(bottom, capacity);
+        sizes = Arrays.copyOf(sizes, capacity);
+        colors = Arrays.copyOf(colors, capacity);
+    }
+}
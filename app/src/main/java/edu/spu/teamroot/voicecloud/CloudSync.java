@@ -0,0 +1,244 @@
+package edu.spu.teamroot.voicecloud;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Runs cloud saves and loads on background threads, reporting back on the main thread.
+public class CloudSync {
+    /*
+     * Static members
+     */
+
+    private static final long DEFAULT_TIMEOUT = 60000; // Overall time limit per transfer, in ms
+
+    private static long transferTimeout = DEFAULT_TIMEOUT;
+
+    private static final ExecutorService transferExecutor = Executors.newFixedThreadPool(2);
+    private static final ScheduledExecutorService timeoutExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private static String baseURL = JSONTransmitter.DEFAULT_BASE_URL;
+
+    private static final int MAX_ACKNOWLEDGED = 4; // Clouds to remember for delta saves
+
+    // Last version of each cloud the server has confirmed, by cloudid, least recently used first
+    private static final Map<String, CloudSnapshot> acknowledged = new LinkedHashMap<String, CloudSnapshot>(8, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CloudSnapshot> eldest) {
+            return size() > MAX_ACKNOWLEDGED;
+        }
+    };
+
+    // Receives the outcome of a transfer. All methods are called on the main thread.
+    public interface Callback<T> {
+        // Bytes transferred so far; total is -1 if unknown.
+        void onProgress(long bytes, long total);
+
+        void onSuccess(T result);
+
+        // Called with a TimeoutException on timeout. Not called after cancel().
+        void onFailure(Exception e);
+    }
+
+    // A handle to a transfer in progress.
+    public static class Task {
+        private final JSONTransmitter transmitter;
+        private final AtomicBoolean done = new AtomicBoolean(false);
+
+        // Set from the starting thread, read from the transfer and timeout threads
+        private volatile Future<?> future;
+        private volatile ScheduledFuture<?> timeout;
+
+        private Task(JSONTransmitter transmitter) {
+            this.transmitter = transmitter;
+        }
+
+        // Cancels the transfer. No further callbacks are made.
+        public void cancel() {
+            if (done.compareAndSet(false, true)) {
+                Log.d("CloudSync", "Transfer cancelled");
+                abort();
+            }
+        }
+
+        // Returns true once the transfer has finished, failed or been cancelled.
+        public boolean isDone() {
+            return done.get();
+        }
+
+        private void abort() {
+            transmitter.abort();
+            if (future != null) future.cancel(true);
+            if (timeout != null) timeout.cancel(false);
+        }
+    }
+
+    // A unit of work that runs on the transfer executor.
+    private interface Transfer<T> {
+        T run(JSONTransmitter transmitter, JSONTransmitter.ProgressListener listener) throws Exception;
+    }
+
+    /*
+     * Static methods
+     */
+
+    // Sets the API base URL, e.g. to point at a local test server.
+    public static void setBaseURL(String url) {
+        baseURL = url;
+    }
+
+    public static String getBaseURL() {
+        return baseURL;
+    }
+
+    // Sets the overall time limit per transfer, in ms. For testing.
+    static void setTimeout(long millis) {
+        transferTimeout = millis;
+    }
+
+    // Uploads a snapshot. The callback receives the new cloudid.
+    // If cloudid is set and the server has acknowledged an earlier version of it, only the changes are sent.
+    public static Task save(final String cloudid, final CloudSnapshot snapshot, Callback<String> callback) {
+        return start(new Transfer<String>() {
+            @Override
+            public String run(JSONTransmitter transmitter, JSONTransmitter.ProgressListener listener) throws Exception {
+                String result = null;
+                CloudSnapshot base = (cloudid != null) ? getAcknowledged(cloudid) : null;
+
+                if (base != null) {
+                    CloudDelta delta = new CloudDelta(cloudid, base, snapshot);
+
+                    if (delta.isEmpty()) {
+                        Log.d("CloudSync", "No changes since last save");
+                        result = cloudid;
+                    } else if (delta.isWorthSending()) {
+                        try {
+                            result = transmitter.saveDelta(delta, listener);
+                        } catch (IOException e) {
+                            if (transmitter.isAborted()) throw e;
+                            Log.d("CloudSync", "Delta rejected; saving in full: " + e);
+                        }
+                    }
+                }
+
+                if (result == null) {
+                    result = transmitter.save(snapshot, listener);
+                }
+
+                setAcknowledged(result, snapshot);
+                return result;
+            }
+        }, callback, transferTimeout);
+    }
+
+    // Downloads a cloud. The callback receives the parsed snapshot.
+    public static Task load(final String cloudid, Callback<CloudSnapshot> callback) {
+        return start(new Transfer<CloudSnapshot>() {
+            @Override
+            public CloudSnapshot run(JSONTransmitter transmitter, JSONTransmitter.ProgressListener listener) throws Exception {
+                CloudSnapshot snapshot = transmitter.load(cloudid, listener);
+                setAcknowledged(cloudid, snapshot);
+                return snapshot;
+            }
+        }, callback, transferTimeout);
+    }
+
+    // Returns the last version of a cloud the server has confirmed, or null.
+    private static CloudSnapshot getAcknowledged(String cloudid) {
+        synchronized (acknowledged) {
+            return acknowledged.get(cloudid);
+        }
+    }
+
+    // Records the version of a cloud the server has confirmed. Snapshots are never modified after this.
+    private static void setAcknowledged(String cloudid, CloudSnapshot snapshot) {
+        synchronized (acknowledged) {
+            acknowledged.put(cloudid, snapshot);
+        }
+    }
+
+    // Starts a transfer with an overall timeout.
+    private static <T> Task start(final Transfer<T> transfer, final Callback<T> callback, long timeoutMillis) {
+        final Task task = new Task(new JSONTransmitter(baseURL));
+
+        final JSONTransmitter.ProgressListener listener = new JSONTransmitter.ProgressListener() {
+            @Override
+            public void onProgress(final long bytes, final long total) {
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!task.isDone()) callback.onProgress(bytes, total);
+                    }
+                });
+            }
+        };
+
+        // Schedule the timeout first, so a transfer that finishes at once finds it set
+        task.timeout = timeoutExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (task.done.compareAndSet(false, true)) {
+                    task.abort();
+
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onFailure(new TimeoutException("Transfer timed out"));
+                        }
+                    });
+                }
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+
+        task.future = transferExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final T result = transfer.run(task.transmitter, listener);
+
+                    finish(task, new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onSuccess(result);
+                        }
+                    });
+                } catch (final Exception e) {
+                    Log.d("CloudSync", "Transfer failed: " + e);
+
+                    finish(task, new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onFailure(e);
+                        }
+                    });
+                }
+            }
+        });
+
+        return task;
+    }
+
+    // Marks a task done and posts its final callback, unless it was cancelled or timed out.
+    private static void finish(Task task, Runnable callback) {
+        if (task.done.compareAndSet(false, true)) {
+            ScheduledFuture<?> timeout = task.timeout;
+            if (timeout != null) timeout.cancel(false);
+
+            mainHandler.post(callback);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package edu.spu.teamroot.voicecloud;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Time-indexed history of word count changes for the current cloud, for scrubbing back in time.
+//
+// Events are stored in parallel arrays in time order. Every CHECKPOINT_INTERVAL events, the running
+// counts are copied as a checkpoint, so the counts at any time are found by a binary search for the
+// last event at or before it, then replaying at most CHECKPOINT_INTERVAL events from the checkpoint.
+public class CloudTimeline implements WordCloud.DeltaListener {
+    private static final int CHECKPOINT_INTERVAL = 512; // Events between checkpoints
+
+    // Word names, by index (indexes are never reused, unlike word IDs)
+    private final Map<String, Integer> nameIndex = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+
+    // Events
+    private long[] times = new long[1024];
+    private int[] wordIndexes = new int[1024];
+    private int[] deltas = new int[1024];
+    private int eventCount;
+
+    // Counts before event i * CHECKPOINT_INTERVAL, by word index
+    private int[][] checkpoints = new int[16][];
+
+    // Counts after the last event, by word index
+    private int[] current = new int[64];
+
+    private long startTime;
+
+    public CloudTimeline(long startTime) {
+        this.startTime = startTime;
+    }
+
+    /*
+     * Methods
+     */
+
+    // Returns the time of the start of the cloud.
+    public synchronized long getStartTime() {
+        return startTime;
+    }
+
+    // Returns the time of the last change, or the start time if there are none.
+    public synchronized long getEndTime() {
+        return (eventCount > 0) ? times[eventCount - 1] : startTime;
+    }
+
+    // Returns the index used for a word in reconstructed counts, or -1 if it never had a count.
+    public synchronized int indexOf(String name) {
+        Integer index = nameIndex.get(name);
+        return (index != null) ? index : -1;
+    }
+
+    // Returns the counts of every word at a time, by word index (see indexOf()).
+    // The array may be shorter than the number of words; missing words had no count yet.
+    public synchronized int[] reconstruct(long time) {
+        // Last event at or before the time
+        int last = upperBound(time) - 1;
+
+        if (last < 0) {
+            return new int[0];
+        }
+
+        int checkpoint = last / CHECKPOINT_INTERVAL;
+        int[] base = checkpoints[checkpoint];
+        int[] counts = Arrays.copyOf(base, Math.max(base.length, names.size()));
+
+        for (int i = checkpoint * CHECKPOINT_INTERVAL; i <= last; i++) {
+            counts[wordIndexes[i]] += deltas[i];
+        }
+
+        return counts;
+    }
+
+    // Returns the index of the first event after a time.
+    private int upperBound(long time) {
+        int low = 0;
+        int high = eventCount;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (times[mid] <= time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    // Appends an event, checkpointing first if one is due.
+    private void append(long time, String name, int delta) {
+        Integer index = nameIndex.get(name);
+
+        if (index == null) {
+            index = names.size();
+            nameIndex.put(name, index);
+            names.add(name);
+
+            if (index >= current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+        }
+
+        if (eventCount == times.length) {
+            times = Arrays.copyOf(times, eventCount * 2);
+            wordIndexes = Arrays.copyOf(wordIndexes, eventCount * 2);
+            deltas = Arrays.copyOf(deltas, eventCount * 2);
+        }
+
+        if (eventCount % CHECKPOINT_INTERVAL == 0) {
+            int checkpoint = eventCount / CHECKPOINT_INTERVAL;
+
+            if (checkpoint == checkpoints.length) {
+                checkpoints = Arrays.copyOf(checkpoints, checkpoint * 2);
+            }
+
+            checkpoints[checkpoint] = Arrays.copyOf(current, names.size());
+        }
+
+        // Keep times ordered for the binary search, even if the clock steps back
+        times[eventCount] = (eventCount > 0) ? Math.max(time, times[eventCount - 1]) : time;
+        wordIndexes[eventCount] = index;
+        deltas[eventCount] = delta;
+        eventCount++;
+
+        current[index] += delta;
+    }
+
+    // Forgets all history, starting again at a time.
+    private void reset(long time) {
+        nameIndex.clear();
+        names.clear();
+        eventCount = 0;
+        Arrays.fill(checkpoints, null);
+        current = new int[64];
+        startTime = time;
+    }
+
+    /*
+     * WordCloud.DeltaListener
+     */
+
+    @Override
+    public synchronized void onWordDelta(long time, Word word, int delta) {
+        append(time, word.getName(), delta);
+    }
+
+    @Override
+    public synchronized void onWordRemoved(long time, Word word) {
+        int index = indexOf(word.getName());
+
+        if (index >= 0 && current[index] != 0) {
+            append(time, word.getName(), -current[index]);
+        }
+    }
+
+    @Override
+    public synchronized void onCleared(long time) {
+        reset(time);
+    }
+
+    @Override
+    public synchronized void onSnapshotLoaded(CloudSnapshot snapshot) {
+        reset(snapshot.timestamp);
+
+        // Only the last change time of each word is known; place each count there
+        Integer[] order = new Integer[snapshot.wordCount];
+
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+
+        final long[] timestamps = snapshot.timestamps;
+
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return (timestamps[a] < timestamps[b]) ? -1 : ((timestamps[a] == timestamps[b]) ? 0 : 1);
+            }
+        });
+
+        for (int i : order) {
+            if (snapshot.names[i] != null && snapshot.counts[i] != 0) {
+                append(snapshot.timestamps[i], snapshot.names[i], snapshot.counts[i]);
+            }
+        }
+    }
+}
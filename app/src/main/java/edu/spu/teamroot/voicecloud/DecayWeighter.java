@@ -0,0 +1,215 @@
+package edu.spu.teamroot.voicecloud;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.Arrays;
+
+// Weights words by exponentially decayed frequency, so old words fade out of the cloud.
+//
+// Scores are stored relative to a global epoch: an occurrence at time t adds exp(rate * (t - epoch)),
+// and the decayed score at time now is the stored value times exp(-rate * (now - epoch)).
+// Only words whose count changes are touched on update. A budgeted sweep then shrinks and cools
+// attached words as their scores decay, and hides them once they fall below the threshold.
+public class DecayWeighter extends PerWordWeighter {
+    private static final long DEFAULT_HALF_LIFE = 5 * 60 * 1000; // 5 minutes
+    private static final double DEFAULT_THRESHOLD = 0.5; // Hide below half an occurrence
+
+    private static final double MAX_EXPONENT = 30.0; // Rebase the epoch past this, to keep doubles in range
+
+    private static final long SWEEP_INTERVAL = 1000; // Time between sweeps, in ms
+    private static final long FRAME_BUDGET = 4; // Time a sweep may use per frame, in ms
+
+    private static final int MIN_SIZE = 8;
+
+    private final double rate; // Decay rate, per ms
+    private final double threshold;
+
+    private long epoch;
+
+    // Per word ID state
+    private double[] scores; // Sum of exp(rate * (t - epoch)) over occurrences
+    private int[] lastCounts;
+
+    private Handler sweepHandler;
+    private int sweepCursor;
+    private boolean sweepScheduled;
+
+    private final Runnable sweepTask = new Runnable() {
+        @Override
+        public void run() {
+            sweepScheduled = false;
+            sweep();
+        }
+    };
+
+    public DecayWeighter() {
+        this(DEFAULT_HALF_LIFE, DEFAULT_THRESHOLD);
+    }
+
+    public DecayWeighter(long halfLife, double threshold) {
+        this.rate = Math.log(2) / halfLife;
+        this.threshold = threshold;
+
+        epoch = System.currentTimeMillis();
+
+        scores = new double[getCapacity()];
+        lastCounts = new int[getCapacity()];
+
+        sweepHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /*
+     * Decay helpers
+     */
+
+    @Override
+    protected void onGrow(int capacity) {
+        scores = Arrays.copyOf(scores, capacity);
+        lastCounts = Arrays.copyOf(lastCounts, capacity);
+    }
+
+    @Override
+    protected void onClaim(int id, Word word) {
+        scores[id] = 0;
+        lastCounts[id] = 0;
+    }
+
+    // Records any count change of the word since it was last seen.
+    private void update(Word word) {
+        int id = claim(word);
+        if (id < 0) return;
+
+        int delta = word.getCount() - lastCounts[id];
+
+        if (delta != 0) {
+            long timestamp = word.getTimestamp();
+
+            if (rate * (timestamp - epoch) > MAX_EXPONENT) {
+                rebase(timestamp);
+            }
+
+            scores[id] = Math.max(scores[id] + delta * Math.exp(rate * (timestamp - epoch)), 0);
+            lastCounts[id] = word.getCount();
+
+            scheduleSweep();
+        }
+    }
+
+    // Moves the epoch forward, rescaling all stored scores. Runs once every few hours.
+    private void rebase(long newEpoch) {
+        double scale = Math.exp(-rate * (newEpoch - epoch));
+
+        for (int id = 0; id < scores.length; id++) {
+            scores[id] *= scale;
+        }
+
+        epoch = newEpoch;
+    }
+
+    // Returns the decayed score of a word ID at the given time.
+    private double decayedScore(int id, long now) {
+        return scores[id] * Math.exp(-rate * (now - epoch));
+    }
+
+    // Returns the decayed score of a word now.
+    public double getScore(Word word) {
+        update(word);
+
+        int id = word.getWordId();
+        return (id >= 0) ? decayedScore(id, System.currentTimeMillis()) : 0;
+    }
+
+    /*
+     * Sweep
+     */
+
+    // Schedules a sweep, if one is not already pending.
+    private void scheduleSweep() {
+        if (sweepScheduled) return;
+
+        sweepScheduled = true;
+        sweepHandler.postDelayed(sweepTask, SWEEP_INTERVAL);
+    }
+
+    // Resizes attached words whose decayed size or color has changed, and hides those whose score
+    // has decayed below the threshold. Work is split into frame-sized slices so the UI thread is
+    // never held for long.
+    private void sweep() {
+        WordCloud cloud = WordCloud.getInstance();
+
+        if (cloud == null || cloud.weighter != this) {
+            return; // No longer the active weighter
+        }
+
+        WordStore store = cloud.store;
+
+        long deadline = SystemClock.uptimeMillis() + FRAME_BUDGET;
+        long now = System.currentTimeMillis();
+        double minScore = threshold * Math.exp(rate * (now - epoch)); // Threshold, in stored units
+
+        boolean pending = false; // True if any attached word is still decaying
+
+        while (sweepCursor < store.size()) {
+            int id = sweepCursor++;
+            Word word = store.getWord(id);
+
+            if (word == null || !word.isAttached() || !owns(id, word)) continue;
+
+            if (scores[id] < minScore) {
+                cloud.evaluateWord(word);
+            } else {
+                pending = true;
+
+                synchronized (cloud) {
+                    if (getTextSize(word) != store.sizes[id] || getWordColor(word) != store.colors[id]) {
+                        word.refreshSize(true);
+                        cloud.repositionWord(word, false); // As WordCloud.addWord() does after a resize
+                    }
+                }
+            }
+
+            if (SystemClock.uptimeMillis() >= deadline) {
+                // Out of time; continue on the next frame
+                sweepHandler.post(sweepTask);
+                sweepScheduled = true;
+                return;
+            }
+        }
+
+        // Full pass complete
+        sweepCursor = 0;
+
+        if (pending) {
+            scheduleSweep();
+        }
+    }
+
+    /*
+     * WordWeighter
+     */
+
+    @Override
+    public int getTextSize(Word word) {
+        double score = getScore(word);
+
+        return Math.max(SimpleWeighter.getGrowthSize(Math.max(score, 0.5)), MIN_SIZE);
+    }
+
+    @Override
+    public int getWordColor(Word word) {
+        // Hotter colors for higher current scores
+        return getScoreColor(getScore(word));
+    }
+
+    @Override
+    public boolean shouldShow(Word word) {
+        return word.getCount() >= 1 && getScore(word) >= threshold;
+    }
+
+    @Override
+    public boolean refreshAll(Word word) {
+        return false; // Decayed words are resized and hidden by the sweep
+    }
+}
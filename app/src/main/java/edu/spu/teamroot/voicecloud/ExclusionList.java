@@ -143,7 +143,7 @@ public class ExclusionList {
     }
 
     // Adds a word to the exclusion list. Returns false if word was already in the list.
-    public boolean addWord(String word) {
+    public synchronized boolean addWord(String word) {
         if (excludeList.containsKey(word)) {
             return false;
         }
@@ -153,13 +153,13 @@ public class ExclusionList {
     }
 
     // Removes a word from the exclusion list.
-    public void removeWord(String word) {
+    public synchronized void removeWord(String word) {
         excludeList.remove(word);
     }
 
     // Checks if a word is in the exclusion list.
     // Also increments the hit count if a word is found.
-    public boolean isWordExcluded(String word) {
+    public synchronized boolean isWordExcluded(String word) {
         boolean wordFound = excludeList.containsKey(word);
 
         if (wordFound) {
@@ -169,4 +169,16 @@ public class ExclusionList {
 
         return wordFound;
     }
+
+    // Returns a copy of the excluded words, with the number of times each was heard since being excluded.
+    // Locked against isWordExcluded(), which runs on the preprocessor thread.
+    public synchronized Map<String, Integer> getHitCounts() {
+        Map<String, Integer> hits = new TreeMap<>();
+
+        for (Map.Entry<String, Integer> entry : excludeList.entrySet()) {
+            hits.put(entry.getKey(), entry.getValue() - 1); // Counts start at 1 when added
+        }
+
+        return hits;
+    }
 }
@@ -0,0 +1,316 @@
+package edu.spu.teamroot.voicecloud;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+// A read-only table of background word frequencies, memory-mapped from a sorted binary asset.
+//
+// Format (big-endian):
+//   int magic ('VCFT'), int version, int count, int reserved, long total
+//   int[count + 1] word offsets into the string blob
+//   int[count] frequencies
+//   byte[] string blob (UTF-8 words, sorted by unsigned byte order, no separators)
+//
+// Lookups binary search the mapped buffer directly; nothing is parsed at startup.
+public class FrequencyTable {
+    /*
+     * Static members
+     */
+
+    public static final String ASSET_NAME = "word_frequency.bin";
+
+    private static final int MAGIC = 0x56434654; // 'VCFT'
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /*
+     * Static methods
+     */
+
+    // Opens the bundled frequency table. Returns null if it cannot be read.
+    public static FrequencyTable openAsset(Context context) {
+        try {
+            // Uncompressed assets can be mapped in place
+            AssetFileDescriptor afd = context.getAssets().openFd(ASSET_NAME);
+            FileInputStream in = afd.createInputStream();
+
+            try {
+                return new FrequencyTable(in.getChannel().map(FileChannel.MapMode.READ_ONLY, afd.getStartOffset(), afd.getLength()));
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.d("FrequencyTable", "Asset is compressed; copying to cache");
+        }
+
+        File file = new File(context.getCacheDir(), ASSET_NAME);
+
+        try {
+            // Otherwise, copy it out once and map the copy
+            if (!file.exists()) {
+                copyAsset(context, file);
+            }
+
+            FileInputStream in = new FileInputStream(file);
+
+            try {
+                return new FrequencyTable(in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length()));
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.d("FrequencyTable", "Error opening frequency table!");
+            e.printStackTrace();
+
+            // Copy it again next time
+            file.delete();
+        }
+
+        return null;
+    }
+
+    // Copies the asset to a file. The copy is written under a temporary name and renamed when
+    // complete, so an interrupted copy is never mistaken for the table.
+    private static void copyAsset(Context context, File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        InputStream in = context.getAssets().open(ASSET_NAME);
+
+        try {
+            OutputStream out = new FileOutputStream(temp);
+
+            try {
+                byte[] buffer = new byte[8192];
+                int read;
+
+                while ((read = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not rename " + temp);
+        }
+    }
+
+    // Builds a table file from a word list, for the generateFrequencyTable Gradle task.
+    // Usage: FrequencyTable <word list> <table>
+    // The list has a word and its count per line, separated by a tab, and an @total line giving the
+    // number of tokens counted. Lines starting with # are comments.
+    public static void main(String[] args) throws IOException {
+        Map<String, Integer> frequencies = new HashMap<>();
+        long total = 0;
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(args[0]), UTF8));
+
+        try {
+            String line;
+            int number = 0;
+
+            while ((line = in.readLine()) != null) {
+                number++;
+                if (line.isEmpty() || line.startsWith("#")) continue;
+
+                if (line.startsWith("@total")) {
+                    total = Long.parseLong(line.substring(6).trim());
+                    continue;
+                }
+
+                int tab = line.indexOf('\t');
+
+                if (tab <= 0) {
+                    throw new IOException(args[0] + ":" + number + ": expected a word, a tab and a count");
+                }
+
+                if (frequencies.put(line.substring(0, tab), Integer.parseInt(line.substring(tab + 1).trim())) != null) {
+                    throw new IOException(args[0] + ":" + number + ": duplicate word " + line.substring(0, tab));
+                }
+            }
+        } finally {
+            in.close();
+        }
+
+        if (total <= 0) {
+            throw new IOException(args[0] + ": missing @total line");
+        }
+
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(args[1]));
+
+        try {
+            write(frequencies, total, out);
+        } finally {
+            out.close();
+        }
+
+        System.out.println("Wrote " + frequencies.size() + " words to " + args[1]);
+    }
+
+    // Writes a table in the binary format.
+    public static void write(Map<String, Integer> frequencies, long total, OutputStream out) throws IOException {
+        // Sort by UTF-8 bytes so lookups can compare bytes directly
+        TreeMap<ByteKey, Integer> sorted = new TreeMap<>();
+
+        for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+            sorted.put(new ByteKey(entry.getKey().getBytes(UTF8)), entry.getValue());
+        }
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(sorted.size());
+        data.writeInt(0);
+        data.writeLong(total);
+
+        int offset = 0;
+
+        for (ByteKey key : sorted.keySet()) {
+            data.writeInt(offset);
+            offset += key.bytes.length;
+        }
+
+        data.writeInt(offset);
+
+        for (Integer frequency : sorted.values()) {
+            data.writeInt(frequency);
+        }
+
+        for (ByteKey key : sorted.keySet()) {
+            data.write(key.bytes);
+        }
+
+        data.flush();
+    }
+
+    // Byte array ordered by unsigned lexicographic comparison.
+    private static class ByteKey implements Comparable<ByteKey> {
+        final byte[] bytes;
+
+        ByteKey(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int compareTo(ByteKey other) {
+            int length = Math.min(bytes.length, other.bytes.length);
+
+            for (int i = 0; i < length; i++) {
+                int diff = (bytes[i] & 0xFF) - (other.bytes[i] & 0xFF);
+                if (diff != 0) return diff;
+            }
+
+            return bytes.length - other.bytes.length;
+        }
+    }
+
+    /*
+     * Member variables
+     */
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final long total;
+
+    private final int offsetsStart;
+    private final int frequenciesStart;
+    private final int blobStart;
+
+    /*
+     * Constructors
+     */
+
+    public FrequencyTable(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a frequency table");
+        }
+
+        count = buffer.getInt(8);
+        total = buffer.getLong(16);
+
+        offsetsStart = HEADER_SIZE;
+        frequenciesStart = offsetsStart + (count + 1) * 4;
+        blobStart = frequenciesStart + count * 4;
+
+        if (buffer instanceof MappedByteBuffer) {
+            Log.d("FrequencyTable", "Mapped " + count + " words");
+        }
+    }
+
+    /*
+     * Methods
+     */
+
+    // Returns the number of words in the table.
+    public int size() {
+        return count;
+    }
+
+    // Returns the total number of tokens the frequencies were counted over.
+    public long getTotal() {
+        return total;
+    }
+
+    // Returns the background frequency of a word, or 0 if it is not in the table.
+    public int getFrequency(String word) {
+        byte[] key = word.getBytes(UTF8);
+
+        int low = 0;
+        int high = count - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareAt(mid, key);
+
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return buffer.getInt(frequenciesStart + mid * 4);
+            }
+        }
+
+        return 0;
+    }
+
+    // Compares the word at an index with a key, by unsigned bytes.
+    private int compareAt(int index, byte[] key) {
+        int start = blobStart + buffer.getInt(offsetsStart + index * 4);
+        int end = blobStart + buffer.getInt(offsetsStart + (index + 1) * 4);
+        int length = Math.min(end - start, key.length);
+
+        for (int i = 0; i < length; i++) {
+            int diff = (buffer.get(start + i) & 0xFF) - (key[i] & 0xFF);
+            if (diff != 0) return diff;
+        }
+
+        return (end - start) - key.length;
+    }
+}
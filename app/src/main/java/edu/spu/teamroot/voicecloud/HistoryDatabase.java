@@ -0,0 +1,401 @@
+package edu.spu.teamroot.voicecloud;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// On-device history of every session (one per cloud, from creation or clear) and its word counts.
+//
+// Count changes are queued without blocking and written by a background thread, summed per word
+// and committed in one transaction at most every FLUSH_INTERVAL. Sessions are created on their
+// first count, so clouds that hear nothing leave no row.
+//
+// Queries run on the calling thread; call them off the UI thread.
+public class HistoryDatabase extends SQLiteOpenHelper implements WordCloud.DeltaListener {
+    /*
+     * Static members
+     */
+
+    private static HistoryDatabase instance;
+
+    public static final String DATABASE_NAME = "history.db";
+    private static final int DATABASE_VERSION = 1;
+
+    private static final long FLUSH_INTERVAL = 1000; // Longest time between commits, in ms
+    private static final int MAX_PENDING = 512; // Most words summed before a commit
+
+    private static final byte DELTA = 1;
+    private static final byte SESSION = 2;
+    private static final byte SHUTDOWN = 3;
+    private static final byte COMMIT = 4;
+
+    // A queued event.
+    private static class Event {
+        final byte type;
+        final long time; // Session start time for SESSION
+        final String name;
+        final int delta;
+        final CountDownLatch committed; // For COMMIT
+
+        Event(byte type, long time, String name, int delta) {
+            this(type, time, name, delta, null);
+        }
+
+        Event(byte type, long time, String name, int delta, CountDownLatch committed) {
+            this.type = type;
+            this.time = time;
+            this.name = name;
+            this.delta = delta;
+            this.committed = committed;
+        }
+    }
+
+    // Summed changes to one word since the last commit.
+    private static class Pending {
+        int delta;
+        long lastSeen;
+    }
+
+    /*
+     * Static methods
+     */
+
+    // Creates a static instance of the class.
+    public static HistoryDatabase createInstance(Context context) {
+        Log.d("HistoryDatabase", "createInstance(" + context + ")");
+
+        if (instance == null) {
+            instance = new HistoryDatabase(context.getApplicationContext(), DATABASE_NAME);
+        }
+
+        return instance;
+    }
+
+    // Returns a static instance of the class.
+    public static HistoryDatabase getInstance() {
+        return instance;
+    }
+
+    // Deletes a static instance of the class. Queued changes are committed first.
+    public static void deleteInstance() {
+        Log.d("HistoryDatabase", "deleteInstance()");
+
+        if (instance != null) {
+            instance.shutdown();
+            instance = null;
+        }
+    }
+
+    /*
+     * Member variables
+     */
+
+    private final LinkedBlockingQueue<Event> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+
+    /*
+     * Constructors
+     */
+
+    // Opens (or creates) a history database. A null name keeps it in memory, e.g. for tests.
+    HistoryDatabase(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+
+        writer = new Thread("HistoryDatabase") {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        };
+        writer.setPriority(Thread.MIN_PRIORITY);
+        writer.start();
+    }
+
+    /*
+     * SQLiteOpenHelper
+     */
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // Queries can then run while the writer commits
+        db.enableWriteAheadLogging();
+        db.setForeignKeyConstraintsEnabled(true);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE sessions ("
+                + "_id INTEGER PRIMARY KEY, "
+                + "started INTEGER NOT NULL UNIQUE, "
+                + "updated INTEGER NOT NULL)");
+
+        db.execSQL("CREATE TABLE word_counts ("
+                + "session INTEGER NOT NULL REFERENCES sessions(_id) ON DELETE CASCADE, "
+                + "word TEXT NOT NULL, "
+                + "count INTEGER NOT NULL, "
+                + "last_seen INTEGER NOT NULL, "
+                + "PRIMARY KEY (session, word))");
+
+        // Covers range queries over sessions, so totals are summed without touching the table
+        db.execSQL("CREATE INDEX word_counts_session ON word_counts (session, word, count)");
+
+        // For the history of a single word
+        db.execSQL("CREATE INDEX word_counts_word ON word_counts (word, session, count)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // No older versions yet
+    }
+
+    /*
+     * Methods
+     */
+
+    // Starts a new session. Later changes are counted in it.
+    public void startSession(long started) {
+        queue.offer(new Event(SESSION, started, null, 0));
+    }
+
+    // Queues a count change to a word in the current session.
+    public void addDelta(long time, String name, int delta) {
+        queue.offer(new Event(DELTA, time, name, delta));
+    }
+
+    // Commits the changes queued so far, waiting at most timeout ms. Returns false if it timed out.
+    public boolean commit(long timeout) throws InterruptedException {
+        CountDownLatch committed = new CountDownLatch(1);
+        queue.offer(new Event(COMMIT, 0, null, 0, committed));
+
+        return committed.await(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    // Commits queued changes and closes the database. Changes after this are dropped.
+    public void shutdown() {
+        queue.offer(new Event(SHUTDOWN, 0, null, 0));
+    }
+
+    // Returns the most counted words over sessions started in [since, until), with their totals,
+    // most counted first.
+    public Map<String, Long> topWords(long since, long until, int limit) {
+        Map<String, Long> result = new LinkedHashMap<>();
+        Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT word, SUM(count) AS total FROM word_counts "
+                        + "WHERE session IN (SELECT _id FROM sessions WHERE started >= ? AND started < ?) "
+                        + "GROUP BY word ORDER BY total DESC LIMIT ?",
+                new String[]{Long.toString(since), Long.toString(until), Integer.toString(limit)});
+
+        try {
+            while (cursor.moveToNext()) {
+                result.put(cursor.getString(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return result;
+    }
+
+    // Returns the number of sessions started in [since, until).
+    public int getSessionCount(long since, long until) {
+        Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT COUNT(*) FROM sessions WHERE started >= ? AND started < ?",
+                new String[]{Long.toString(since), Long.toString(until)});
+
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+     * WordCloud.DeltaListener
+     */
+
+    @Override
+    public void onWordDelta(long time, Word word, int delta) {
+        addDelta(time, word.getName(), delta);
+    }
+
+    @Override
+    public void onWordRemoved(long time, Word word) {
+        // The word was still heard; its history stays
+    }
+
+    @Override
+    public void onCleared(long time) {
+        startSession(time);
+    }
+
+    @Override
+    public void onSnapshotLoaded(CloudSnapshot snapshot) {
+        // Continue the loaded cloud's session (e.g. after a restart); its earlier counts are already here
+        startSession(snapshot.timestamp);
+    }
+
+    /*
+     * Writer thread
+     */
+
+    private final Map<String, Pending> pending = new HashMap<>();
+    private long sessionStart = -1;
+    private long sessionId = -1; // Row ID of the session, once created
+
+    private SQLiteStatement updateCount;
+    private SQLiteStatement insertCount;
+    private SQLiteStatement updateSession;
+
+    // Takes events off the queue, summing changes per word and committing them in batches.
+    private void writeLoop() {
+        long lastFlush = System.currentTimeMillis();
+
+        try {
+            while (true) {
+                Event event = queue.poll(FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+
+                while (event != null) {
+                    if (event.type == SHUTDOWN) {
+                        flush();
+
+                        if (updateCount != null) {
+                            updateCount.close();
+                            insertCount.close();
+                            updateSession.close();
+                        }
+
+                        close();
+                        return;
+                    } else if (event.type == COMMIT) {
+                        flush();
+                        event.committed.countDown();
+                    } else if (event.type == SESSION) {
+                        if (event.time != sessionStart) {
+                            flush();
+                            sessionStart = event.time;
+                            sessionId = -1;
+                        }
+                    } else {
+                        add(event);
+                        if (pending.size() >= MAX_PENDING) flush();
+                    }
+
+                    event = queue.poll();
+                }
+
+                if (System.currentTimeMillis() - lastFlush >= FLUSH_INTERVAL) {
+                    flush();
+                    lastFlush = System.currentTimeMillis();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Stopped
+        } catch (SQLiteException e) {
+            Log.d("HistoryDatabase", "History write failed; history stopped");
+            e.printStackTrace();
+        }
+    }
+
+    // Sums a change into the pending batch.
+    private void add(Event event) {
+        Pending word = pending.get(event.name);
+
+        if (word == null) {
+            word = new Pending();
+            pending.put(event.name, word);
+        }
+
+        word.delta += event.delta;
+        word.lastSeen = Math.max(word.lastSeen, event.time);
+    }
+
+    // Commits the pending batch in one transaction.
+    private void flush() {
+        if (pending.isEmpty() || sessionStart < 0) {
+            pending.clear();
+            return;
+        }
+
+        SQLiteDatabase db = getWritableDatabase();
+
+        if (updateCount == null) {
+            updateCount = db.compileStatement("UPDATE word_counts SET count = count + ?, last_seen = MAX(last_seen, ?) WHERE session = ? AND word = ?");
+            insertCount = db.compileStatement("INSERT INTO word_counts (session, word, count, last_seen) VALUES (?, ?, ?, ?)");
+            updateSession = db.compileStatement("UPDATE sessions SET updated = MAX(updated, ?) WHERE _id = ?");
+        }
+
+        long updated = 0;
+
+        db.beginTransaction();
+
+        try {
+            if (sessionId < 0) {
+                sessionId = findOrCreateSession(db, sessionStart);
+            }
+
+            for (Map.Entry<String, Pending> entry : pending.entrySet()) {
+                Pending word = entry.getValue();
+                updated = Math.max(updated, word.lastSeen);
+
+                updateCount.bindLong(1, word.delta);
+                updateCount.bindLong(2, word.lastSeen);
+                updateCount.bindLong(3, sessionId);
+                updateCount.bindString(4, entry.getKey());
+
+                if (updateCount.executeUpdateDelete() == 0) {
+                    insertCount.bindLong(1, sessionId);
+                    insertCount.bindString(2, entry.getKey());
+                    insertCount.bindLong(3, word.delta);
+                    insertCount.bindLong(4, word.lastSeen);
+                    insertCount.executeInsert();
+                }
+            }
+
+            updateSession.bindLong(1, updated);
+            updateSession.bindLong(2, sessionId);
+            updateSession.executeUpdateDelete();
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        Log.d("HistoryDatabase", "Committed " + pending.size() + " words");
+
+        pending.clear();
+    }
+
+    // Returns the row ID of the session started at a time, creating it if needed.
+    private static long findOrCreateSession(SQLiteDatabase db, long started) {
+        Cursor cursor = db.rawQuery("SELECT _id FROM sessions WHERE started = ?", new String[]{Long.toString(started)});
+
+        try {
+            if (cursor.moveToFirst()) {
+                return cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        SQLiteStatement insert = db.compileStatement("INSERT INTO sessions (started, updated) VALUES (?, ?)");
+
+        try {
+            insert.bindLong(1, started);
+            insert.bindLong(2, started);
+            return insert.executeInsert();
+        } finally {
+            insert.close();
+        }
+    }
+}
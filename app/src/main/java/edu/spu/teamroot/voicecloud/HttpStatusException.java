@@ -0,0 +1,26 @@
+package edu.spu.teamroot.voicecloud;
+
+import java.io.IOException;
+
+// Thrown by an HttpTransport when the server answers with an error status (400 and up).
+public class HttpStatusException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+
+    public HttpStatusException(int status) {
+        super("Server returned HTTP " + status);
+        this.status = status;
+    }
+
+    // Returns the HTTP status code.
+    public int getStatus() {
+        return status;
+    }
+
+    // Returns true if the same request may succeed later: server errors, timeouts and rate limits.
+    // Other client errors mean the request itself was rejected.
+    public boolean isRetryable() {
+        return status >= 500 || status == 408 || status == 429;
+    }
+}
@@ -0,0 +1,35 @@
+package edu.spu.teamroot.voicecloud;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// Sends HTTP POST requests for JSONTransmitter. Implementations should reuse connections between calls.
+public interface HttpTransport {
+    // Writes a request body as it is sent.
+    interface Body {
+        // Returns the exact length of the body in bytes, or -1 if it is only known once written.
+        long getLength();
+
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    // A single request/response exchange.
+    interface Call {
+        // Sends the request and returns the (decompressed) response body.
+        // Closing the stream releases the connection for reuse. Error statuses throw an HttpStatusException.
+        InputStream execute() throws IOException;
+
+        // Returns the HTTP status code, once executed.
+        int getStatus();
+
+        // Returns the decompressed response length, or -1 if unknown.
+        long getContentLength();
+
+        // Aborts the exchange from another thread. The blocked call throws an IOException.
+        void cancel();
+    }
+
+    // Creates a POST call. If gzip is true, the request body is compressed.
+    Call newCall(String url, String contentType, Body body, boolean gzip);
+}
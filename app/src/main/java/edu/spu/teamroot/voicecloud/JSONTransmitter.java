@@ -1,99 +1,321 @@
 package edu.spu.teamroot.voicecloud;
 
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.params.HttpConnectionParams;
-
-import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.regex.Pattern;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import android.os.AsyncTask;
 import android.util.Log;
 
-public class JSONTransmitter extends AsyncTask<JSONObject, JSONObject, JSONObject> {
+// Blocking client for the cloud web API. Run on a background thread (see CloudSync).
+public class JSONTransmitter {
+    public static final String DEFAULT_BASE_URL = "http://voicecloudapp.com/api";
 
-    String baseURL = "http://voicecloudapp.com/api";
+    private static final int DEFAULT_CONNECT_TIMEOUT = 15000;
+    private static final int DEFAULT_SOCKET_TIMEOUT = 30000;
 
-    @Override
-    protected JSONObject doInBackground(JSONObject... data) {
+    private static final int PROGRESS_INTERVAL = 32 * 1024; // Bytes between progress reports
 
-        String url;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
 
-        if (data[0].has("cloud")) url = baseURL + "/save";
-        else url = baseURL + "/load.json";
+    // What a cloudid looks like; anything else in a response body (an error page, a message) is not one
+    private static final Pattern CLOUDID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
 
-        // Create json string from JSONObject
-        String json = data[0].toString();
+    // Shared so connections are kept alive between requests
+    private static final HttpTransport defaultTransport = new UrlConnectionTransport(DEFAULT_CONNECT_TIMEOUT, DEFAULT_SOCKET_TIMEOUT);
 
-        // Set up client connection
-        HttpClient httpClient = new DefaultHttpClient();
-        HttpConnectionParams.setConnectionTimeout(httpClient.getParams(), 100000);
+    // Receives transfer progress, in bytes. Total is -1 if unknown.
+    public interface ProgressListener {
+        void onProgress(long bytes, long total);
+    }
 
-        // Initialize return data object
-        InputStream inputStream;
-        String result = "";
+    String baseURL;
 
-        HttpPost httpPost = new HttpPost(url);
+    private final HttpTransport transport;
+    private boolean compressRequests = false;
 
-        try {
+    private volatile HttpTransport.Call currentCall;
+    private volatile boolean aborted;
+
+    public JSONTransmitter() {
+        this(DEFAULT_BASE_URL);
+    }
+
+    // Creates a transmitter for another server, e.g. a local stub.
+    public JSONTransmitter(String baseURL) {
+        this(baseURL, defaultTransport);
+    }
+
+    public JSONTransmitter(String baseURL, HttpTransport transport) {
+        this.baseURL = baseURL;
+        this.transport = transport;
+    }
+
+    /*
+     * Methods
+     */
+
+    // Sets whether request bodies are gzip compressed. The server must accept Content-Encoding: gzip.
+    public void setCompressRequests(boolean compressRequests) {
+        this.compressRequests = compressRequests;
+    }
+
+    // Aborts the request in progress. The blocked call throws an IOException.
+    public void abort() {
+        aborted = true;
+
+        HttpTransport.Call call = currentCall;
+
+        if (call != null) {
+            call.cancel();
+        }
+    }
+
+    // Returns true if abort() was called.
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    // Uploads a snapshot, returning the cloudid assigned by the server.
+    public String save(final CloudSnapshot snapshot, final ProgressListener listener) throws IOException {
+        // Serialize the snapshot straight into the request body
+        return save(new HttpTransport.Body() {
+            @Override
+            public long getLength() {
+                return -1;
+            }
 
-            // Create StringEntity and add to POST
-            //StringEntity se = new StringEntity(key+"="+json);
-            StringEntity se = new StringEntity(json);
-            httpPost.setEntity(se);
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                CloudSerializer.write(snapshot, new CountingOutputStream(out, listener));
+            }
+        });
+    }
 
-            // Set headers so server knows what we are sending
-            httpPost.setHeader("Accept", "application/json");
-            httpPost.setHeader("Content-type", "application/json");
+    // Uploads a cloud already serialized to a JSON file, returning the cloudid assigned by the server.
+    public String saveFile(File file, final ProgressListener listener) throws IOException {
+        // Opened up front, so the length sent matches the bytes read even if the file is replaced meanwhile
+        final FileInputStream in = new FileInputStream(file);
 
-            // Execute POST request
-            HttpResponse httpResponse = httpClient.execute(httpPost);
+        try {
+            final long length = in.getChannel().size();
 
-            // Receive response
-            inputStream = httpResponse.getEntity().getContent();
+            return save(new HttpTransport.Body() {
+                @Override
+                public long getLength() {
+                    return length;
+                }
 
-            if(inputStream != null)
-                result = convertInputStreamToString(inputStream);
-            else
-                result = "Did not work!";
+                @Override
+                public void writeTo(OutputStream out) throws IOException {
+                    OutputStream counted = new CountingOutputStream(out, listener);
+                    byte[] buffer = new byte[8192];
+                    int read;
 
-        } catch (Exception e) {
-            Log.d("InputStream", e.getLocalizedMessage());
+                    while ((read = in.read(buffer)) >= 0) {
+                        counted.write(buffer, 0, read);
+                    }
+                }
+            });
+        } finally {
+            in.close();
         }
+    }
+
+    // Posts a full cloud body to /save, returning the cloudid.
+    private String save(HttpTransport.Body body) throws IOException {
+        InputStream response = post(baseURL + "/save", body);
+        String result = convertInputStreamToString(response).trim();
 
         // Log result
         Log.d("Result", result);
 
-        // Return result
-        JSONObject returnObject = new JSONObject();
+        return checkCloudId(result);
+    }
+
+    // Uploads only the changes since the server's copy, gzip compressed. Returns the cloudid.
+    // Throws an IOException if the server rejects the delta; the caller should then save in full.
+    //
+    // Server contract: POST /delta takes the JSON from CloudSerializer.writeDelta() with
+    // Content-Encoding: gzip, applies it to the stored cloud named by its "cloudid", and answers 200
+    // with the cloudid of the result as the whole body. Any other answer (an error status, or a body
+    // that is not a cloudid, e.g. from a server without /delta) counts as a rejection.
+    public String saveDelta(final CloudDelta delta, final ProgressListener listener) throws IOException {
+        HttpTransport.Call call = transport.newCall(baseURL + "/delta", "application/json", new HttpTransport.Body() {
+            @Override
+            public long getLength() {
+                return -1;
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                CloudSerializer.writeDelta(delta, new CountingOutputStream(out, listener));
+            }
+        }, true);
+
+        String result = convertInputStreamToString(execute(call)).trim();
+
+        // Log result
+        Log.d("Result", "Delta: " + result);
+
+        return checkCloudId(result);
+    }
+
+    // Returns a response body if it is a cloudid, or throws an IOException.
+    private static String checkCloudId(String result) throws IOException {
+        if (result.length() == 0) {
+            throw new IOException("Server returned no cloudid");
+        }
+
+        if (!CLOUDID.matcher(result).matches()) {
+            throw new IOException("Server returned an invalid cloudid");
+        }
+
+        return result;
+    }
+
+    // Downloads the cloud with the given cloudid. The response is parsed as it streams in.
+    public CloudSnapshot load(String cloudid, ProgressListener listener) throws IOException {
+        final JSONObject toSend = new JSONObject();
+
         try {
-            returnObject.put("cloudid", result);
+            toSend.put("cloudid", cloudid);
         } catch (JSONException e) {
-            e.printStackTrace();
+            throw new IOException(e.getMessage());
+        }
+
+        final byte[] request = toSend.toString().getBytes(UTF8);
+
+        HttpTransport.Call call = transport.newCall(baseURL + "/load.json", "application/json", new HttpTransport.Body() {
+            @Override
+            public long getLength() {
+                return request.length;
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                out.write(request);
+            }
+        }, false);
+
+        InputStream inputStream = new CountingInputStream(execute(call), call.getContentLength(), listener);
+
+        try {
+            return CloudSerializer.read(inputStream);
+        } finally {
+            inputStream.close();
         }
+    }
 
-        return returnObject;
+    // Posts a JSON body and returns the response body.
+    private InputStream post(String url, HttpTransport.Body body) throws IOException {
+        return execute(transport.newCall(url, "application/json", body, compressRequests));
+    }
+
+    // Executes a call, unless aborted.
+    private InputStream execute(HttpTransport.Call call) throws IOException {
+        currentCall = call;
+
+        if (aborted) throw new IOException("Aborted");
+
+        return call.execute();
     }
 
     // Converts an input stream to a string.
     private static String convertInputStreamToString(InputStream inputStream) throws IOException {
-        BufferedReader bufferedReader = new BufferedReader( new InputStreamReader(inputStream));
-        String line;
-        String result = "";
-        while((line = bufferedReader.readLine()) != null)
-            result += line;
+        Reader reader = new InputStreamReader(inputStream, UTF8);
+        StringBuilder result = new StringBuilder();
+        char[] buffer = new char[4096];
+        int read;
 
-        inputStream.close();
-        return result;
+        try {
+            while ((read = reader.read(buffer)) >= 0) {
+                result.append(buffer, 0, read);
+            }
+        } finally {
+            reader.close();
+        }
+
+        return result.toString();
+    }
 
+    // Reports bytes written to a listener.
+    private static class CountingOutputStream extends FilterOutputStream {
+        private final ProgressListener listener;
+        private long count;
+        private long reported;
+
+        CountingOutputStream(OutputStream out, ProgressListener listener) {
+            super(out);
+            this.listener = listener;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            advance(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            advance(len);
+        }
+
+        private void advance(int bytes) {
+            count += bytes;
+
+            if (listener != null && count - reported >= PROGRESS_INTERVAL) {
+                reported = count;
+                listener.onProgress(count, -1);
+            }
+        }
     }
 
-}
\ No newline at end of file
+    // Reports bytes read to a listener.
+    private static class CountingInputStream extends FilterInputStream {
+        private final long total;
+        private final ProgressListener listener;
+        private long count;
+        private long reported;
+
+        CountingInputStream(InputStream in, long total, ProgressListener listener) {
+            super(in);
+            this.total = total;
+            this.listener = listener;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) advance(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0) advance(read);
+            return read;
+        }
+
+        private void advance(int bytes) {
+            count += bytes;
+
+            if (listener != null && (count - reported >= PROGRESS_INTERVAL || count == total)) {
+                reported = count;
+                listener.onProgress(count, total);
+            }
+        }
+    }
+}
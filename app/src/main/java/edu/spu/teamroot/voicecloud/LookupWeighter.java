@@ -0,0 +1,116 @@
+package edu.spu.teamroot.voicecloud;
+
+// A count-based weighter that caches sizes and colors in lookup tables.
+// Tables are rebuilt lazily, only after invalidateTables() is called.
+public abstract class LookupWeighter implements WordWeighter, BatchWeighter {
+    // Counts below this are served from the tables; larger counts are computed directly
+    private static final int TABLE_SIZE = 1024;
+
+    private int[] sizeTable;
+    private int[] colorTable;
+    private boolean tablesValid;
+
+    protected LookupWeighter() {
+        sizeTable = new int[TABLE_SIZE];
+        colorTable = new int[TABLE_SIZE];
+        tablesValid = false;
+    }
+
+    /*
+     * Weighting functions
+     */
+
+    // Returns the text size for a count, in sp.
+    protected abstract int computeTextSize(int count);
+
+    // Returns the ARGB color for a count.
+    protected abstract int computeWordColor(int count);
+
+    // Returns true if a word with this count should be shown.
+    protected abstract boolean shouldShow(int count);
+
+    // Called before the tables are rebuilt, e.g. to resolve resources.
+    protected void onRebuildTables() {
+    }
+
+    // Marks the tables as stale. Call whenever a weighting parameter changes.
+    protected void invalidateTables() {
+        tablesValid = false;
+    }
+
+    /*
+     * Lookups
+     */
+
+    // Returns the text size for a count, using the table if possible.
+    public int lookupTextSize(int count) {
+        ensureTables(); // Also resolves what computeTextSize() needs, e.g. resources
+
+        if (count < 0 || count >= TABLE_SIZE) return computeTextSize(count);
+        return sizeTable[count];
+    }
+
+    // Returns the color for a count, using the table if possible.
+    public int lookupWordColor(int count) {
+        ensureTables(); // Also resolves the colors computeWordColor() uses
+
+        if (count < 0 || count >= TABLE_SIZE) return computeWordColor(count);
+        return colorTable[count];
+    }
+
+    // Rebuilds the tables if they are stale.
+    private void ensureTables() {
+        if (tablesValid) return;
+
+        onRebuildTables();
+
+        for (int count = 0; count < TABLE_SIZE; count++) {
+            sizeTable[count] = computeTextSize(count);
+            colorTable[count] = computeWordColor(count);
+        }
+
+        tablesValid = true;
+    }
+
+    /*
+     * WordWeighter
+     */
+
+    @Override
+    public int getTextSize(Word word) {
+        return lookupTextSize(word.getCount());
+    }
+
+    @Override
+    public int getWordColor(Word word) {
+        return lookupWordColor(word.getCount());
+    }
+
+    @Override
+    public boolean shouldShow(Word word) {
+        return shouldShow(word.getCount());
+    }
+
+    /*
+     * BatchWeighter
+     */
+
+    @Override
+    public void weighAll(int[] counts, int n, int[] sizes, int[] colors, boolean[] show) {
+        ensureTables();
+
+        for (int i = 0; i < n; i++) {
+            int count = counts[i];
+
+            if (count >= 0 && count < TABLE_SIZE) {
+                sizes[i] = sizeTable[count];
+                colors[i] = colorTable[count];
+            } else {
+                sizes[i] = computeTextSize(count);
+                colors[i] = computeWordColor(count);
+            }
+
+            show[i] = shouldShow(count);
+        }
+    }
+}
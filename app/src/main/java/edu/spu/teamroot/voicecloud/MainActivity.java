@@ -6,10 +6,9 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.ServiceConnection;
-import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Color;
 import android.graphics.Point;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.graphics.drawable.Animatable;
 import android.net.Uri;
 import android.os.Build;
@@ -20,6 +19,7 @@ import android.os.IBinder;
 import android.os.Message;
 import android.os.Messenger;
 import android.os.RemoteException;
+import android.preference.PreferenceManager;
 import android.support.v7.app.ActionBarActivity;
 import android.text.InputType;
 import android.util.Log;
@@ -31,19 +31,29 @@ import android.view.View;
 import android.widget.EditText;
 import android.widget.ImageButton;
 import android.widget.PopupMenu;
+import android.widget.SeekBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
+import java.util.Map;
 
 public class MainActivity extends ActionBarActivity implements PopupMenu.OnMenuItemClickListener {
     public static final String VC_EXT_PATH = Environment.getExternalStorageDirectory() + "/Stratus/";
     public static final String VC_SCREENSHOTS_PATH = VC_EXT_PATH + "/Screenshots/";
+    public static final String VC_EXPORTS_PATH = VC_EXT_PATH + "/Exports/";
 
-    private static Toast lastToast;
+    private static final long HISTORY_PERIOD = 30L * 24 * 60 * 60 * 1000; // Shown by the History menu, in ms
+    private static final int HISTORY_WORDS = 20;
+
+    private Toast lastToast; // Not static; a toast holds its activity
 
     private static final int EXIT_DELAY = 3000;
     private boolean exitPressed = false;
@@ -56,11 +66,21 @@ public class MainActivity extends ActionBarActivity implements PopupMenu.OnMenuI
 
     private TwoDScrollView scrollView;
     private WordCloudLayout cloudLayout;
+    private Point screenSize;
+
+    private boolean rebuildViews; // The cloud was retained; its views are rebuilt once the scroll position is known
 
     private static boolean destroyInstances = false;
     private boolean isRunning = true;
 
+    private SeekBar timelineBar;
+    private boolean wasRunning; // Running state before scrubbing the timeline
+
     private Messenger mServiceMessenger;
+
+    private CloudSync.Task pendingTransfer; // Cloud save or load in progress
+    private boolean pendingSave; // Whether pendingTransfer is a save
+    private boolean destroyed; // Transfers outlive the activity; their callbacks check this
     private final ServiceConnection mServiceConnection = new ServiceConnection() {
 
         @Override
@@ -101,12 +121,6 @@ public class MainActivity extends ActionBarActivity implements PopupMenu.OnMenuI
         // Save play/pause state
         outState.putBoolean("isRunning", isRunning);
 
-        // Store WordCloud
-        /*
-        JSONObject obj = WordCloud.getInstance().toJSON();
-        outState.putString("JSON", obj.toString());
-        */
-
         // Store layout positions
         Log.d("onSaveInstanceState", "ScaleFactor: " + scrollView.getScaleFactor() + " Scroll: (" + scrollView.getScrollX() + "," + scrollView.getScrollY() + ")");
         Log.d("onSaveInstanceState", "Pivot: " + cloudLayout.getPivotX() + "," + cloudLayout.getPivotY());
@@ -134,17 +148,6 @@ public class MainActivity extends ActionBarActivity implements PopupMenu.OnMenuI
         // Load play/pause state (do not animate when loading state)
         setRunning(savedInstanceState.getBoolean("isRunning"), false);
 
-        // Load WordCloud
-        /*
-        String json = savedInstanceState.getString("JSON");
-
-        try {
-            WordCloud.getInstance().fromJSON(new JSONObject(json));
-        } catch (JSONException e) {
-            e.printStackTrace();
-        }
-        */
-
         // Load layout positions
         cloudLayout.setPivotX(savedInstanceState.getFloat("PivotX"));
         cloudLayout.setPivotY(savedInstanceState.getFloat("PivotY"));
@@ -153,6 +156,30 @@ public class MainActivity extends ActionBarActivity implements PopupMenu.OnMenuI
         scrollView.scrollToWhenReady(
                 savedInstanceState.getInt("ScrollX"),
                 savedInstanceState.getInt("ScrollY"));
+
+        if (rebuildViews) {
+            rebuildCloudViews(savedInstanceState.getInt("ScrollX"), savedInstanceState.getInt("ScrollY"),
+                    savedInstanceState.getFloat("ScaleFactor"),
+                    savedInstanceState.getFloat("PivotX"), savedInstanceState.getFloat("PivotY"));
+        }
+    }
+
+    // Rebuilds the views of the retained cloud, starting with those on screen at a scroll position and zoom.
+    private void rebuildCloudViews(int scrollX, int scrollY, float scale, float pivotX, float pivotY) {
+        rebuildViews = false;
+
+        if (scale <= 0) scale = 1.0f;
+
+        // Screen corners in layout coordinates (the layout is scaled about its pivot)
+        UnitConverter converter = UnitConverter.getInstance();
+
+        Rect visible = new Rect(
+                converter.toDp(pivotX + (scrollX - pivotX) / scale),
+                converter.toDp(pivotY + (scrollY - pivotY) / scale),
+                converter.toDp(pivotX + (scrollX + screenSize.x - pivotX) / scale),
+                converter.toDp(pivotY + (scrollY + screenSize.y - pivotY) / scale));
+
+        WordCloud.getInstance().rebuildViews(visible);
     }
 
     @Override
@@ -169,6 +196,7 @@ public class MainActivity extends ActionBarActivity implements PopupMenu.OnMenuI
         Display display = getWindowManager().getDefaultDisplay();
         Point size = new Point();
         display.getSize(size);
+        screenSize = size;
 
         // Get scroll view
         scrollView = (TwoDScrollView)findViewById(R.id.WordCloudScrollView);
@@ -177,12 +205,12 @@ public class MainActivity extends ActionBarActivity implements PopupMenu.OnMenuI
         // Create UnitConverter
         UnitConverter.createInstance(this);
 
-        // Create a RelativeLayout element
+        // Create the layout holding the word buttons
         cloudLayout = new WordCloudLayout(this);
         // Add extra padding along the bottom and right so words are not squished
         cloudLayout.setPadding(0, 0, UnitConverter.getInstance().toPx(WordCloud.PADDING), UnitConverter.getInstance().toPx(WordCloud.PADDING * 4));
 
-        // Add the RelativeLayout element to the ScrollView
+        // Add the layout to the ScrollView
         int sideLength = Math.max(size.x, size.y);
         int scrollViewWidth = (int)(sideLength * 1.5);
         int scrollViewHeight = (int)(sideLength * 1.5);
@@ -190,6 +218,23 @@ public class MainActivity extends ActionBarActivity implements PopupMenu.OnMenuI
         scrollView.removeAllViews();
         scrollView.addView(cloudLayout, scrollViewWidth, scrollViewHeight);
 
+        // Draw fewer words in full when zoomed out
+        cloudLayout.setDetail(PreferenceManager.getDefaultSharedPreferences(this).getString("detail", WordCloudLayout.DETAIL_SETTING_BALANCED));
+        scrollView.setOnScaleChangeListener(cloudLayout);
+
+        // Hold back new words while zooming or flinging, so the cached cloud is not redrawn
+        scrollView.setOnGestureListener(new TwoDScrollView.OnGestureListener() {
+            @Override
+            public void onGestureStart() {
+                if (WordCloud.getInstance() != null) WordCloud.getInstance().pauseUpdates();
+            }
+
+            @Override
+            public void onGestureEnd() {
+                if (WordCloud.getInstance() != null) WordCloud.getInstance().resumeUpdates();
+            }
+        });
+
         // Move to center of the ScrollView
         if (savedInstanceState == null) {
             scrollView.scrollToWhenReady(
@@ -199,15 +244,35 @@ public class MainActivity extends ActionBarActivity implements PopupMenu.OnMenuI
 
         // Are we creating a new WordCloud instance?
         boolean isNewCloud = (WordCloud.getInstance() == null);
+        rebuildViews = !isNewCloud;
 
-        // Create new instances
+        // Create new instances (history first; a new cloud starts a session in it)
+        HistoryDatabase.createInstance(context);
         WordCloud.createInstance(context, cloudLayout);
         ExclusionList.createInstance(context);
+        UploadOutbox.createInstance(context);
+
+        // Report queued saves as they finally go through
+        UploadOutbox.getInstance().setListener(new UploadOutbox.Listener() {
+            @Override
+            public void onUploaded(String key, String cloudid) {
+                if (WordCloud.getInstance() != null) {
+                    WordCloud.getInstance().onCloudUploaded(key, cloudid);
+                }
+
+                showToast("Saved cloud uploaded: " + cloudid, Toast.LENGTH_LONG);
+            }
+        });
 
         if (savedInstanceState == null && isNewCloud) {
             ExclusionList.getInstance().load();
         }
 
+        if (isNewCloud) {
+            // Cold start (or the process was killed); bring back the last cloud
+            WordCloud.getInstance().restoreLocalSnapshot();
+        }
+
         // Set button onClick handlers
         mainButton = (ImageButton)findViewById(R.id.main_button);
         mainButton.setOnClickListener(new View.OnClickListener() {
@@ -233,6 +298,32 @@ public class MainActivity extends ActionBarActivity implements PopupMenu.OnMenuI
             }
         });
 
+        // Scrubbing the timeline shows the cloud at a past moment; the far right is live
+        timelineBar = (SeekBar)findViewById(R.id.timeline_bar);
+        timelineBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onStartTrackingTouch(SeekBar seekBar) {
+                // Pause listening while looking back
+                wasRunning = isRunning;
+                if (isRunning) setRunning(false);
+            }
+
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+                if (fromUser) showTimeline(progress);
+            }
+
+            @Override
+            public void onStopTrackingTouch(SeekBar seekBar) {
+                if (seekBar.getProgress() == seekBar.getMax() && wasRunning) {
+                    setRunning(true);
+                }
+            }
+        });
+
+        // A new bar starts at live
+        WordCloud.getInstance().showLive();
+
         /* Tests for running on emulator
         if (savedInstanceState == null && isNewCloud) {
             final String words[] = {
@@ -264,6 +355,11 @@ public class MainActivity extends ActionBarActivity implements PopupMenu.OnMenuI
             }
         }
 
+        // Retained cloud without a saved position; it is shown from the center
+        if (rebuildViews && savedInstanceState == null) {
+            rebuildCloudViews((scrollViewWidth / 2) - (size.x / 2), (scrollViewHeight / 2) - (size.y / 2), 1.0f, 0, 0);
+        }
+
         // Start SpeechRecognitionService
         ///*
         final Intent speechRecognitionService = new Intent(this, SpeechRecognitionService.class);
@@ -296,6 +392,12 @@ public class MainActivity extends ActionBarActivity implements PopupMenu.OnMenuI
 
         // Restore running state (sometimes can get out of sync)
         setRunning(isRunning, false);
+
+        // Views not rebuilt yet (no state was restored); start from the current position
+        if (rebuildViews) {
+            rebuildCloudViews(scrollView.getScrollX(), scrollView.getScrollY(), scrollView.getScaleFactor(),
+                    cloudLayout.getPivotX(), cloudLayout.getPivotY());
+        }
     }
 
     @Override
@@ -305,6 +407,11 @@ public class MainActivity extends ActionBarActivity implements PopupMenu.OnMenuI
         // Set destroyInstances to true... this will allow onDestroy to destroy instances
         destroyInstances = true;
 
+        // A zoom or fling cut short by leaving never ends; add any words it held back
+        if (WordCloud.getInstance() != null) {
+            WordCloud.getInstance().resumeUpdates();
+        }
+
         super.onPause();
     }
 
@@ -318,6 +425,10 @@ public class MainActivity extends ActionBarActivity implements PopupMenu.OnMenuI
             Log.d("MainActivity", "Exclusion list instance was destroyed!!!");
         }
 
+        if (WordCloud.getInstance() != null) {
+            WordCloud.getInstance().saveLocalSnapshot();
+        }
+
         super.onStop();
     }
 
@@ -342,6 +453,17 @@ public class MainActivity extends ActionBarActivity implements PopupMenu.OnMenuI
         }
         //*/
 
+        // Let any transfer in progress finish (e.g. across a rotation) without reporting to this activity.
+        // Cancelling would drop a save: WordCloud only queues it in the outbox when it fails.
+        boolean saving = pendingSave && pendingTransfer != null && !pendingTransfer.isDone();
+        destroyed = true;
+        pendingTransfer = null;
+
+        // Listener refers to this activity
+        if (UploadOutbox.getInstance() != null) {
+            UploadOutbox.getInstance().setListener(null);
+        }
+
         // Unbind our connection (must be done everytime--avoids leaks!)
         unbindService(mServiceConnection);
 
@@ -354,6 +476,10 @@ public class MainActivity extends ActionBarActivity implements PopupMenu.OnMenuI
             ExclusionList.deleteInstance();
             UnitConverter.deleteInstance();
 
+            // A save still in flight queues itself in the outbox if it fails, so keep the outbox for it
+            if (!saving) UploadOutbox.deleteInstance();
+            HistoryDatabase.deleteInstance();
+
             Log.d("MainActivity", "Stopping service");
             stopService(new Intent(this, SpeechRecognitionService.class));
         }
@@ -409,43 +535,31 @@ public class MainActivity extends ActionBarActivity implements PopupMenu.OnMenuI
         } else if (id == R.id.save_cloud) {
             showToast("Saving Cloud...", Toast.LENGTH_SHORT);
 
-            String title;
-            String message = "Save Word Cloud";
-            final String cloudID = WordCloud.getInstance().saveWordCloud();
+            if (pendingTransfer != null) pendingTransfer.cancel();
 
-            if (cloudID.equals("none")) {
-                title = "Not Saved :(";
-                message = "We couldn't talk with the server. Do you have an internet connection?";
-            }
-            else {
-                title = "Saved Successfully!";
-                message = cloudID;
-            }
+            pendingSave = true;
+            pendingTransfer = WordCloud.getInstance().saveWordCloud(new CloudSync.Callback<String>() {
+                @Override
+                public void onProgress(long bytes, long total) {
+                    if (!destroyed) showProgress("Saving Cloud...", bytes, total);
+                }
 
-            AlertDialog.Builder builder = new AlertDialog.Builder(WordCloud.context);
-            builder.setMessage(message)
-                    .setTitle(title)
-                    .setNegativeButton("Dismiss", new DialogInterface.OnClickListener() {
-                        public void onClick(DialogInterface dialog, int id) {
-                            dialog.dismiss();
-                        }
-                    })
-                    .setPositiveButton("View on Web", new DialogInterface.OnClickListener() {
-                        public void onClick(DialogInterface dialog, int id) {
-                            String url = "http://voicecloudapp.com/WordCloud/cloudview/" + cloudID;
-                            Intent i = new Intent(Intent.ACTION_VIEW);
-                            i.setData(Uri.parse(url));
-                            context.startActivity(i);
-                            dialog.dismiss();
-                        }
-                    });
+                @Override
+                public void onSuccess(String cloudID) {
+                    if (destroyed) return;
 
-            AlertDialog alert = builder.create();
-            alert.show();
+                    pendingTransfer = null;
+                    showSaveResult(cloudID);
+                }
 
-            // Set text size
-            TextView textView = (TextView) alert.findViewById(android.R.id.message);
-            textView.setTextSize(40);
+                @Override
+                public void onFailure(Exception e) {
+                    if (destroyed) return;
+
+                    pendingTransfer = null;
+                    showSaveResult(null);
+                }
+            });
 
             return true;
         } else if (id == R.id.load_cloud) {
@@ -470,9 +584,31 @@ public class MainActivity extends ActionBarActivity implements PopupMenu.OnMenuI
                     // Load cloud
                     showToast("Loading Cloud...", Toast.LENGTH_SHORT);
 
-                    if (!WordCloud.getInstance().loadWordCloud(input.getText().toString())) {
-                        showToast("Loading Cloud Failed", Toast.LENGTH_SHORT);
-                    }
+                    if (pendingTransfer != null) pendingTransfer.cancel();
+
+                    pendingSave = false;
+                    pendingTransfer = WordCloud.getInstance().loadWordCloud(input.getText().toString(), new CloudSync.Callback<Boolean>() {
+                        @Override
+                        public void onProgress(long bytes, long total) {
+                            if (!destroyed) showProgress("Loading Cloud...", bytes, total);
+                        }
+
+                        @Override
+                        public void onSuccess(Boolean loaded) {
+                            if (destroyed) return;
+
+                            pendingTransfer = null;
+                            if (!loaded) showToast("Loading Cloud Failed", Toast.LENGTH_SHORT);
+                        }
+
+                        @Override
+                        public void onFailure(Exception e) {
+                            if (destroyed) return;
+
+                            pendingTransfer = null;
+                            showToast("Loading Cloud Failed", Toast.LENGTH_SHORT);
+                        }
+                    });
                 }
             });
             builder.setNegativeButton("Cancel", new DialogInterface.OnClickListener() {
@@ -488,24 +624,15 @@ public class MainActivity extends ActionBarActivity implements PopupMenu.OnMenuI
 
             final Handler mainHandler = new Handler();
 
+            // Render from a copy of the model, at screen density or the size set in Settings
+            final CloudSnapshot snapshot = WordCloud.getInstance().snapshot();
+            final float screenScale = UnitConverter.getInstance().toPxFloat(1);
+            final String size = PreferenceManager.getDefaultSharedPreferences(this).getString("screenshotSize", PngExporter.SIZE_SETTING_SCREEN);
+
             new Thread() {
                 @Override
                 public void run() {
                     try {
-                        // Draw the word cloud to a bitmap
-                        Bitmap bmp = Bitmap.createBitmap(
-                                UnitConverter.getInstance().toDp(cloudLayout.getWidth()),
-                                UnitConverter.getInstance().toDp(cloudLayout.getHeight()),
-                                Bitmap.Config.ARGB_8888);
-
-                        float density = 1 / UnitConverter.getInstance().toPxFloat(1);
-
-                        Canvas canvas = new Canvas(bmp);
-                        canvas.scale(density, density);
-                        canvas.drawColor(Color.WHITE);
-
-                        cloudLayout.draw(canvas);
-
                         // Cook up filename
                         final String date = new SimpleDateFormat("MM-dd-yy-kkmmss").format(Calendar.getInstance().getTime());
                         final String filename = "Cloud_" + date + ".png";
@@ -518,9 +645,15 @@ public class MainActivity extends ActionBarActivity implements PopupMenu.OnMenuI
                         File file = new File(VC_SCREENSHOTS_PATH + "Cloud-" + date + ".png");
                         file.createNewFile();
 
-                        FileOutputStream outStream = new FileOutputStream(file);
-                        bmp.compress(Bitmap.CompressFormat.PNG, 100, outStream);
-                        outStream.close();
+                        // Draw the word cloud in tiles straight to the file
+                        RectF bounds = snapshot.getContentBounds();
+                        OutputStream outStream = new BufferedOutputStream(new FileOutputStream(file));
+
+                        try {
+                            PngExporter.export(snapshot, bounds, PngExporter.scaleForSetting(bounds, size, screenScale), outStream);
+                        } finally {
+                            outStream.close();
+                        }
 
                         // Add screenshot to gallery
                         Intent mediaScanIntent = new Intent(Intent.ACTION_MEDIA_SCANNER_SCAN_FILE);
@@ -545,6 +678,35 @@ public class MainActivity extends ActionBarActivity implements PopupMenu.OnMenuI
                 }
             }.start();
 
+        } else if (id == R.id.export_svg) {
+            exportCloud("svg");
+        } else if (id == R.id.export_pdf) {
+            exportCloud("pdf");
+        } else if (id == R.id.export_csv) {
+            exportCloud("csv");
+        } else if (id == R.id.export_tsv) {
+            exportCloud("tsv");
+        } else if (id == R.id.view_history) {
+            final Handler mainHandler = new Handler();
+
+            // Query off the UI thread
+            new Thread() {
+                @Override
+                public void run() {
+                    long now = System.currentTimeMillis();
+                    long since = now - HISTORY_PERIOD;
+
+                    final Map<String, Long> topWords = HistoryDatabase.getInstance().topWords(since, now + 1, HISTORY_WORDS);
+                    final int sessions = HistoryDatabase.getInstance().getSessionCount(since, now + 1);
+
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            showHistory(topWords, sessions);
+                        }
+                    });
+                }
+            }.start();
         } else if (id == R.id.view_exclude_list) {
             openExclusion();
         }
@@ -552,6 +714,86 @@ public class MainActivity extends ActionBarActivity implements PopupMenu.OnMenuI
         return false;
     }
 
+    // Exports the cloud as a vector file ("svg" or "pdf") or word statistics ("csv" or "tsv") on a background thread.
+    private void exportCloud(final String extension) {
+        showToast("Exporting " + extension.toUpperCase() + "...", Toast.LENGTH_SHORT);
+
+        final Handler mainHandler = new Handler();
+        final boolean isStats = extension.equals("csv") || extension.equals("tsv");
+
+        // Copy the model now for drawings, so listening carries on while the file is written.
+        // Statistics are written straight from the cloud instead.
+        final WordCloud cloud = WordCloud.getInstance();
+        final CloudSnapshot snapshot = isStats ? null : cloud.snapshot();
+        final Map<String, Integer> exclusionHits = isStats ? ExclusionList.getInstance().getHitCounts() : null;
+
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    final String date = new SimpleDateFormat("MM-dd-yy-kkmmss").format(Calendar.getInstance().getTime());
+                    final String filename = "Cloud-" + date + "." + extension;
+
+                    File folder = new File(VC_EXPORTS_PATH);
+                    folder.mkdirs();
+
+                    File file = new File(folder, filename);
+                    OutputStream outStream = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+
+                    try {
+                        if (isStats) {
+                            Writer writer = new OutputStreamWriter(outStream, "UTF-8");
+                            char separator = extension.equals("tsv") ? WordStatsExporter.TSV : WordStatsExporter.CSV;
+
+                            WordStatsExporter.export(cloud, exclusionHits, separator, writer);
+                        } else if (extension.equals("pdf")) {
+                            PdfExporter.export(snapshot, snapshot.getContentBounds(), outStream);
+                        } else {
+                            SvgExporter.export(snapshot, snapshot.getContentBounds(), outStream);
+                        }
+                    } finally {
+                        outStream.close();
+                    }
+
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            showToast("Exported cloud to:\n" + filename, Toast.LENGTH_LONG);
+                        }
+                    });
+                } catch (Exception e) {
+                    e.printStackTrace();
+
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            showToast("Error exporting cloud!", Toast.LENGTH_SHORT);
+                        }
+                    });
+                }
+            }
+        }.start();
+    }
+
+    // Shows the top words from the on-device history.
+    private void showHistory(Map<String, Long> topWords, int sessions) {
+        StringBuilder message = new StringBuilder();
+
+        for (Map.Entry<String, Long> entry : topWords.entrySet()) {
+            message.append(entry.getKey().toUpperCase()).append("  ").append(entry.getValue()).append('\n');
+        }
+
+        if (topWords.isEmpty()) {
+            message.append("Nothing heard yet.");
+        }
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Last 30 Days (" + sessions + (sessions == 1 ? " session)" : " sessions)"));
+        builder.setMessage(message.toString());
+        builder.setPositiveButton("OK", null);
+        builder.show();
+    }
+
     // Shows a toast message, removing old toasts if needed.
     public Toast showToast(String message, int duration) {
         if (lastToast != null) lastToast.cancel();
@@ -561,6 +803,62 @@ public class MainActivity extends ActionBarActivity implements PopupMenu.OnMenuI
         return lastToast;
     }
 
+    // Shows transfer progress in the current toast.
+    private void showProgress(String message, long bytes, long total) {
+        if (lastToast == null) return;
+
+        if (total > 0) {
+            lastToast.setText(message + " " + (100 * bytes / total) + "%");
+        } else {
+            lastToast.setText(message + " " + (bytes / 1024) + " KB");
+        }
+
+        lastToast.show();
+    }
+
+    // Shows the result of saving the cloud. cloudID is null if the save failed.
+    private void showSaveResult(final String cloudID) {
+        String title;
+        String message;
+
+        if (cloudID == null) {
+            title = "Not Saved Yet :(";
+            message = "We couldn't talk with the server. Your cloud will be uploaded when you're back online.";
+        }
+        else {
+            title = "Saved Successfully!";
+            message = cloudID;
+        }
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setMessage(message)
+                .setTitle(title)
+                .setNegativeButton("Dismiss", new DialogInterface.OnClickListener() {
+                    public void onClick(DialogInterface dialog, int id) {
+                        dialog.dismiss();
+                    }
+                });
+
+        if (cloudID != null) {
+            builder.setPositiveButton("View on Web", new DialogInterface.OnClickListener() {
+                public void onClick(DialogInterface dialog, int id) {
+                    String url = "http://voicecloudapp.com/WordCloud/cloudview/" + cloudID;
+                    Intent i = new Intent(Intent.ACTION_VIEW);
+                    i.setData(Uri.parse(url));
+                    context.startActivity(i);
+                    dialog.dismiss();
+                }
+            });
+        }
+
+        AlertDialog alert = builder.create();
+        alert.show();
+
+        // Set text size
+        TextView textView = (TextView) alert.findViewById(android.R.id.message);
+        textView.setTextSize(40);
+    }
+
     // Shows the settings menu.
     public void showMenu() {
         PopupMenu popup = new PopupMenu(menuButton.getContext(), menuButton);
@@ -581,6 +879,24 @@ public class MainActivity extends ActionBarActivity implements PopupMenu.OnMenuI
         startActivity(intent);
     }
 
+    // Shows the cloud at a position on the timeline bar, or live at the end.
+    private void showTimeline(int progress) {
+        WordCloud cloud = WordCloud.getInstance();
+
+        if (progress >= timelineBar.getMax()) {
+            cloud.showLive();
+            return;
+        }
+
+        long start = cloud.getTimeline().getStartTime();
+        long time = start + (System.currentTimeMillis() - start) * progress / timelineBar.getMax();
+
+        cloud.showHistory(time);
+
+        long seconds = (time - start) / 1000;
+        showToast(String.format("%d:%02d", seconds / 60, seconds % 60), Toast.LENGTH_SHORT);
+    }
+
     // Sets the running state of the app. Defaults to show button animation.
     public void setRunning(boolean running) {
         setRunning(running, true);
@@ -597,6 +913,12 @@ public class MainActivity extends ActionBarActivity implements PopupMenu.OnMenuI
         isRunning = running;
 
         if (isRunning) {
+            // New words are live; stop showing the past
+            if (WordCloud.getInstance() != null && WordCloud.getInstance().isShowingHistory()) {
+                WordCloud.getInstance().showLive();
+                timelineBar.setProgress(timelineBar.getMax());
+            }
+
             // Start SRS
             if (mServiceMessenger != null) {
                 try {
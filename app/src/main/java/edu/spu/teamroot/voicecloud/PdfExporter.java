@@ -0,0 +1,189 @@
+package edu.spu.teamroot.voicecloud;
+
+import android.graphics.RectF;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+// Writes a cloud snapshot as a single-page PDF from the model, using the standard Helvetica-Bold
+// font so nothing is embedded. The page content is streamed; its length is written afterwards as
+// an indirect object, so output size grows linearly with the word count and nothing is buffered.
+public class PdfExporter {
+    /*
+     * Static members
+     */
+
+    private static final float MAX_PAGE_SIZE = 14400; // Largest page side allowed by PDF viewers, in points
+
+    private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+    // Helvetica-Bold advance widths for ' ' to '~', in 1/1000 em (from the standard AFM)
+    private static final short[] HELVETICA_BOLD_WIDTHS = {
+            278, 333, 474, 556, 556, 889, 722, 238, 333, 333, 389, 584, 278, 333, 278, 278,
+            556, 556, 556, 556, 556, 556, 556, 556, 556, 556, 333, 333, 584, 584, 584, 611,
+            975, 722, 722, 722, 722, 667, 611, 778, 722, 278, 556, 722, 611, 833, 722, 778,
+            667, 778, 722, 667, 611, 722, 667, 944, 667, 667, 611, 333, 278, 333, 584, 556,
+            333, 556, 611, 556, 611, 556, 333, 611, 611, 278, 278, 556, 278, 889, 611, 611,
+            611, 611, 389, 556, 333, 611, 556, 778, 556, 556, 500, 389, 280, 389, 584};
+
+    private static final int DEFAULT_WIDTH = 611; // For characters outside the table
+
+    /*
+     * Static methods
+     */
+
+    // Writes the words within bounds (dp) as a PDF page, one point per dp (scaled down if the
+    // page would be too big). The stream is flushed, not closed.
+    public static void export(CloudSnapshot snapshot, RectF bounds, OutputStream stream) throws IOException {
+        PdfOutputStream out = new PdfOutputStream(stream);
+
+        float scale = Math.min(1, MAX_PAGE_SIZE / Math.max(bounds.width(), bounds.height()));
+        float pageWidth = bounds.width() * scale;
+        float pageHeight = bounds.height() * scale;
+
+        long[] offsets = new long[7];
+
+        out.print("%PDF-1.4\n%\u00e2\u00e3\u00cf\u00d3\n");
+
+        offsets[1] = out.count;
+        out.print("1 0 obj\n<< /Type /Catalog /Pages 2 0 R >>\nendobj\n");
+
+        offsets[2] = out.count;
+        out.print("2 0 obj\n<< /Type /Pages /Kids [3 0 R] /Count 1 >>\nendobj\n");
+
+        offsets[3] = out.count;
+        out.print("3 0 obj\n<< /Type /Page /Parent 2 0 R /MediaBox [0 0 " + number(pageWidth) + " " + number(pageHeight) + "]"
+                + " /Resources << /Font << /F1 4 0 R >> >> /Contents 5 0 R >>\nendobj\n");
+
+        offsets[4] = out.count;
+        out.print("4 0 obj\n<< /Type /Font /Subtype /Type1 /BaseFont /Helvetica-Bold /Encoding /WinAnsiEncoding >>\nendobj\n");
+
+        offsets[5] = out.count;
+        out.print("5 0 obj\n<< /Length 6 0 R >>\nstream\n");
+
+        long streamStart = out.count;
+
+        // Map dp (y down, from the bounds' corner) to points (y up, from the page's corner)
+        out.print(number(scale) + " 0 0 " + number(-scale) + " 0 " + number(pageHeight) + " cm\n");
+        out.print("1 0 0 1 " + number(-bounds.left) + " " + number(-bounds.top) + " cm\n");
+
+        for (int i = 0; i < snapshot.wordCount; i++) {
+            if (!snapshot.isDrawn(i)) continue;
+
+            writeWord(out, snapshot, i);
+        }
+
+        long streamLength = out.count - streamStart;
+        out.print("endstream\nendobj\n");
+
+        offsets[6] = out.count;
+        out.print("6 0 obj\n" + streamLength + "\nendobj\n");
+
+        long xref = out.count;
+        out.print("xref\n0 7\n0000000000 65535 f \n");
+
+        for (int i = 1; i < offsets.length; i++) {
+            String offset = Long.toString(offsets[i]);
+            out.print("0000000000".substring(offset.length()) + offset + " 00000 n \n");
+        }
+
+        out.print("trailer\n<< /Size 7 /Root 1 0 R >>\nstartxref\n" + xref + "\n%%EOF\n");
+        out.flush();
+    }
+
+    // Writes a word as its button looks: a box in the word color with white capitals.
+    private static void writeWord(PdfOutputStream out, CloudSnapshot snapshot, int i) throws IOException {
+        float left = snapshot.left[i] + PngExporter.INSET_X;
+        float top = snapshot.top[i] + PngExporter.INSET_Y;
+        float right = snapshot.right[i] - PngExporter.INSET_X;
+        float bottom = snapshot.bottom[i] - PngExporter.INSET_Y;
+
+        int color = snapshot.colors[i];
+
+        out.print(channel(color >> 16) + " " + channel(color >> 8) + " " + channel(color) + " rg "
+                + number(left) + " " + number(top) + " " + number(right - left) + " " + number(bottom - top) + " re f\n");
+
+        String text = snapshot.names[i].toUpperCase();
+        float size = snapshot.sizes[i];
+        float textWidth = measure(text) * size / 1000;
+
+        // The page is flipped, so flip text back; cap height of Helvetica is about 0.72 em
+        float x = (left + right - textWidth) / 2;
+        float y = (top + bottom) / 2 + size * 0.36f;
+
+        out.print("BT 1 g /F1 " + number(size) + " Tf 1 0 0 -1 " + number(x) + " " + number(y) + " Tm (");
+        writeString(out, text);
+        out.print(") Tj ET\n");
+    }
+
+    // Returns the width of text in Helvetica-Bold, in 1/1000 em.
+    private static int measure(String text) {
+        int width = 0;
+
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            width += (c >= ' ' && c <= '~') ? HELVETICA_BOLD_WIDTHS[c - ' '] : DEFAULT_WIDTH;
+        }
+
+        return width;
+    }
+
+    // Writes text as the inside of a PDF literal string, in WinAnsi (Latin-1 here); other characters become '?'.
+    private static void writeString(PdfOutputStream out, String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+
+            if (c == '(' || c == ')' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            } else if (c < ' ' || (c >= 0x7F && c < 0xA0) || c > 0xFF) {
+                out.write('?');
+            } else {
+                out.write(c);
+            }
+        }
+    }
+
+    // Formats a color channel (the low byte) as a fraction.
+    private static String channel(int value) {
+        return number((value & 0xFF) / 255f);
+    }
+
+    // Formats a number with at most three decimal places.
+    private static String number(float value) {
+        int thousandths = Math.round(value * 1000);
+
+        if (thousandths % 1000 == 0) {
+            return Integer.toString(thousandths / 1000);
+        }
+
+        return Float.toString(thousandths / 1000f);
+    }
+
+    // Counts bytes written, for the cross-reference table.
+    private static class PdfOutputStream extends FilterOutputStream {
+        long count;
+
+        PdfOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        void print(String text) throws IOException {
+            write(text.getBytes(LATIN1));
+        }
+    }
+}
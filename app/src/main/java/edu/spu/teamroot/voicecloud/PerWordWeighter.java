@@ -0,0 +1,69 @@
+package edu.spu.teamroot.voicecloud;
+
+import java.util.Arrays;
+
+// A weighter that keeps its own state per word, in arrays indexed by word ID.
+// Word IDs are reused once a word is removed, so the word owning each ID is tracked, and a
+// word's state is reset when it first claims an ID. Words are colored by score from the shared palette.
+public abstract class PerWordWeighter implements WordWeighter {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private Word[] owners;
+    private int[] resolvedColors;
+
+    protected PerWordWeighter() {
+        owners = new Word[INITIAL_CAPACITY];
+    }
+
+    /*
+     * Per word state
+     */
+
+    // Grows the subclass's per-ID arrays to a new capacity, keeping their contents.
+    protected abstract void onGrow(int capacity);
+
+    // Resets the state of an ID for a word that has just claimed it.
+    protected abstract void onClaim(int id, Word word);
+
+    // Returns the number of IDs the per-ID arrays hold. Subclasses size their arrays to this.
+    protected int getCapacity() {
+        return owners.length;
+    }
+
+    // Returns the word's ID, growing the arrays and resetting its state if needed, or -1 if it has none.
+    protected int claim(Word word) {
+        int id = word.getWordId();
+        if (id < 0) return -1;
+
+        if (id >= owners.length) {
+            int capacity = Math.max(owners.length * 2, id + 1);
+            owners = Arrays.copyOf(owners, capacity);
+            onGrow(capacity);
+        }
+
+        if (owners[id] != word) {
+            // New word, or ID reused by another word
+            owners[id] = word;
+            onClaim(id, word);
+        }
+
+        return id;
+    }
+
+    // Returns true if the state held for an ID is the word's.
+    protected boolean owns(int id, Word word) {
+        return id >= 0 && id < owners.length && owners[id] == word;
+    }
+
+    /*
+     * Colors
+     */
+
+    // Returns the palette color for a score: one step hotter per occurrence, up to the hottest.
+    protected int getScoreColor(double score) {
+        if (resolvedColors == null) resolvedColors = SimpleWeighter.resolveAccentColors();
+
+        int index = (int) Math.min(Math.max(score, 0), resolvedColors.length - 1);
+        return resolvedColors[index];
+    }
+}
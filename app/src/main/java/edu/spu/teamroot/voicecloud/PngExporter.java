@@ -0,0 +1,135 @@
+package edu.spu.teamroot.voicecloud;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.Typeface;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Renders a cloud snapshot to a PNG from the model, without touching views.
+//
+// The image is drawn in horizontal tiles of at most TILE_PIXELS pixels, each streamed into a
+// PngWriter before the next is drawn. Peak memory is one tile, whatever the image size.
+public class PngExporter {
+    /*
+     * Static members
+     */
+
+    public static final int MAX_SIZE = 8000; // Longest side of an export, in px
+
+    // Values of the "screenshotSize" preference: the screen's density, or the longest side in px
+    public static final String SIZE_SETTING_SCREEN = "screen";
+
+    private static final int TILE_PIXELS = 512 * 1024; // 2 MB of ARGB per tile
+
+    // Button look, in dp (matches the Material button background insets); shared by the vector exporters
+    static final float INSET_X = 4;
+    static final float INSET_Y = 6;
+    static final float CORNER_RADIUS = 2;
+
+    /*
+     * Static methods
+     */
+
+    // Returns the largest scale (px per dp) up to the one wanted that keeps an export within MAX_SIZE.
+    public static float fitScale(RectF bounds, float scale) {
+        float longest = Math.max(bounds.width(), bounds.height());
+        return Math.min(scale, MAX_SIZE / longest);
+    }
+
+    // Returns the scale (px per dp) that makes the longest side of an export size px, up to MAX_SIZE.
+    public static float scaleForSize(RectF bounds, int size) {
+        float longest = Math.max(Math.max(bounds.width(), bounds.height()), 1);
+        return Math.min(size, MAX_SIZE) / longest;
+    }
+
+    // Returns the scale for a "screenshotSize" preference value, given the screen's scale.
+    public static float scaleForSetting(RectF bounds, String setting, float screenScale) {
+        if (!SIZE_SETTING_SCREEN.equals(setting)) {
+            try {
+                return scaleForSize(bounds, Integer.parseInt(setting));
+            } catch (NumberFormatException e) {
+                Log.d("PngExporter", "Unknown size setting: " + setting);
+            }
+        }
+
+        return fitScale(bounds, screenScale);
+    }
+
+    // Writes the words within bounds (dp) as a PNG, at scale px per dp. The stream is not closed.
+    public static void export(CloudSnapshot snapshot, RectF bounds, float scale, OutputStream out) throws IOException {
+        int width = Math.max((int) Math.ceil(bounds.width() * scale), 1);
+        int height = Math.max((int) Math.ceil(bounds.height() * scale), 1);
+        int tileHeight = Math.max(Math.min(TILE_PIXELS / width, height), 1);
+
+        Log.d("PngExporter", "Exporting " + width + "x" + height + " in tiles of " + tileHeight + " rows");
+
+        Paint fill = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+        Paint text = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.SUBPIXEL_TEXT_FLAG);
+        text.setColor(Color.WHITE);
+        text.setTypeface(Typeface.DEFAULT_BOLD);
+        text.setTextAlign(Paint.Align.CENTER);
+
+        Bitmap tile = Bitmap.createBitmap(width, tileHeight, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(tile);
+        int[] pixels = new int[width];
+        RectF rect = new RectF();
+
+        PngWriter png = new PngWriter(out, width, height);
+
+        try {
+            for (int y = 0; y < height; y += tileHeight) {
+                int rows = Math.min(tileHeight, height - y);
+
+                // Tile covers [top, bottom) of the cloud, in dp
+                float top = bounds.top + y / scale;
+                float bottom = bounds.top + (y + rows) / scale;
+
+                tile.eraseColor(Color.WHITE);
+
+                canvas.save();
+                canvas.translate(0, -y);
+                canvas.scale(scale, scale);
+                canvas.translate(-bounds.left, -bounds.top);
+
+                for (int i = 0; i < snapshot.wordCount; i++) {
+                    // Skip words outside the tile
+                    if (!snapshot.isDrawn(i) || snapshot.bottom[i] < top || snapshot.top[i] > bottom) continue;
+
+                    drawWord(canvas, snapshot, i, fill, text, rect);
+                }
+
+                canvas.restore();
+
+                for (int row = 0; row < rows; row++) {
+                    tile.getPixels(pixels, 0, width, 0, row, width, 1);
+                    png.writeRow(pixels, 0);
+                }
+            }
+
+            png.finish();
+        } finally {
+            tile.recycle();
+        }
+    }
+
+    // Draws a word as its button looks: a rounded box in the word color with white capitals.
+    private static void drawWord(Canvas canvas, CloudSnapshot snapshot, int i, Paint fill, Paint text, RectF rect) {
+        rect.set(snapshot.left[i] + INSET_X, snapshot.top[i] + INSET_Y, snapshot.right[i] - INSET_X, snapshot.bottom[i] - INSET_Y);
+
+        fill.setColor(snapshot.colors[i] | 0xFF000000);
+        canvas.drawRoundRect(rect, CORNER_RADIUS, CORNER_RADIUS, fill);
+
+        text.setTextSize(snapshot.sizes[i]);
+
+        // Center the text vertically on the box
+        float baseline = rect.centerY() - (text.ascent() + text.descent()) / 2;
+        canvas.drawText(snapshot.names[i].toUpperCase(), rect.centerX(), baseline, text);
+    }
+}
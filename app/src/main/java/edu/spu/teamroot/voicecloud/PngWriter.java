@@ -0,0 +1,155 @@
+package edu.spu.teamroot.voicecloud;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// Streams an RGB PNG row by row, so an image of any size is encoded without holding it in memory.
+// Rows are Sub-filtered and deflated straight into fixed-size IDAT chunks.
+public class PngWriter {
+    /*
+     * Static members
+     */
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    private static final int CHUNK_SIZE = 64 * 1024; // Largest IDAT chunk
+
+    private static final byte FILTER_SUB = 1;
+
+    /*
+     * Member variables
+     */
+
+    private final DataOutputStream out;
+    private final int width;
+    private final int height;
+
+    private final Deflater deflater = new Deflater(6);
+    private final CRC32 crc = new CRC32();
+
+    private final byte[] row; // Filter byte, then filtered RGB
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private int chunkLength;
+
+    private int rowsWritten;
+
+    /*
+     * Constructors
+     */
+
+    // Writes the PNG header for an image of the given size. The stream is not closed.
+    public PngWriter(OutputStream out, int width, int height) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Bad image size " + width + "x" + height);
+        }
+
+        this.out = new DataOutputStream(out);
+        this.width = width;
+        this.height = height;
+
+        row = new byte[1 + width * 3];
+
+        this.out.write(SIGNATURE);
+
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8; // Bit depth
+        header[9] = 2; // Truecolor
+        header[10] = 0; // Deflate
+        header[11] = 0; // Adaptive filtering
+        header[12] = 0; // No interlace
+
+        writeChunk("IHDR", header, header.length);
+    }
+
+    /*
+     * Methods
+     */
+
+    // Writes the next row from ARGB pixels (alpha is ignored), starting at an offset.
+    public void writeRow(int[] pixels, int offset) throws IOException {
+        if (rowsWritten == height) {
+            throw new IllegalStateException("All rows written");
+        }
+
+        row[0] = FILTER_SUB;
+
+        // Sub filter: each byte minus the same channel of the pixel to its left
+        int previous = 0;
+
+        for (int x = 0, i = 1; x < width; x++, i += 3) {
+            int pixel = pixels[offset + x];
+
+            row[i] = (byte) ((pixel >> 16) - (previous >> 16));
+            row[i + 1] = (byte) ((pixel >> 8) - (previous >> 8));
+            row[i + 2] = (byte) (pixel - previous);
+
+            previous = pixel;
+        }
+
+        deflater.setInput(row, 0, row.length);
+
+        while (!deflater.needsInput()) {
+            deflate();
+        }
+
+        rowsWritten++;
+    }
+
+    // Finishes the image. All rows must have been written. The stream is flushed, not closed.
+    public void finish() throws IOException {
+        if (rowsWritten != height) {
+            throw new IllegalStateException("Wrote " + rowsWritten + " of " + height + " rows");
+        }
+
+        deflater.finish();
+
+        while (!deflater.finished()) {
+            deflate();
+        }
+
+        deflater.end();
+
+        if (chunkLength > 0) {
+            writeChunk("IDAT", chunk, chunkLength);
+        }
+
+        writeChunk("IEND", chunk, 0);
+        out.flush();
+    }
+
+    // Deflates into the chunk buffer, writing it out as an IDAT chunk when full.
+    private void deflate() throws IOException {
+        chunkLength += deflater.deflate(chunk, chunkLength, CHUNK_SIZE - chunkLength);
+
+        if (chunkLength == CHUNK_SIZE) {
+            writeChunk("IDAT", chunk, chunkLength);
+            chunkLength = 0;
+        }
+    }
+
+    // Writes a chunk: length, type, data and CRC of type and data.
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes("US-ASCII");
+
+        crc.reset();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+}
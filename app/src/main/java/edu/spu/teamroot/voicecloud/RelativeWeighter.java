@@ -1,6 +1,6 @@
 package edu.spu.teamroot.voicecloud;
 
-public class RelativeWeighter implements WordWeighter {
+public class RelativeWeighter extends LookupWeighter implements ThresholdWeighter {
     private static final int[] accentColors = {
             R.color.blue,
             R.color.blue,
@@ -20,10 +20,19 @@ public class RelativeWeighter implements WordWeighter {
     int maxCount;
     boolean refreshAll;
 
+    private int[] resolvedColors = new int[accentColors.length];
+
     public RelativeWeighter() {
         maxCount = Integer.MIN_VALUE;
     }
 
+    @Override
+    protected void onRebuildTables() {
+        for (int i = 0; i < accentColors.length; i++) {
+            resolvedColors[i] = WordCloud.context.getResources().getColor(accentColors[i]);
+        }
+    }
+
     @Override
     public int getTextSize(Word word) {
         int count = word.getCount();
@@ -32,22 +41,31 @@ public class RelativeWeighter implements WordWeighter {
             refreshAll = true; // maxCount changed, refresh all!
         }
 
+        return lookupTextSize(count);
+    }
+
+    @Override
+    protected int computeTextSize(int count) {
         return 20 + count;
     }
 
     @Override
-    public int getWordColor(Word word) {
+    protected int computeWordColor(int count) {
         // Change color every 5 occurrences
-        return accentColors[(word.getCount() / 5) % accentColors.length];
+        return resolvedColors[(Math.max(count, 0) / 5) % accentColors.length];
     }
 
     @Override
-    public boolean shouldShow(Word word) {
+    protected boolean shouldShow(int count) {
         // Show all words greater than WINDOW less than maxCount
-        int count = word.getCount();
         return (count > Math.max(maxCount - WINDOW, 0));
     }
 
+    @Override
+    public int getMinCount() {
+        return Math.max(maxCount - WINDOW, 0) + 1;
+    }
+
     @Override
     public boolean refreshAll(Word word) {
         boolean refresh = refreshAll;
@@ -0,0 +1,452 @@
+package edu.spu.teamroot.voicecloud;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+// Append-only journal of word count changes, for rebuilding the cloud after a crash.
+//
+// Events are queued without blocking and written by a background thread to journal.<generation>
+// files, fsynced at most every FSYNC_INTERVAL. A checkpoint (a SnapshotFile carrying the same
+// generation) starts a new file; recovery replays every journal from the checkpoint's generation on.
+//
+// Each file is a sequence of batches: varint length, int CRC32, then records:
+//   DEFINE  varint id, varint length, UTF-8 name   (first use of an ID in the file)
+//   DELTA   zigzag time - previous time, varint id, zigzag delta
+//   REMOVE  zigzag time - previous time, varint id
+//   CLEAR   zigzag time - previous time
+// A torn batch at the end of a file (from a crash mid-write) is ignored.
+public class SessionJournal implements WordCloud.DeltaListener {
+    /*
+     * Static members
+     */
+
+    public static final String DIRECTORY = "journal";
+    private static final String PREFIX = "journal.";
+
+    private static final long FSYNC_INTERVAL = 1000; // ms
+    private static final int BATCH_SIZE = 16 * 1024; // Largest batch before it is written
+    private static final int MAX_NAME_BYTES = 1024; // Longer names are truncated
+
+    private static final byte DEFINE = 1;
+    private static final byte DELTA = 2;
+    private static final byte REMOVE = 3;
+    private static final byte CLEAR = 4;
+
+    // Writer thread control events
+    private static final byte ROTATE = 10;
+    private static final byte SHUTDOWN = 11;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // A queued event.
+    private static class Event {
+        final byte type;
+        final long time; // Generation for ROTATE
+        final int id;
+        final String name;
+        final int delta;
+
+        Event(byte type, long time, int id, String name, int delta) {
+            this.type = type;
+            this.time = time;
+            this.id = id;
+            this.name = name;
+            this.delta = delta;
+        }
+    }
+
+    /*
+     * Static methods
+     */
+
+    // Returns the generations of the journal files in a directory, in ascending order.
+    public static long[] listGenerations(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) return new long[0];
+
+        long[] generations = new long[files.length];
+        int count = 0;
+
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.startsWith(PREFIX)) continue;
+
+            try {
+                generations[count++] = Long.parseLong(name.substring(PREFIX.length()));
+            } catch (NumberFormatException e) {
+                // Not a journal
+            }
+        }
+
+        generations = Arrays.copyOf(generations, count);
+        Arrays.sort(generations);
+
+        return generations;
+    }
+
+    // Deletes journals older than a generation, once a checkpoint covers them.
+    public static void deleteBefore(File directory, long generation) {
+        for (long g : listGenerations(directory)) {
+            if (g < generation) {
+                new File(directory, PREFIX + g).delete();
+            }
+        }
+    }
+
+    // Replays the journals from a generation on into a snapshot. Returns the number of events applied.
+    // Words first seen in the journal are added detached, at the end of the snapshot.
+    public static int replay(File directory, long fromGeneration, CloudSnapshot snapshot) {
+        Map<String, Integer> index = new HashMap<>();
+
+        for (int i = 0; i < snapshot.wordCount; i++) {
+            if (snapshot.names[i] != null) index.put(snapshot.names[i], i);
+        }
+
+        int applied = 0;
+
+        for (long generation : listGenerations(directory)) {
+            if (generation < fromGeneration) continue;
+
+            try {
+                applied += replayFile(new File(directory, PREFIX + generation), snapshot, index);
+            } catch (IOException e) {
+                Log.d("SessionJournal", "Error reading journal " + generation);
+                e.printStackTrace();
+            }
+        }
+
+        if (applied > 0) {
+            compact(snapshot);
+        }
+
+        return applied;
+    }
+
+    // Drops words removed during replay.
+    private static void compact(CloudSnapshot snapshot) {
+        int count = 0;
+
+        for (int i = 0; i < snapshot.wordCount; i++) {
+            if (snapshot.names[i] == null) continue;
+
+            snapshot.names[count] = snapshot.names[i];
+            snapshot.counts[count] = snapshot.counts[i];
+            snapshot.timestamps[count] = snapshot.timestamps[i];
+            snapshot.wordGroups[count] = snapshot.wordGroups[i];
+            snapshot.left[count] = snapshot.left[i];
+            snapshot.top[count] = snapshot.top[i];
+            snapshot.right[count] = snapshot.right[i];
+            snapshot.bottom[count] = snapshot.bottom[i];
+            count++;
+        }
+
+        snapshot.wordCount = count;
+    }
+
+    // Replays one journal file.
+    private static int replayFile(File file, CloudSnapshot snapshot, Map<String, Integer> index) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        ByteBuffer buffer;
+
+        try {
+            buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        } finally {
+            in.close();
+        }
+
+        List<String> names = new ArrayList<>(); // By word ID, as defined in this file
+        CRC32 crc = new CRC32();
+        byte[] batch = new byte[BATCH_SIZE];
+        long time = 0;
+        int applied = 0;
+
+        try {
+            while (buffer.hasRemaining()) {
+                int length = Varints.readVarint(buffer);
+                int checksum = buffer.getInt();
+
+                if (length < 0 || length > buffer.remaining()) break; // Torn write
+                if (length > batch.length) batch = new byte[length];
+
+                buffer.get(batch, 0, length);
+
+                crc.reset();
+                crc.update(batch, 0, length);
+                if ((int) crc.getValue() != checksum) break; // Torn write
+
+                ByteBuffer records = ByteBuffer.wrap(batch, 0, length);
+
+                while (records.hasRemaining()) {
+                    byte type = records.get();
+
+                    if (type == DEFINE) {
+                        int id = Varints.readVarint(records);
+                        byte[] bytes = new byte[Varints.readVarint(records)];
+                        records.get(bytes);
+
+                        while (names.size() <= id) names.add(null);
+                        names.set(id, new String(bytes, UTF8));
+                        continue;
+                    }
+
+                    time += Varints.readSignedLong(records);
+
+                    if (type == DELTA) {
+                        int id = Varints.readVarint(records);
+                        int delta = Varints.readSigned(records);
+                        applyDelta(snapshot, index, names.get(id), delta, time);
+                    } else if (type == REMOVE) {
+                        Integer i = index.remove(names.get(Varints.readVarint(records)));
+                        if (i != null) snapshot.names[i] = null;
+                    } else if (type == CLEAR) {
+                        index.clear();
+                        snapshot.wordCount = 0;
+                        snapshot.groupCount = 0;
+                        snapshot.timestamp = time;
+                    } else {
+                        throw new IOException("Unknown record " + type);
+                    }
+
+                    applied++;
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            // Torn write at the end of the file
+        }
+
+        return applied;
+    }
+
+    // Adds a count change to a snapshot.
+    private static void applyDelta(CloudSnapshot snapshot, Map<String, Integer> index, String name, int delta, long time) {
+        Integer i = index.get(name);
+
+        if (i == null) {
+            i = snapshot.wordCount++;
+            snapshot.ensureWordCapacity(snapshot.wordCount);
+
+            snapshot.names[i] = name;
+            snapshot.counts[i] = 0;
+            snapshot.wordGroups[i] = -1;
+            snapshot.left[i] = snapshot.top[i] = snapshot.right[i] = snapshot.bottom[i] = 0;
+            index.put(name, i);
+        }
+
+        snapshot.counts[i] += delta;
+        snapshot.timestamps[i] = time;
+    }
+
+    /*
+     * Member variables
+     */
+
+    private final File directory;
+    private final LinkedBlockingQueue<Event> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+
+    /*
+     * Constructors
+     */
+
+    // Starts a journal writing to journal.<generation> in the directory.
+    public SessionJournal(File directory, long generation) {
+        this.directory = directory;
+
+        queue.offer(new Event(ROTATE, generation, 0, null, 0));
+
+        writer = new Thread("SessionJournal") {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        };
+        writer.setPriority(Thread.MIN_PRIORITY);
+        writer.start();
+    }
+
+    /*
+     * Methods
+     */
+
+    // Starts a new journal file. Events queued after this go to the new generation.
+    public void rotate(long generation) {
+        queue.offer(new Event(ROTATE, generation, 0, null, 0));
+    }
+
+    // Flushes and closes the journal. Events after this are dropped.
+    public void close() {
+        queue.offer(new Event(SHUTDOWN, 0, 0, null, 0));
+    }
+
+    /*
+     * WordCloud.DeltaListener
+     */
+
+    @Override
+    public void onWordDelta(long time, Word word, int delta) {
+        queue.offer(new Event(DELTA, time, word.getWordId(), word.getName(), delta));
+    }
+
+    @Override
+    public void onWordRemoved(long time, Word word) {
+        queue.offer(new Event(REMOVE, time, word.getWordId(), word.getName(), 0));
+    }
+
+    @Override
+    public void onCleared(long time) {
+        queue.offer(new Event(CLEAR, time, 0, null, 0));
+    }
+
+    @Override
+    public void onSnapshotLoaded(CloudSnapshot snapshot) {
+        // Nothing to record; the snapshot is written as a checkpoint
+    }
+
+    /*
+     * Writer thread
+     */
+
+    private FileChannel channel;
+    private String[] defined = new String[64]; // Names defined in the current file, by word ID
+    private long lastTime;
+    private long lastSync;
+    private boolean unsynced;
+
+    private final ByteBuffer records = ByteBuffer.allocate(BATCH_SIZE + MAX_NAME_BYTES + 64);
+    private final ByteBuffer header = ByteBuffer.allocate(9);
+    private final CRC32 crc = new CRC32();
+
+    // Takes events off the queue and writes them in batches.
+    private void writeLoop() {
+        try {
+            while (true) {
+                Event event = queue.poll(FSYNC_INTERVAL, TimeUnit.MILLISECONDS);
+
+                while (event != null) {
+                    if (event.type == SHUTDOWN) {
+                        flush();
+                        sync();
+                        if (channel != null) channel.close();
+                        return;
+                    } else if (event.type == ROTATE) {
+                        open(event.time);
+                    } else if (channel != null) {
+                        encode(event);
+                        if (records.position() >= BATCH_SIZE) flush();
+                    }
+
+                    event = queue.poll();
+                }
+
+                // Queue is empty; write what we have
+                flush();
+
+                if (unsynced && System.currentTimeMillis() - lastSync >= FSYNC_INTERVAL) {
+                    sync();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Stopped
+        } catch (IOException e) {
+            Log.d("SessionJournal", "Journal write failed; journaling stopped");
+            e.printStackTrace();
+        }
+    }
+
+    // Closes the current file and starts journal.<generation>.
+    private void open(long generation) throws IOException {
+        flush();
+        sync();
+
+        if (channel != null) channel.close();
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+
+        channel = new FileOutputStream(new File(directory, PREFIX + generation), true).getChannel();
+
+        // IDs must be defined again in each file
+        Arrays.fill(defined, null);
+        lastTime = 0;
+
+        Log.d("SessionJournal", "Journal generation " + generation);
+    }
+
+    // Encodes an event into the current batch.
+    private void encode(Event event) {
+        if (event.type != CLEAR) {
+            if (event.id >= defined.length) {
+                defined = Arrays.copyOf(defined, Math.max(defined.length * 2, event.id + 1));
+            }
+
+            // IDs are reused by other words, so define whenever the name changes
+            if (!event.name.equals(defined[event.id])) {
+                byte[] bytes = event.name.getBytes(UTF8);
+
+                int length = Math.min(bytes.length, MAX_NAME_BYTES);
+
+                records.put(DEFINE);
+                Varints.writeVarint(records, event.id);
+                Varints.writeVarint(records, length);
+                records.put(bytes, 0, length);
+                defined[event.id] = event.name;
+            }
+        }
+
+        records.put(event.type);
+        Varints.writeSignedLong(records, event.time - lastTime);
+        lastTime = event.time;
+
+        if (event.type == DELTA) {
+            Varints.writeVarint(records, event.id);
+            Varints.writeSigned(records, event.delta);
+        } else if (event.type == REMOVE) {
+            Varints.writeVarint(records, event.id);
+        }
+    }
+
+    // Writes the current batch to the file.
+    private void flush() throws IOException {
+        if (records.position() == 0 || channel == null) return;
+
+        crc.reset();
+        crc.update(records.array(), 0, records.position());
+
+        header.clear();
+        Varints.writeVarint(header, records.position());
+        header.putInt((int) crc.getValue());
+        header.flip();
+        records.flip();
+
+        channel.write(new ByteBuffer[] {header, records});
+        records.clear();
+
+        unsynced = true;
+    }
+
+    // Forces written batches to disk.
+    private void sync() throws IOException {
+        if (!unsynced || channel == null) return;
+
+        channel.force(false);
+        lastSync = System.currentTimeMillis();
+        unsynced = false;
+    }
+}
@@ -4,6 +4,7 @@ import android.app.AlertDialog;
 import android.content.DialogInterface;
 import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.preference.ListPreference;
 import android.preference.Preference;
 import android.preference.PreferenceFragment;
 import android.preference.SwitchPreference;
@@ -98,6 +99,28 @@ public class SettingsActivity extends ActionBarActivity {
                     return value;
                 }
             });
+
+            final ListPreference detail = (ListPreference) findPreference("detail");
+            detail.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+                @Override
+                public boolean onPreferenceChange(Preference preference, Object o) {
+                    if (WordCloud.layout != null) {
+                        WordCloud.layout.setDetail((String) o);
+                    }
+                    return true;
+                }
+            });
+
+            final ListPreference weighting = (ListPreference) findPreference("weighting");
+            weighting.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+                @Override
+                public boolean onPreferenceChange(Preference preference, Object o) {
+                    if (WordCloud.getInstance() != null) {
+                        WordCloud.getInstance().setWeighter(WordCloud.createWeighter((String) o));
+                    }
+                    return true;
+                }
+            });
         }
 
         @Override
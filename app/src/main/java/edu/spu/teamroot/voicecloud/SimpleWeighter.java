@@ -1,7 +1,8 @@
 package edu.spu.teamroot.voicecloud;
 
-public class SimpleWeighter implements WordWeighter {
-    private static final int[] accentColors = {
+public class SimpleWeighter extends LookupWeighter {
+    // Palette from coolest to hottest, shared with the weighters that score words differently
+    static final int[] accentColors = {
             R.color.blue,
             R.color.cyan,
             R.color.teal,
@@ -15,29 +16,55 @@ public class SimpleWeighter implements WordWeighter {
             R.color.red,
             R.color.redDark};
 
+    static final int MAX_SIZE = 600;
+
+    // Word Growth
+    private static final int WORD_WEIGHT = 20; // Initial word size
+    private static final int N = 10; // Vertical stretch
+    private static final int M = 10; // Horizontal stretch
+    private static final double P = 0.5; // Initial curve
+
+    private int[] resolvedColors;
+
+    // Returns the text size for a score (a count, or a weighted count) on the growth curve, at most MAX_SIZE.
+    static int getGrowthSize(double score) {
+        int newSize = (int) ((N * Math.sqrt(M * (score - 0.5))) + (WORD_WEIGHT - (N * Math.sqrt((1 - P) * M))));
+        return Math.min(newSize, MAX_SIZE);
+    }
+
+    // Resolves the palette to ARGB colors.
+    static int[] resolveAccentColors() {
+        int[] resolved = new int[accentColors.length];
+
+        for (int i = 0; i < accentColors.length; i++) {
+            resolved[i] = WordCloud.context.getResources().getColor(accentColors[i]);
+        }
+
+        return resolved;
+    }
+
+    @Override
+    protected void onRebuildTables() {
+        // Resolve color resources once per rebuild, not once per word
+        resolvedColors = resolveAccentColors();
+    }
+
     @Override
-    public int getTextSize(Word word) {
-
-        // Word Growth
-        int wordWeight = 20; // Initial word size
-        int n = 10; // Vertical stretch
-        int m = 10; // Horizontal stretch
-        double p = 0.5; // Initial curve
-        int newSize =  (int) ((n * Math.sqrt(m * (word.getCount() - 0.5))) + (wordWeight - (n * Math.sqrt((1 - p) * m))));
-        return Math.min(newSize, 600);
+    protected int computeTextSize(int count) {
+        return getGrowthSize(count);
     }
 
     @Override
-    public int getWordColor(Word word) {
+    protected int computeWordColor(int count) {
         // Change color every occurrence
-        int index = Math.max(word.getCount() % accentColors.length, 0);
-        return WordCloud.context.getResources().getColor(accentColors[index]);
+        int index = Math.max(count % accentColors.length, 0);
+        return resolvedColors[index];
     }
 
     @Override
-    public boolean shouldShow(Word word) {
+    protected boolean shouldShow(int count) {
         // Show all words greater than 1
-        return word.getCount() >= 1;
+        return count >= 1;
     }
 
     @Override
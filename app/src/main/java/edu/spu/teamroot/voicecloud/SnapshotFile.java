@@ -0,0 +1,298 @@
+package edu.spu.teamroot.voicecloud;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+// Compact binary file format for cloud snapshots, used to restore the cloud locally.
+//
+// Format (big-endian ints, unsigned LEB128 varints, zigzag for signed values):
+//   int magic ('VCSN'), byte version, int length of the rest of the file
+//   varlong generation (version 2 on; the SessionJournal checkpoint this snapshot starts)
+//   varint width, height; varlong timestamp; string cloudid (empty if none)
+//   varint groupCount, then per group: zigzag id, centerX, centerY, left, top; varint width, height
+//   varint wordCount, then the string table: per word, varint byte length and UTF-8 name
+//   per word: varint count, zigzag timestamp - cloud timestamp, zigzag group + 1,
+//             zigzag left and top as deltas from the previous word, varint width, height
+//
+// Files are written to a temporary file and renamed, so a crash never leaves a partial snapshot.
+public class SnapshotFile {
+    /*
+     * Static members
+     */
+
+    private static final int MAGIC = 0x5643534E; // 'VCSN'
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 9;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /*
+     * Static methods
+     */
+
+    // Writes a snapshot atomically, replacing the file.
+    public static void write(CloudSnapshot snapshot, File file) throws IOException {
+        write(snapshot, snapshot.generation, file);
+    }
+
+    // Writes a snapshot as the checkpoint of a journal generation, without changing the snapshot.
+    public static void write(CloudSnapshot snapshot, long generation, File file) throws IOException {
+        Encoder body = new Encoder(64 + snapshot.wordCount * 24);
+
+        body.writeVarlong(generation);
+        body.writeVarint(snapshot.width);
+        body.writeVarint(snapshot.height);
+        body.writeVarlong(snapshot.timestamp);
+        body.writeString(snapshot.cloudId != null ? snapshot.cloudId : "");
+
+        body.writeVarint(snapshot.groupCount);
+
+        for (int i = 0; i < snapshot.groupCount; i++) {
+            body.writeSigned(snapshot.groupIds[i]);
+            body.writeSigned(snapshot.groupCenterX[i]);
+            body.writeSigned(snapshot.groupCenterY[i]);
+            body.writeSigned(snapshot.groupLeft[i]);
+            body.writeSigned(snapshot.groupTop[i]);
+            body.writeVarint(snapshot.groupRight[i] - snapshot.groupLeft[i]);
+            body.writeVarint(snapshot.groupBottom[i] - snapshot.groupTop[i]);
+        }
+
+        body.writeVarint(snapshot.wordCount);
+
+        // String table first, so names are read in one run
+        for (int i = 0; i < snapshot.wordCount; i++) {
+            body.writeString(snapshot.names[i]);
+        }
+
+        int lastLeft = 0;
+        int lastTop = 0;
+
+        for (int i = 0; i < snapshot.wordCount; i++) {
+            body.writeVarint(snapshot.counts[i]);
+            body.writeSignedLong(snapshot.timestamps[i] - snapshot.timestamp);
+            body.writeSigned(snapshot.wordGroups[i] + 1);
+            body.writeSigned(snapshot.left[i] - lastLeft);
+            body.writeSigned(snapshot.top[i] - lastTop);
+            body.writeVarint(snapshot.right[i] - snapshot.left[i]);
+            body.writeVarint(snapshot.bottom[i] - snapshot.top[i]);
+
+            lastLeft = snapshot.left[i];
+            lastTop = snapshot.top[i];
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(temp);
+
+        try {
+            OutputStream out = new BufferedOutputStream(fileOut);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).put((byte) VERSION).putInt(body.size());
+
+            out.write(header.array());
+            out.write(body.array(), 0, body.size());
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            fileOut.close();
+        }
+
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Cannot replace " + file);
+        }
+
+        Log.d("SnapshotFile", "Wrote " + snapshot.wordCount + " words (" + (HEADER_SIZE + body.size()) + " bytes)");
+    }
+
+    // Reads a snapshot in one pass over the memory-mapped file.
+    public static CloudSnapshot read(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        ByteBuffer buffer;
+
+        try {
+            buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        } finally {
+            in.close();
+        }
+
+        return read(buffer);
+    }
+
+    // Reads a snapshot from a buffer positioned at its start.
+    // Any damage to the file is reported as an IOException, never as a runtime exception.
+    public static CloudSnapshot read(ByteBuffer buffer) throws IOException {
+        try {
+            return decode(buffer);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated snapshot");
+        } catch (RuntimeException e) {
+            throw new IOException("Damaged snapshot", e);
+        }
+    }
+
+    private static CloudSnapshot decode(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a snapshot");
+        }
+
+        int version = buffer.get();
+
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported snapshot version");
+        }
+
+        int length = buffer.getInt();
+
+        if (length != buffer.remaining()) {
+            throw new IOException("Truncated snapshot");
+        }
+
+        long generation = (version >= 2) ? Varints.readVarlong(buffer) : 0;
+        int width = Varints.readVarint(buffer);
+        int height = Varints.readVarint(buffer);
+        long timestamp = Varints.readVarlong(buffer);
+        byte[] scratch = new byte[64];
+        String cloudId = readString(buffer, scratch);
+
+        int groupCount = readCount(buffer, 7); // 7 varints per group
+        CloudSnapshot snapshot = new CloudSnapshot(groupCount, 0);
+
+        snapshot.generation = generation;
+        snapshot.width = width;
+        snapshot.height = height;
+        snapshot.timestamp = timestamp;
+        snapshot.cloudId = (cloudId.length() > 0) ? cloudId : null;
+
+        for (int i = 0; i < groupCount; i++) {
+            snapshot.groupIds[i] = Varints.readSigned(buffer);
+            snapshot.groupCenterX[i] = Varints.readSigned(buffer);
+            snapshot.groupCenterY[i] = Varints.readSigned(buffer);
+            snapshot.groupLeft[i] = Varints.readSigned(buffer);
+            snapshot.groupTop[i] = Varints.readSigned(buffer);
+            snapshot.groupRight[i] = snapshot.groupLeft[i] + Varints.readVarint(buffer);
+            snapshot.groupBottom[i] = snapshot.groupTop[i] + Varints.readVarint(buffer);
+        }
+
+        int wordCount = readCount(buffer, 8); // A name length, then 7 varints per word
+        snapshot.ensureWordCapacity(wordCount);
+        snapshot.wordCount = wordCount;
+
+        for (int i = 0; i < wordCount; i++) {
+            int size = readCount(buffer, 1);
+            if (size > scratch.length) scratch = new byte[Math.max(size, scratch.length * 2)];
+
+            buffer.get(scratch, 0, size);
+            snapshot.names[i] = new String(scratch, 0, size, UTF8);
+        }
+
+        int lastLeft = 0;
+        int lastTop = 0;
+
+        for (int i = 0; i < wordCount; i++) {
+            snapshot.counts[i] = Varints.readVarint(buffer);
+            snapshot.timestamps[i] = timestamp + Varints.readSignedLong(buffer);
+            snapshot.wordGroups[i] = Varints.readSigned(buffer) - 1;
+            snapshot.left[i] = lastLeft + Varints.readSigned(buffer);
+            snapshot.top[i] = lastTop + Varints.readSigned(buffer);
+            snapshot.right[i] = snapshot.left[i] + Varints.readVarint(buffer);
+            snapshot.bottom[i] = snapshot.top[i] + Varints.readVarint(buffer);
+
+            lastLeft = snapshot.left[i];
+            lastTop = snapshot.top[i];
+        }
+
+        if (buffer.hasRemaining()) {
+            throw new IOException("Trailing data in snapshot");
+        }
+
+        return snapshot;
+    }
+
+    /*
+     * Decoding helpers
+     */
+
+    // Reads a count of items that take at least minBytes each, checked against the bytes left,
+    // so a damaged count fails here instead of as a huge allocation.
+    private static int readCount(ByteBuffer buffer, int minBytes) throws IOException {
+        long count = Varints.readVarlong(buffer);
+
+        if (count < 0 || count > buffer.remaining() / minBytes) {
+            throw new IOException("Damaged snapshot: bad count " + count);
+        }
+
+        return (int) count;
+    }
+
+    private static String readString(ByteBuffer buffer, byte[] scratch) throws IOException {
+        int size = readCount(buffer, 1);
+        byte[] bytes = (size <= scratch.length) ? scratch : new byte[size];
+
+        buffer.get(bytes, 0, size);
+        return new String(bytes, 0, size, UTF8);
+    }
+
+    // Growable byte buffer with varint writers.
+    private static class Encoder {
+        ByteBuffer buffer;
+
+        Encoder(int capacity) {
+            buffer = ByteBuffer.allocate(Math.max(capacity, 16));
+        }
+
+        int size() {
+            return buffer.position();
+        }
+
+        byte[] array() {
+            return buffer.array();
+        }
+
+        void ensure(int extra) {
+            if (extra > buffer.remaining()) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + extra));
+                buffer.flip();
+                grown.put(buffer);
+                buffer = grown;
+            }
+        }
+
+        void writeVarint(int value) {
+            ensure(5);
+            Varints.writeVarint(buffer, value);
+        }
+
+        void writeVarlong(long value) {
+            ensure(10);
+            Varints.writeVarlong(buffer, value);
+        }
+
+        void writeSigned(int value) {
+            ensure(5);
+            Varints.writeSigned(buffer, value);
+        }
+
+        void writeSignedLong(long value) {
+            ensure(10);
+            Varints.writeSignedLong(buffer, value);
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(UTF8);
+
+            writeVarint(bytes.length);
+            ensure(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+}
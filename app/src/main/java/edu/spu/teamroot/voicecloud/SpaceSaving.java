@@ -0,0 +1,152 @@
+package edu.spu.teamroot.voicecloud;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Space-Saving heavy hitters summary (Metwally et al.).
+// Tracks at most `capacity` keys; when full, a new key replaces the key with the smallest count
+// and inherits that count as its overestimation error. Counts are kept in a min-heap.
+public class SpaceSaving {
+    private final int capacity;
+
+    // Min-heap ordered by count
+    private String[] keys;
+    private int[] counts;
+    private int[] errors;
+    private int size;
+
+    private Map<String, Integer> index; // Key to heap position
+
+    public SpaceSaving(int capacity) {
+        this.capacity = capacity;
+
+        keys = new String[capacity];
+        counts = new int[capacity];
+        errors = new int[capacity];
+        size = 0;
+
+        index = new HashMap<>(capacity * 2);
+    }
+
+    /*
+     * Methods
+     */
+
+    // Adds delta occurrences of a key. Negative deltas only apply to keys already tracked.
+    public void add(String key, int delta) {
+        Integer pos = index.get(key);
+
+        if (pos != null) {
+            int i = pos;
+            counts[i] = Math.max(counts[i] + delta, 0);
+
+            if (delta > 0) {
+                siftDown(i);
+            } else {
+                siftUp(i);
+            }
+        } else if (delta > 0) {
+            if (size < capacity) {
+                // Room left; insert at the bottom of the heap
+                int i = size++;
+                keys[i] = key;
+                counts[i] = delta;
+                errors[i] = 0;
+                index.put(key, i);
+                siftUp(i);
+            } else {
+                // Replace the minimum, which overestimates the new key by its count
+                index.remove(keys[0]);
+
+                int min = counts[0];
+                keys[0] = key;
+                counts[0] = min + delta;
+                errors[0] = min;
+                index.put(key, 0);
+                siftDown(0);
+            }
+        }
+    }
+
+    // Returns the estimated count of a key, or 0 if it is not tracked.
+    public int getCount(String key) {
+        Integer pos = index.get(key);
+        return (pos != null) ? counts[pos] : 0;
+    }
+
+    // Returns the number of tracked keys.
+    public int size() {
+        return size;
+    }
+
+    // Returns the tracked key at position i (0 <= i < size).
+    public String keyAt(int i) {
+        return keys[i];
+    }
+
+    // Returns the estimated count at position i (0 <= i < size).
+    public int countAt(int i) {
+        return counts[i];
+    }
+
+    // Returns the maximum overestimation of the count at position i.
+    public int errorAt(int i) {
+        return errors[i];
+    }
+
+    // Removes all keys.
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            keys[i] = null;
+        }
+
+        size = 0;
+        index.clear();
+    }
+
+    /*
+     * Heap helpers
+     */
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (counts[parent] <= counts[i]) break;
+
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int left = 2 * i + 1;
+            int right = left + 1;
+            int smallest = i;
+
+            if (left < size && counts[left] < counts[smallest]) smallest = left;
+            if (right < size && counts[right] < counts[smallest]) smallest = right;
+            if (smallest == i) break;
+
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        String key = keys[a];
+        keys[a] = keys[b];
+        keys[b] = key;
+
+        int count = counts[a];
+        counts[a] = counts[b];
+        counts[b] = count;
+
+        int error = errors[a];
+        errors[a] = errors[b];
+        errors[b] = error;
+
+        index.put(keys[a], a);
+        index.put(keys[b], b);
+    }
+}
@@ -0,0 +1,90 @@
+package edu.spu.teamroot.voicecloud;
+
+import android.graphics.RectF;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+// Writes a cloud snapshot as SVG from the model, one group element per word.
+// Output is streamed, so its size (and the time taken) grows linearly with the word count.
+public class SvgExporter {
+    private static final int BUFFER_SIZE = 8192;
+
+    // Writes the words within bounds (dp) as SVG, one user unit per dp. The stream is flushed, not closed.
+    public static void export(CloudSnapshot snapshot, RectF bounds, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), BUFFER_SIZE);
+        export(snapshot, bounds, writer);
+        writer.flush();
+    }
+
+    // Writes the words within bounds (dp) as SVG to a writer. The writer is flushed, not closed.
+    public static void export(CloudSnapshot snapshot, RectF bounds, Writer out) throws IOException {
+        float width = bounds.width();
+        float height = bounds.height();
+
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        out.write("<svg xmlns=\"http://www.w3.org/2000/svg\" version=\"1.1\"");
+        out.write(" width=\"" + number(width) + "\" height=\"" + number(height) + "\"");
+        out.write(" viewBox=\"" + number(bounds.left) + " " + number(bounds.top) + " " + number(width) + " " + number(height) + "\">\n");
+
+        out.write("<rect x=\"" + number(bounds.left) + "\" y=\"" + number(bounds.top) + "\" width=\"" + number(width) + "\" height=\"" + number(height) + "\" fill=\"#ffffff\"/>\n");
+
+        // Shared text style
+        out.write("<g font-family=\"sans-serif\" font-weight=\"bold\" text-anchor=\"middle\" fill=\"#ffffff\">\n");
+
+        for (int i = 0; i < snapshot.wordCount; i++) {
+            if (!snapshot.isDrawn(i)) continue;
+
+            float left = snapshot.left[i] + PngExporter.INSET_X;
+            float top = snapshot.top[i] + PngExporter.INSET_Y;
+            float right = snapshot.right[i] - PngExporter.INSET_X;
+            float bottom = snapshot.bottom[i] - PngExporter.INSET_Y;
+
+            out.write("<rect x=\"" + number(left) + "\" y=\"" + number(top));
+            out.write("\" width=\"" + number(right - left) + "\" height=\"" + number(bottom - top));
+            out.write("\" rx=\"" + number(PngExporter.CORNER_RADIUS) + "\" fill=\"" + color(snapshot.colors[i]) + "\"/>");
+
+            // Baseline a third of the text size below the center roughly centers capitals
+            out.write("<text x=\"" + number((left + right) / 2) + "\" y=\"" + number((top + bottom) / 2 + snapshot.sizes[i] / 3f));
+            out.write("\" font-size=\"" + snapshot.sizes[i] + "\">");
+            writeEscaped(out, snapshot.names[i].toUpperCase());
+            out.write("</text>\n");
+        }
+
+        out.write("</g>\n");
+        out.write("</svg>\n");
+        out.flush();
+    }
+
+    // Formats a coordinate with at most one decimal place.
+    private static String number(float value) {
+        int tenths = Math.round(value * 10);
+        return (tenths % 10 == 0) ? Integer.toString(tenths / 10) : Float.toString(tenths / 10f);
+    }
+
+    // Formats an ARGB color as #rrggbb.
+    private static String color(int argb) {
+        String hex = Integer.toHexString((argb & 0xFFFFFF) | 0x1000000);
+        return "#" + hex.substring(1);
+    }
+
+    // Writes text with XML special characters escaped.
+    private static void writeEscaped(Writer out, String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+
+            switch (c) {
+                case '<': out.write("&lt;"); break;
+                case '>': out.write("&gt;"); break;
+                case '&': out.write("&amp;"); break;
+                case '"': out.write("&quot;"); break;
+                default:
+                    // Control characters are not allowed in XML
+                    if (c >= 0x20 || c == '\t') out.write(c);
+            }
+        }
+    }
+}
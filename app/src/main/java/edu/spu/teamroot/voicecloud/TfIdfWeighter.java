@@ -0,0 +1,81 @@
+package edu.spu.teamroot.voicecloud;
+
+import java.util.Arrays;
+
+// Weights words by count times inverse document frequency, using a background English frequency table.
+// Common words are scaled down (and the most common hidden), so distinctive words stand out
+// without a long exclusion list.
+public class TfIdfWeighter extends PerWordWeighter {
+    private static final float STOPWORD_RATIO = 0.3f; // Hide words whose relative IDF is below this
+
+    private static final int MIN_SIZE = 10;
+
+    private final FrequencyTable table;
+    private final double maxIdf;
+
+    // Per word ID cache of relative IDF (0..1); a table lookup happens once per word
+    private float[] idfRatios;
+
+    public TfIdfWeighter() {
+        table = FrequencyTable.openAsset(WordCloud.context);
+        maxIdf = (table != null) ? Math.log(table.getTotal()) : 1.0;
+
+        idfRatios = new float[getCapacity()];
+    }
+
+    /*
+     * Methods
+     */
+
+    @Override
+    protected void onGrow(int capacity) {
+        idfRatios = Arrays.copyOf(idfRatios, capacity);
+    }
+
+    @Override
+    protected void onClaim(int id, Word word) {
+        if (table == null) {
+            idfRatios[id] = 1.0f; // No table; plain term frequency
+        } else {
+            double idf = Math.log((double) table.getTotal() / (table.getFrequency(word.getName()) + 1));
+            idfRatios[id] = (float) Math.max(Math.min(idf / maxIdf, 1.0), 0.0);
+        }
+    }
+
+    // Returns the IDF of the word relative to an unseen word, from 0 (very common) to 1 (rare).
+    public float getIdfRatio(Word word) {
+        int id = claim(word);
+        return (id >= 0) ? idfRatios[id] : 1.0f;
+    }
+
+    // Returns the TF-IDF score of the word, in occurrences of a rare word.
+    public double getScore(Word word) {
+        return word.getCount() * getIdfRatio(word);
+    }
+
+    /*
+     * WordWeighter
+     */
+
+    @Override
+    public int getTextSize(Word word) {
+        double score = Math.max(getScore(word), 0.5);
+
+        return Math.max(SimpleWeighter.getGrowthSize(score), MIN_SIZE);
+    }
+
+    @Override
+    public int getWordColor(Word word) {
+        return getScoreColor(getScore(word));
+    }
+
+    @Override
+    public boolean shouldShow(Word word) {
+        return word.getCount() >= 1 && getIdfRatio(word) >= STOPWORD_RATIO;
+    }
+
+    @Override
+    public boolean refreshAll(Word word) {
+        return false;
+    }
+}
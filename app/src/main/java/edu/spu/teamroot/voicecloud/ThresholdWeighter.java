@@ -0,0 +1,8 @@
+package edu.spu.teamroot.voicecloud;
+
+public interface ThresholdWeighter {
+    // Returns the lowest count shown. Words are shown exactly when their count is at least this,
+    // and their size and color depend on their count alone, so a new threshold only changes
+    // which words between the old and new one are shown.
+    int getMinCount();
+}
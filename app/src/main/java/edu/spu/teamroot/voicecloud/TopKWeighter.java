@@ -0,0 +1,264 @@
+package edu.spu.teamroot.voicecloud;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+// Shows the top K words over a sliding time window (e.g. the last 5 minutes).
+// The window is split into time buckets, each holding a bounded Space-Saving summary,
+// so memory and CPU stay bounded no matter how long the session runs.
+public class TopKWeighter extends PerWordWeighter {
+    private static final long DEFAULT_WINDOW = 5 * 60 * 1000; // 5 minutes
+    private static final int DEFAULT_K = 40;
+
+    private static final int BUCKETS = 10; // Window resolution
+    private static final int BUCKET_CAPACITY_FACTOR = 4; // Keys tracked per bucket, as a multiple of K
+
+    private final int k;
+    private final long bucketLength;
+
+    // Ring of time buckets; current is the newest
+    private final SpaceSaving[] buckets;
+    private int current;
+    private long currentStart;
+
+    // Top K words in the window, and the smallest window count among them
+    private Set<String> topWords;
+    private int cutoff;
+    private boolean dirty;
+    private boolean refreshAll;
+
+    // Per word ID state
+    private int[] lastCounts;
+
+    private Handler tickHandler;
+    private boolean tickScheduled;
+
+    private final Runnable tickTask = new Runnable() {
+        @Override
+        public void run() {
+            tickScheduled = false;
+            tick();
+        }
+    };
+
+    public TopKWeighter() {
+        this(DEFAULT_WINDOW, DEFAULT_K);
+    }
+
+    public TopKWeighter(long window, int k) {
+        this.k = k;
+        this.bucketLength = Math.max(window / BUCKETS, 1);
+
+        buckets = new SpaceSaving[BUCKETS];
+
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new SpaceSaving(k * BUCKET_CAPACITY_FACTOR);
+        }
+
+        current = 0;
+        currentStart = System.currentTimeMillis();
+
+        topWords = new HashSet<>();
+        cutoff = 1;
+        dirty = false;
+
+        lastCounts = new int[getCapacity()];
+
+        tickHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /*
+     * Window helpers
+     */
+
+    // Rotates buckets that have fallen out of the window. Returns true if any were dropped.
+    private boolean advance(long now) {
+        boolean rotated = false;
+        int steps = 0;
+
+        while (now - currentStart >= bucketLength) {
+            if (steps++ >= BUCKETS) {
+                // Idle for longer than the window; start over from now
+                currentStart = now;
+                break;
+            }
+
+            current = (current + 1) % BUCKETS;
+            buckets[current].clear(); // Oldest bucket becomes the newest
+            currentStart += bucketLength;
+            rotated = true;
+        }
+
+        if (rotated) {
+            dirty = true;
+        }
+
+        return rotated;
+    }
+
+    // Returns the estimated count of a word across the whole window.
+    private int windowCount(String name) {
+        int total = 0;
+
+        for (SpaceSaving bucket : buckets) {
+            total += bucket.getCount(name);
+        }
+
+        return total;
+    }
+
+    // Recomputes the top K words from the buckets. Cost is bounded by BUCKETS * k * BUCKET_CAPACITY_FACTOR.
+    private void recompute() {
+        Map<String, Integer> totals = new HashMap<>();
+
+        for (SpaceSaving bucket : buckets) {
+            for (int i = 0; i < bucket.size(); i++) {
+                String key = bucket.keyAt(i);
+                Integer total = totals.get(key);
+                totals.put(key, (total != null ? total : 0) + bucket.countAt(i));
+            }
+        }
+
+        // Keep the k largest with a min-heap
+        PriorityQueue<Map.Entry<String, Integer>> heap = new PriorityQueue<>(k + 1, new Comparator<Map.Entry<String, Integer>>() {
+            @Override
+            public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
+                return a.getValue() - b.getValue();
+            }
+        });
+
+        for (Map.Entry<String, Integer> entry : totals.entrySet()) {
+            if (entry.getValue() <= 0) continue;
+
+            heap.add(entry);
+            if (heap.size() > k) heap.poll();
+        }
+
+        Set<String> newTop = new HashSet<>();
+        cutoff = (heap.size() >= k) ? heap.peek().getValue() : 1;
+
+        for (Map.Entry<String, Integer> entry : heap) {
+            newTop.add(entry.getKey());
+        }
+
+        if (!newTop.equals(topWords)) {
+            topWords = newTop;
+            refreshAll = true;
+        }
+
+        dirty = false;
+    }
+
+    @Override
+    protected void onGrow(int capacity) {
+        lastCounts = Arrays.copyOf(lastCounts, capacity);
+    }
+
+    @Override
+    protected void onClaim(int id, Word word) {
+        lastCounts[id] = 0;
+    }
+
+    // Records any count change of the word since it was last seen.
+    private void update(Word word) {
+        int id = claim(word);
+        if (id < 0) return;
+
+        int delta = word.getCount() - lastCounts[id];
+        long now = System.currentTimeMillis();
+
+        advance(now);
+
+        if (delta != 0) {
+            String name = word.getName();
+            buckets[current].add(name, delta);
+            lastCounts[id] = word.getCount();
+
+            // Membership can only change if an outsider passes the cutoff, or a member drops
+            boolean isTop = topWords.contains(name);
+
+            if ((!isTop && windowCount(name) >= cutoff) || (isTop && delta < 0)) {
+                dirty = true;
+            }
+
+            scheduleTick();
+        }
+
+        if (dirty) {
+            recompute();
+        }
+    }
+
+    /*
+     * Tick
+     */
+
+    // Schedules a tick at the next bucket boundary, if one is not already pending.
+    private void scheduleTick() {
+        if (tickScheduled) return;
+
+        tickScheduled = true;
+        tickHandler.postDelayed(tickTask, currentStart + bucketLength - System.currentTimeMillis());
+    }
+
+    // Expires old buckets, and re-evaluates the cloud if the top words changed.
+    private void tick() {
+        WordCloud cloud = WordCloud.getInstance();
+
+        if (cloud == null || cloud.weighter != this) {
+            return; // No longer the active weighter
+        }
+
+        if (advance(System.currentTimeMillis())) {
+            recompute();
+
+            if (refreshAll) {
+                refreshAll = false;
+                cloud.evaluateAllWords();
+            }
+        }
+
+        if (!topWords.isEmpty()) {
+            scheduleTick();
+        }
+    }
+
+    /*
+     * WordWeighter
+     */
+
+    @Override
+    public int getTextSize(Word word) {
+        update(word);
+
+        int count = Math.max(windowCount(word.getName()), 1);
+
+        return SimpleWeighter.getGrowthSize(count);
+    }
+
+    @Override
+    public int getWordColor(Word word) {
+        return getScoreColor(windowCount(word.getName()));
+    }
+
+    @Override
+    public boolean shouldShow(Word word) {
+        update(word);
+        return word.getCount() >= 1 && topWords.contains(word.getName());
+    }
+
+    @Override
+    public boolean refreshAll(Word word) {
+        boolean refresh = refreshAll;
+        refreshAll = false;
+        return refresh;
+    }
+}
@@ -429,6 +429,7 @@ public class TwoDScrollView extends FrameLayout {
        */
                 if (!mScroller.isFinished()) {
                     mScroller.abortAnimation();
+                    updateGesture();
                 }
 
                 // Remember where the motion event started
@@ -900,6 +901,8 @@ public class TwoDScrollView extends FrameLayout {
             // Keep on drawing until the animation has finished.
             postInvalidate();
         }
+
+        updateGesture(); // A fling may have finished
     }
 
     /**
@@ -1128,6 +1131,7 @@ public class TwoDScrollView extends FrameLayout {
 
             awakenScrollBars(mScroller.getDuration());
             invalidate();
+            updateGesture();
         }
     }
 
@@ -1227,10 +1231,28 @@ public class TwoDScrollView extends FrameLayout {
 
     private Point mScreenSize = new Point();
 
+    private OnScaleChangeListener mScaleChangeListener;
+
+    private boolean mInGesture = false; // Zooming or flinging; the child is drawn from a layer
+    private OnGestureListener mGestureListener;
+
+    // Told when a zoom or fling starts and ends, e.g. to hold back changes to the child meanwhile.
+    public interface OnGestureListener {
+        void onGestureStart();
+
+        void onGestureEnd();
+    }
+
+    // Receives the scale factor whenever it changes, e.g. to adjust the level of detail.
+    public interface OnScaleChangeListener {
+        void onScaleChanged(float scaleFactor);
+    }
+
     private final ScaleGestureDetector.OnScaleGestureListener mScaleGestureListener = new ScaleGestureDetector.SimpleOnScaleGestureListener() {
         @Override
         public boolean onScaleBegin(ScaleGestureDetector detector) {
             mIsZooming = true;
+            updateGesture();
 
             View child = TwoDScrollView.this.getChildAt(0);
 
@@ -1268,6 +1290,10 @@ public class TwoDScrollView extends FrameLayout {
             child.setScaleX(mScaleFactor);
             child.setScaleY(mScaleFactor);
 
+            if (mScaleChangeListener != null) {
+                mScaleChangeListener.onScaleChanged(mScaleFactor);
+            }
+
             invalidate();
             return true;
         }
@@ -1275,6 +1301,7 @@ public class TwoDScrollView extends FrameLayout {
         @Override
         public void onScaleEnd(ScaleGestureDetector detector) {
             mIsZooming = false;
+            updateGesture();
             super.onScaleEnd(detector);
         }
     };
@@ -1301,5 +1328,44 @@ public class TwoDScrollView extends FrameLayout {
         View child = TwoDScrollView.this.getChildAt(0);
         child.setScaleX(mScaleFactor);
         child.setScaleY(mScaleFactor);
+
+        if (mScaleChangeListener != null) {
+            mScaleChangeListener.onScaleChanged(mScaleFactor);
+        }
+    }
+
+    // Sets the listener told when zooms and flings start and end.
+    public void setOnGestureListener(OnGestureListener listener) {
+        mGestureListener = listener;
+    }
+
+    // Starts or ends a gesture as zooming and flinging start and stop. During a gesture, the child
+    // is drawn from a hardware layer, so zooming and scrolling only transform the cached drawing;
+    // after it, the layer is dropped and the child is drawn in full again.
+    private void updateGesture() {
+        boolean inGesture = mIsZooming || !mScroller.isFinished();
+        if (inGesture == mInGesture) return;
+
+        mInGesture = inGesture;
+
+        View child = getChildAt(0);
+
+        if (child != null && isHardwareAccelerated()) {
+            // Without hardware acceleration this would be a software layer; too big to be worth it
+            child.setLayerType(inGesture ? View.LAYER_TYPE_HARDWARE : View.LAYER_TYPE_NONE, null);
+        }
+
+        if (mGestureListener != null) {
+            if (inGesture) {
+                mGestureListener.onGestureStart();
+            } else {
+                mGestureListener.onGestureEnd();
+            }
+        }
+    }
+
+    // Sets the listener told of scale changes.
+    public void setOnScaleChangeListener(OnScaleChangeListener listener) {
+        mScaleChangeListener = listener;
     }
 }
\ No newline at end of file
@@ -0,0 +1,513 @@
+package edu.spu.teamroot.voicecloud;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// A durable queue of cloud uploads that failed, retried in the background with exponential backoff.
+// Each cloud has one entry on disk (<key>.json and <key>.meta), so a newer snapshot replaces an older one.
+// Uploads the server rejects, or that fail MAX_ATTEMPTS times, are parked as <key>.rejected and not retried.
+// Parked uploads are kept for REJECTED_LIFETIME, and at most MAX_REJECTED of them.
+public class UploadOutbox {
+    /*
+     * Static members
+     */
+
+    private static UploadOutbox instance;
+
+    public static final String DIRECTORY = "outbox";
+
+    private static final long DEFAULT_BASE_DELAY = 5000; // First retry, in ms
+    private static final long MAX_DELAY = 10 * 60 * 1000; // Longest wait between retries
+    private static final int MAX_UPLOADS = 2; // Concurrent uploads
+    private static final int MAX_ATTEMPTS = 30; // Failed uploads before giving up (several hours of retries)
+
+    public static final String REJECTED_SUFFIX = ".rejected";
+    private static final int MAX_REJECTED = 10; // Newest parked uploads kept
+    private static final long REJECTED_LIFETIME = 7 * 24 * 60 * 60 * 1000L; // Time a parked upload is kept
+
+    // Receives notice of queued clouds reaching the server, on the main thread.
+    public interface Listener {
+        void onUploaded(String key, String cloudid);
+    }
+
+    /*
+     * Static methods
+     */
+
+    // Creates a static instance of the class, and resumes any uploads left from earlier runs.
+    public static UploadOutbox createInstance(Context context) {
+        Log.d("UploadOutbox", "createInstance(" + context + ")");
+
+        if (instance == null) {
+            Context appContext = context.getApplicationContext();
+            instance = new UploadOutbox(appContext, new File(appContext.getFilesDir(), DIRECTORY), CloudSync.getBaseURL(), DEFAULT_BASE_DELAY);
+        }
+
+        return instance;
+    }
+
+    // Returns a static instance of the class.
+    public static UploadOutbox getInstance() {
+        return instance;
+    }
+
+    // Deletes a static instance of the class. Queued uploads stay on disk for the next run.
+    public static void deleteInstance() {
+        Log.d("UploadOutbox", "deleteInstance()");
+
+        if (instance != null) {
+            instance.shutdown();
+            instance = null;
+        }
+    }
+
+    /*
+     * Member variables
+     */
+
+    private final Context context;
+    private final File directory;
+    private final String baseURL;
+    private final long baseDelay;
+
+    // Owns the entries; all bookkeeping happens on this thread
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService uploader = Executors.newFixedThreadPool(MAX_UPLOADS);
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Random random = new Random();
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile Listener listener;
+
+    private final BroadcastReceiver connectivityReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (isOnline()) {
+                Log.d("UploadOutbox", "Back online; retrying uploads");
+                retryNow();
+            }
+        }
+    };
+
+    // A queued upload.
+    private static class Entry {
+        final String key;
+        int sequence; // Incremented when the snapshot is replaced
+        int attempts;
+        long nextAttempt;
+        boolean uploading;
+        ScheduledFuture<?> pending;
+
+        Entry(String key) {
+            this.key = key;
+        }
+    }
+
+    /*
+     * Constructors
+     */
+
+    UploadOutbox(Context context, File directory, String baseURL, long baseDelay) {
+        this.context = context;
+        this.directory = directory;
+        this.baseURL = baseURL;
+        this.baseDelay = baseDelay;
+
+        context.registerReceiver(connectivityReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                restore();
+            }
+        });
+    }
+
+    /*
+     * Methods
+     */
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    // Queues a snapshot for upload, replacing any queued snapshot with the same key.
+    public void enqueue(final String key, final CloudSnapshot snapshot) {
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                Entry entry = entries.get(key);
+
+                if (entry == null) {
+                    entry = new Entry(key);
+                    entries.put(key, entry);
+                }
+
+                try {
+                    writeSnapshot(key, snapshot);
+                } catch (IOException e) {
+                    Log.d("UploadOutbox", "Error queuing " + key);
+                    e.printStackTrace();
+                    return;
+                }
+
+                entry.sequence++;
+                entry.attempts = 0;
+                entry.nextAttempt = System.currentTimeMillis();
+                writeMeta(entry);
+
+                Log.d("UploadOutbox", "Queued " + key + " (" + entries.size() + " pending)");
+                schedule(entry);
+            }
+        });
+    }
+
+    // Retries every queued upload now, e.g. when the network comes back.
+    public void retryNow() {
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                long now = System.currentTimeMillis();
+
+                for (Entry entry : entries.values()) {
+                    entry.nextAttempt = now;
+                    schedule(entry);
+                }
+            }
+        });
+    }
+
+    // Returns the number of queued uploads. Blocks until pending queue operations finish.
+    public int getPendingCount() {
+        try {
+            return scheduler.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return entries.size();
+                }
+            }).get();
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    // Stops retrying. Queued uploads stay on disk.
+    public void shutdown() {
+        try {
+            context.unregisterReceiver(connectivityReceiver);
+        } catch (IllegalArgumentException e) {
+            // Not registered
+        }
+
+        scheduler.shutdownNow();
+        uploader.shutdownNow();
+    }
+
+    /*
+     * Scheduling (scheduler thread only)
+     */
+
+    // Schedules the next attempt of an entry, replacing any scheduled one.
+    private void schedule(final Entry entry) {
+        if (entry.uploading) return; // Rescheduled when the upload finishes
+
+        if (entry.pending != null) entry.pending.cancel(false);
+
+        long delay = Math.max(entry.nextAttempt - System.currentTimeMillis(), 0);
+
+        entry.pending = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                attempt(entry);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    // Starts uploading an entry on the uploader pool.
+    private void attempt(final Entry entry) {
+        entry.pending = null;
+
+        if (entry.uploading || entries.get(entry.key) != entry) return;
+
+        if (!isOnline()) {
+            // Wait for the connectivity broadcast, but check again eventually in case it is missed
+            Log.d("UploadOutbox", "Offline; waiting to upload " + entry.key);
+            entry.nextAttempt = System.currentTimeMillis() + MAX_DELAY;
+            schedule(entry);
+            return;
+        }
+
+        entry.uploading = true;
+
+        final int sequence = entry.sequence;
+        final File file = getSnapshotFile(entry.key);
+
+        uploader.execute(new Runnable() {
+            @Override
+            public void run() {
+                String cloudid = null;
+                boolean rejected = false;
+
+                try {
+                    cloudid = new JSONTransmitter(baseURL).saveFile(file, null);
+                } catch (HttpStatusException e) {
+                    Log.d("UploadOutbox", "Upload of " + entry.key + " failed: " + e);
+                    rejected = !e.isRetryable();
+                } catch (IOException e) {
+                    Log.d("UploadOutbox", "Upload of " + entry.key + " failed: " + e);
+                }
+
+                final String result = cloudid;
+                final boolean permanent = rejected;
+
+                try {
+                    scheduler.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            finish(entry, sequence, result, permanent);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // Shut down while uploading; the entry is still on disk
+                }
+            }
+        });
+    }
+
+    // Handles the outcome of an upload. cloudid is null if it failed; rejected if retrying cannot help.
+    private void finish(Entry entry, int sequence, final String cloudid, boolean rejected) {
+        entry.uploading = false;
+
+        if (cloudid != null && sequence == entry.sequence) {
+            // Delivered; forget it
+            entries.remove(entry.key);
+            getSnapshotFile(entry.key).delete();
+            getMetaFile(entry.key).delete();
+
+            Log.d("UploadOutbox", "Uploaded " + entry.key + " as " + cloudid + " (" + entries.size() + " pending)");
+
+            final String key = entry.key;
+
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Listener l = listener;
+                    if (l != null) l.onUploaded(key, cloudid);
+                }
+            });
+        } else if (cloudid != null || sequence != entry.sequence) {
+            // Replaced by a newer snapshot while uploading; send that one now
+            entry.nextAttempt = System.currentTimeMillis();
+            schedule(entry);
+        } else if (rejected || entry.attempts + 1 >= MAX_ATTEMPTS) {
+            park(entry);
+        } else {
+            entry.attempts++;
+            entry.nextAttempt = System.currentTimeMillis() + getBackoff(entry.attempts);
+            writeMeta(entry);
+            schedule(entry);
+        }
+    }
+
+    // Stops retrying an entry, keeping its snapshot as <key>.rejected (replacing any older one).
+    private void park(Entry entry) {
+        entries.remove(entry.key);
+
+        File rejected = getRejectedFile(entry.key);
+        rejected.delete();
+
+        if (getSnapshotFile(entry.key).renameTo(rejected)) {
+            rejected.setLastModified(System.currentTimeMillis()); // Its lifetime starts now
+        } else {
+            getSnapshotFile(entry.key).delete();
+        }
+
+        getMetaFile(entry.key).delete();
+
+        Log.d("UploadOutbox", "Gave up on " + entry.key + " after " + (entry.attempts + 1) + " attempts (" + entries.size() + " pending)");
+        pruneRejected();
+    }
+
+    // Deletes parked uploads older than REJECTED_LIFETIME, and all but the newest MAX_REJECTED.
+    private void pruneRejected() {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+
+        List<File> kept = new ArrayList<>();
+        long expired = System.currentTimeMillis() - REJECTED_LIFETIME;
+
+        for (File file : files) {
+            if (!file.getName().endsWith(REJECTED_SUFFIX)) continue;
+
+            if (file.lastModified() < expired) {
+                file.delete();
+            } else {
+                kept.add(file);
+            }
+        }
+
+        if (kept.size() <= MAX_REJECTED) return;
+
+        // Newest first
+        Collections.sort(kept, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = b.lastModified() - a.lastModified();
+                return (diff > 0) ? 1 : (diff < 0) ? -1 : 0;
+            }
+        });
+
+        for (File file : kept.subList(MAX_REJECTED, kept.size())) {
+            file.delete();
+        }
+    }
+
+    // Returns the delay before the given retry: exponential, capped, with jitter so clients spread out.
+    private long getBackoff(int attempts) {
+        long delay = Math.min(baseDelay << Math.min(attempts - 1, 20), MAX_DELAY);
+        return delay / 2 + (long) (random.nextDouble() * (delay / 2));
+    }
+
+    // Loads entries left on disk by an earlier run.
+    private void restore() {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(".meta")) continue;
+
+            String key = name.substring(0, name.length() - ".meta".length());
+
+            if (!getSnapshotFile(key).exists()) {
+                file.delete();
+                continue;
+            }
+
+            Entry entry = readMeta(key);
+            entries.put(key, entry);
+            schedule(entry);
+        }
+
+        Log.d("UploadOutbox", "Restored " + entries.size() + " queued uploads");
+        pruneRejected();
+    }
+
+    /*
+     * Storage
+     */
+
+    private File getSnapshotFile(String key) {
+        return new File(directory, key + ".json");
+    }
+
+    private File getMetaFile(String key) {
+        return new File(directory, key + ".meta");
+    }
+
+    private File getRejectedFile(String key) {
+        return new File(directory, key + REJECTED_SUFFIX);
+    }
+
+    // Writes the snapshot JSON atomically, so a crash never leaves a partial upload.
+    private void writeSnapshot(String key, CloudSnapshot snapshot) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+
+        File temp = new File(directory, key + ".json.tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+
+        try {
+            CloudSerializer.write(snapshot, out);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        if (!temp.renameTo(getSnapshotFile(key))) {
+            throw new IOException("Cannot replace " + key);
+        }
+    }
+
+    // Writes the retry state of an entry.
+    private void writeMeta(Entry entry) {
+        Properties meta = new Properties();
+        meta.setProperty("attempts", Integer.toString(entry.attempts));
+        meta.setProperty("nextAttempt", Long.toString(entry.nextAttempt));
+
+        try {
+            OutputStream out = new FileOutputStream(getMetaFile(entry.key));
+
+            try {
+                meta.store(out, null);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Reads the retry state of an entry. Missing or damaged state means retry now.
+    private Entry readMeta(String key) {
+        Entry entry = new Entry(key);
+        entry.nextAttempt = System.currentTimeMillis();
+
+        try {
+            Properties meta = new Properties();
+            InputStream in = new FileInputStream(getMetaFile(key));
+
+            try {
+                meta.load(in);
+            } finally {
+                in.close();
+            }
+
+            entry.attempts = Integer.parseInt(meta.getProperty("attempts", "0"));
+            entry.nextAttempt = Long.parseLong(meta.getProperty("nextAttempt", Long.toString(entry.nextAttempt)));
+        } catch (IOException | NumberFormatException e) {
+            Log.d("UploadOutbox", "Damaged state for " + key);
+        }
+
+        return entry;
+    }
+
+    // Returns true if there is a network connection.
+    private boolean isOnline() {
+        ConnectivityManager manager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo info = manager.getActiveNetworkInfo();
+
+        return info != null && info.isConnected();
+    }
+}
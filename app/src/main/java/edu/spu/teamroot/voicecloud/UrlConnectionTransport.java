@@ -0,0 +1,170 @@
+package edu.spu.teamroot.voicecloud;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// HttpTransport on HttpURLConnection. Connections are kept alive and pooled by the platform,
+// as long as each response body is read to the end and closed.
+public class UrlConnectionTransport implements HttpTransport {
+    private static final int BUFFER_SIZE = 8192;
+
+    private int connectTimeout;
+    private int readTimeout;
+
+    public UrlConnectionTransport(int connectTimeout, int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+
+        // Keep-alive is the default, but older code may have turned it off for the process
+        System.setProperty("http.keepAlive", "true");
+    }
+
+    /*
+     * Methods
+     */
+
+    // Sets the connect and read timeouts, in ms.
+    public void setTimeouts(int connectTimeout, int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    public Call newCall(String url, String contentType, Body body, boolean gzip) {
+        return new UrlConnectionCall(url, contentType, body, gzip);
+    }
+
+    private class UrlConnectionCall implements Call {
+        private final String url;
+        private final String contentType;
+        private final Body body;
+        private final boolean gzip;
+
+        private volatile HttpURLConnection connection;
+        private volatile boolean cancelled;
+
+        private int status;
+        private long contentLength = -1;
+
+        UrlConnectionCall(String url, String contentType, Body body, boolean gzip) {
+            this.url = url;
+            this.contentType = contentType;
+            this.body = body;
+            this.gzip = gzip;
+        }
+
+        @Override
+        public InputStream execute() throws IOException {
+            if (cancelled) throw new IOException("Cancelled");
+
+            HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+            connection = conn;
+
+            conn.setConnectTimeout(connectTimeout);
+            conn.setReadTimeout(readTimeout);
+            conn.setRequestMethod("POST");
+            conn.setDoOutput(true);
+
+            // Stream the body instead of buffering it to count its length. Compressed lengths are never known up front.
+            long length = gzip ? -1 : body.getLength();
+
+            if (length >= 0 && length <= Integer.MAX_VALUE) {
+                conn.setFixedLengthStreamingMode((int) length); // The long overload needs API 19
+            } else {
+                conn.setChunkedStreamingMode(0);
+            }
+
+            // Set headers so server knows what we are sending
+            conn.setRequestProperty("Accept", "application/json");
+            conn.setRequestProperty("Content-Type", contentType);
+
+            // Asking for gzip explicitly turns off transparent decompression, so it is handled below
+            conn.setRequestProperty("Accept-Encoding", "gzip");
+
+            if (gzip) {
+                conn.setRequestProperty("Content-Encoding", "gzip");
+            }
+
+            try {
+                OutputStream out = new BufferedOutputStream(conn.getOutputStream(), BUFFER_SIZE);
+
+                if (gzip) {
+                    GZIPOutputStream gzipOut = new GZIPOutputStream(out, BUFFER_SIZE);
+                    body.writeTo(gzipOut);
+                    gzipOut.finish();
+                } else {
+                    body.writeTo(out);
+                }
+
+                out.close();
+
+                status = conn.getResponseCode();
+
+                if (status >= 400) {
+                    // Drain the error body so the connection can be reused
+                    InputStream error = conn.getErrorStream();
+                    if (error != null) drain(error);
+
+                    throw new HttpStatusException(status);
+                }
+
+                InputStream in = conn.getInputStream();
+
+                if ("gzip".equalsIgnoreCase(conn.getContentEncoding())) {
+                    return new GZIPInputStream(in, BUFFER_SIZE);
+                }
+
+                contentLength = conn.getContentLength();
+                return in;
+            } catch (IOException e) {
+                if (cancelled) throw new IOException("Cancelled");
+                throw e;
+            }
+        }
+
+        @Override
+        public int getStatus() {
+            return status;
+        }
+
+        @Override
+        public long getContentLength() {
+            return contentLength;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+
+            HttpURLConnection conn = connection;
+
+            if (conn != null) {
+                Log.d("UrlConnectionTransport", "Cancelling " + url);
+                conn.disconnect(); // Closes the socket; not returned to the pool
+            }
+        }
+    }
+
+    // Reads a stream to the end and closes it.
+    private static void drain(InputStream in) {
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+
+            while (in.read(buffer) >= 0) {
+                // Discard
+            }
+
+            in.close();
+        } catch (IOException e) {
+            // Connection will not be reused
+        }
+    }
+}
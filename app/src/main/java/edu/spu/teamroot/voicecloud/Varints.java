@@ -0,0 +1,67 @@
+package edu.spu.teamroot.voicecloud;
+
+import java.nio.ByteBuffer;
+
+// Unsigned LEB128 varints, and zigzag encoding for signed values, on byte buffers.
+// The encoding of SnapshotFile and SessionJournal.
+final class Varints {
+    private Varints() {
+    }
+
+    /*
+     * Writing
+     */
+
+    static void writeVarint(ByteBuffer buffer, int value) {
+        writeVarlong(buffer, value & 0xFFFFFFFFL);
+    }
+
+    static void writeVarlong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        buffer.put((byte) value);
+    }
+
+    static void writeSigned(ByteBuffer buffer, int value) {
+        writeVarint(buffer, (value << 1) ^ (value >> 31));
+    }
+
+    static void writeSignedLong(ByteBuffer buffer, long value) {
+        writeVarlong(buffer, (value << 1) ^ (value >> 63));
+    }
+
+    /*
+     * Reading
+     */
+
+    static int readVarint(ByteBuffer buffer) {
+        return (int) readVarlong(buffer);
+    }
+
+    static long readVarlong(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0 && shift < 64);
+
+        return value;
+    }
+
+    static int readSigned(ByteBuffer buffer) {
+        int value = readVarint(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static long readSignedLong(ByteBuffer buffer) {
+        long value = readVarlong(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -17,7 +17,6 @@ import android.view.animation.ScaleAnimation;
 import android.widget.AdapterView;
 import android.widget.Button;
 import android.widget.ListPopupWindow;
-import android.widget.RelativeLayout;
 import android.widget.SimpleAdapter;
 
 import java.util.ArrayList;
@@ -25,17 +24,22 @@ import java.util.HashMap;
 
 public class Word extends WordGroup {
     private String name;
-    private int count;
-    private long timestamp;
+
+    // Count, timestamp and bounds are kept in the cloud's columnar store
+    protected final WordStore store;
+    private int id;
 
     private AnimatorSet animatorSet;
 
     public Button button;
-    public RelativeLayout.LayoutParams layoutParams;
+    public WordCloudLayout.LayoutParams layoutParams;
 
     public Word(String name, int count) {
         super();
 
+        store = WordCloud.getInstance().store;
+        id = store.allocate(this, name);
+
         init(name, count);
         createButton();
     }
@@ -49,14 +53,15 @@ public class Word extends WordGroup {
         Log.d(name, "init(" + count + ")");
 
         this.name = name;
-        this.count = (count >= 0) ? count : 0;
-        this.timestamp = System.currentTimeMillis();
+        store.setCount(id, (count >= 0) ? count : 0);
+        store.timestamps[id] = System.currentTimeMillis();
+        store.firstSeen[id] = store.timestamps[id];
     }
 
     // Removes the word from the word list.
     // Also detaches from the view and removes from word tree.
     public void delete() {
-        Log.d(name, "delete(" + count + ")");
+        Log.d(name, "delete(" + getCount() + ")");
 
         if (isAttached()) {
             detachFromCloud();
@@ -69,47 +74,105 @@ public class Word extends WordGroup {
 
             destroyButton();
         }
+
+        // Free the ID for reuse
+        store.release(id);
+        id = -1;
     }
 
     // Creates the word button.
     private void createButton() {
-        Log.d(name, "createButton(" + count + ")");
+        Log.d(name, "createButton(" + getCount() + ")");
 
         if (!isCreated()) {
-            button = new Button(WordCloud.context);
-            button.setVisibility(View.INVISIBLE);
+            newButton();
+
+            // Set initial size (do not animate)
+            refreshSize(false);
+        }
+    }
+
+    // Creates the button view and its layout params, in the cloud's current context.
+    private void newButton() {
+        button = new Button(WordCloud.context);
+        button.setVisibility(View.INVISIBLE);
+        button.setTag(this); // For WordCloudLayout's level of detail
 
-            button.setText(name.toUpperCase());
-            button.setTextColor(WordCloud.context.getResources().getColor(android.R.color.white));
+        button.setText(name.toUpperCase());
+        button.setTextColor(WordCloud.context.getResources().getColor(android.R.color.white));
 
-            // If older than Lollipop, use custom button Drawable
-            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
-                button.setTypeface(null, Typeface.BOLD);
-                button.setBackground(WordCloud.context.getResources().getDrawable(R.drawable.word_drawable));
+        // If older than Lollipop, use custom button Drawable
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            button.setTypeface(null, Typeface.BOLD);
+            button.setBackground(WordCloud.context.getResources().getDrawable(R.drawable.word_drawable));
+        }
+
+        button.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                wordActions(Word.this);
             }
+        });
 
-            setColor(WordCloud.getInstance().weighter.getWordColor(this));
+        // Create layoutParams (not used until word attached)
+        layoutParams = new WordCloudLayout.LayoutParams(WordCloudLayout.LayoutParams.WRAP_CONTENT, WordCloudLayout.LayoutParams.WRAP_CONTENT);
+        layoutParams.topMargin = 0;
+        layoutParams.leftMargin = 0;
+    }
 
-            button.setOnClickListener(new View.OnClickListener() {
-                @Override
-                public void onClick(View v) {
-                    wordActions(Word.this);
-                }
-            });
+    // Releases the button, keeping the word in the cloud. Used when the activity holding the views goes away.
+    // The caller removes the button from its layout first; see rebuildButton().
+    protected void releaseButton() {
+        if (!isCreated()) return;
 
-            // Create layoutParams (not used until word attached)
-            layoutParams = new RelativeLayout.LayoutParams(RelativeLayout.LayoutParams.WRAP_CONTENT, RelativeLayout.LayoutParams.WRAP_CONTENT);
-            layoutParams.topMargin = 0;
-            layoutParams.leftMargin = 0;
+        if (animatorSet != null) {
+            animatorSet.cancel();
+            animatorSet = null;
+        }
 
-            // Set initial size (do not animate)
-            refreshSize(false);
+        button.clearAnimation();
+        button.setOnClickListener(null);
+
+        destroyButton();
+    }
+
+    // Creates the button again after releaseButton(), in the cloud's current context.
+    // Size, color and position come from the word store, so nothing is measured.
+    // The caller adds the button to the layout if the word is attached.
+    protected void rebuildButton() {
+        if (isCreated() || id < 0) return;
+
+        newButton();
+
+        button.setTextSize(store.sizes[id]);
+        setColor(store.colors[id]);
+
+        layoutParams.leftMargin = UnitConverter.getInstance().toPx(bounds.left);
+        layoutParams.topMargin = UnitConverter.getInstance().toPx(bounds.top);
+
+        if (isAttached()) {
+            button.setVisibility(View.VISIBLE);
         }
     }
 
+    // Makes sure a word still in the cloud has a button, rebuilding it (and adding it, if attached)
+    // when it is needed before the cloud got to it. Returns true if the word has a button.
+    private boolean ensureButton() {
+        if (isCreated()) return true;
+        if (id < 0) return false;
+
+        rebuildButton();
+
+        if (isAttached()) {
+            WordCloud.layout.addView(button, layoutParams);
+        }
+
+        return true;
+    }
+
     // Destroys the word button.
     private void destroyButton() {
-        Log.d(name, "destroyButton(" + count + ")");
+        Log.d(name, "destroyButton(" + getCount() + ")");
 
         if (isCreated()) {
             button = null;
@@ -120,7 +183,7 @@ public class Word extends WordGroup {
     // Attaches the word to the word cloud.
     // Alias for WordCloud.attachWord().
     private void attachToCloud() {
-        Log.d(name, "attachToCloud(" + count + ")");
+        Log.d(name, "attachToCloud(" + getCount() + ")");
 
         if (!isAttached()) {
             WordCloud.getInstance().attachWord(this);
@@ -130,7 +193,7 @@ public class Word extends WordGroup {
     // Detaches the word from the word cloud.
     // Alias for WordCloud.detachWord().
     private void detachFromCloud() {
-        Log.d(name, "detachFromCloud(" + count + ")");
+        Log.d(name, "detachFromCloud(" + getCount() + ")");
 
         if (isAttached()) {
             WordCloud.getInstance().detachWord(this);
@@ -139,14 +202,16 @@ public class Word extends WordGroup {
 
     // Shows the word on the view. Animation depends on if the button is already visible.
     public void show() {
+        if (!ensureButton()) return;
+
         show(button.getVisibility() == View.INVISIBLE);
     }
 
     // Shows the word on the view.
     public void show(boolean animate) {
-        Log.d(name, "show(" + count + ")");
+        Log.d(name, "show(" + getCount() + ")");
 
-        if (!isCreated()) return;
+        if (!ensureButton()) return;
 
         button.setVisibility(View.VISIBLE);
 
@@ -164,12 +229,14 @@ public class Word extends WordGroup {
 
     // Hides the word from the view. Animation depends on if the button is already invisible.
     public void hide() {
+        if (!isCreated()) return; // No button, nothing showing
+
         hide(button.getVisibility() == View.VISIBLE);
     }
 
     // Hides the word from the view.
     public void hide(boolean animate) {
-        Log.d(name, "hide(" + count + ")");
+        Log.d(name, "hide(" + getCount() + ")");
 
         if (!isCreated()) return;
 
@@ -202,25 +269,30 @@ public class Word extends WordGroup {
         return name;
     }
 
+    // Returns the ID of the word in the cloud's word store.
+    public int getWordId() {
+        return id;
+    }
+
     // Returns the occurrence count.
     public int getCount() {
-        return count;
+        return (id >= 0) ? store.counts[id] : 0;
     }
 
     // Returns the timestamp of the last occurrence.
     public long getTimestamp() {
-        return timestamp;
+        return (id >= 0) ? store.timestamps[id] : 0;
     }
 
     // Increments the count by the value, and updates the size.
     public boolean incrementCount(int value) {
         // Increment count
-        count += value;
+        store.setCount(id, store.counts[id] + value);
 
         // Update timestamp
-        this.timestamp = System.currentTimeMillis();
+        store.timestamps[id] = System.currentTimeMillis();
 
-        if (count <= 0) {
+        if (store.counts[id] <= 0) {
             return false;
         }
 
@@ -231,20 +303,31 @@ public class Word extends WordGroup {
     }
 
     // Refreshes the size of the word based on the current count and weighting.
-    private void refreshSize(boolean animate) {
-        if (!isCreated()) return;
+    protected void refreshSize(boolean animate) {
+        if (!ensureButton()) return;
+
+        WordWeighter weighter = WordCloud.getInstance().weighter;
+
+        // Calculate new size and color based on count (or part of speech)
+        applyWeight(weighter.getTextSize(this), weighter.getWordColor(this), animate);
+    }
+
+    // Applies a precomputed text size (sp) and color to the word, and updates its bounds.
+    protected void applyWeight(int textSize, int color, boolean animate) {
+        if (!ensureButton()) return;
 
         // Cache old size
         Rect oldBounds = new Rect(bounds);
 
         Log.d(name, "Left: " + UnitConverter.getInstance().toDp(button.getLeft()) + " Top: " + UnitConverter.getInstance().toDp(button.getTop()));
 
-        // Calculate new size based on count
-        button.setTextSize(WordCloud.getInstance().weighter.getTextSize(this));
-        Log.d(name, "Count: " + count + " Size: " + WordCloud.getInstance().weighter.getTextSize(this));
+        button.setTextSize(textSize);
+        Log.d(name, "Count: " + getCount() + " Size: " + textSize);
+
+        setColor(color);
 
-        // Calculate new color based on count (or part of speech)
-        setColor(WordCloud.getInstance().weighter.getWordColor(this));
+        store.sizes[id] = textSize;
+        store.colors[id] = color;
 
         // Update bounds with new button size
         button.measure(WordCloud.layout.getWidth(), WordCloud.layout.getHeight());
@@ -271,6 +354,8 @@ public class Word extends WordGroup {
 
         Log.d(name, "Bounds: " + bounds.toString());
 
+        store.setBounds(id, bounds);
+
         center.x = bounds.centerX();
         center.y = bounds.centerY();
 
@@ -291,6 +376,38 @@ public class Word extends WordGroup {
         }
     }
 
+    // Shows the word at a past size and color, scaled about its center, without changing its bounds.
+    // Used for showing the cloud at a past moment; see showLive().
+    protected void showHistoric(int textSize, int color, boolean visible) {
+        if (!isCreated()) return;
+
+        float scale = (store.sizes[id] > 0) ? (float) textSize / store.sizes[id] : 1.0f;
+
+        button.clearAnimation();
+        button.animate()
+                .scaleX(visible ? scale : 0.0f)
+                .scaleY(visible ? scale : 0.0f)
+                .alpha(visible ? 1.0f : 0.0f)
+                .setDuration(150)
+                .start();
+
+        setColor(color);
+    }
+
+    // Returns the word to its current size and color after showHistoric().
+    protected void showLive() {
+        if (!isCreated()) return;
+
+        button.animate()
+                .scaleX(1.0f)
+                .scaleY(1.0f)
+                .alpha(1.0f)
+                .setDuration(150)
+                .start();
+
+        setColor(store.colors[id]);
+    }
+
     // Sets the color of the word button.
     private void setColor(int color) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
@@ -304,7 +421,7 @@ public class Word extends WordGroup {
     @Override
     public void moveBy(int dx, int dy) {
         // Only animate if the button is visible, otherwise, just move it
-        moveBy(dx, dy, button.getVisibility() == View.VISIBLE);
+        moveBy(dx, dy, isCreated() && button.getVisibility() == View.VISIBLE);
     }
 
     // Moves the word by a specified delta.
@@ -312,6 +429,10 @@ public class Word extends WordGroup {
         center.offset(dx, dy);
         bounds.offset(dx, dy);
 
+        if (id >= 0) {
+            store.setBounds(id, bounds);
+        }
+
         // Cancel existing animation (we are moving the word again)
         if (animatorSet != null) {
             if (animatorSet.isStarted()) {
@@ -336,7 +457,7 @@ public class Word extends WordGroup {
             animatorSet.setDuration(1000);
 
             animatorSet.start();
-        } else {
+        } else if (isCreated()) {
             layoutParams.leftMargin = UnitConverter.getInstance().toPx(bounds.left);
             layoutParams.topMargin = UnitConverter.getInstance().toPx(bounds.top);
 
@@ -349,7 +470,7 @@ public class Word extends WordGroup {
     @Override
     public void moveTo(int x, int y) {
         // Only animate if the button is visible, otherwise, just move it
-        moveTo(x, y, button.getVisibility() == View.VISIBLE);
+        moveTo(x, y, isCreated() && button.getVisibility() == View.VISIBLE);
     }
 
     // Moves the word to a specified point.
@@ -360,6 +481,37 @@ public class Word extends WordGroup {
         moveBy(dx, dy, animate);
     }
 
+    // Moves the word so it is centered on a point, without animating or requesting a layout.
+    // Used when placing many words at once; the caller requests a single layout afterwards.
+    protected void placeAt(int x, int y) {
+        // Cancel existing animation (the word is placed directly)
+        if (animatorSet != null && animatorSet.isStarted()) {
+            animatorSet.cancel();
+        }
+
+        center.offset(x - center.x, y - center.y);
+        bounds.offsetTo(x - bounds.width() / 2, y - bounds.height() / 2);
+        store.setBounds(id, bounds);
+
+        if (isCreated()) {
+            layoutParams.leftMargin = UnitConverter.getInstance().toPx(bounds.left);
+            layoutParams.topMargin = UnitConverter.getInstance().toPx(bounds.top);
+        }
+    }
+
+    // Sets the timestamp of the last occurrence. Used when restoring a saved cloud.
+    protected void setTimestamp(long timestamp) {
+        store.timestamps[id] = timestamp;
+
+        // Saved clouds keep only the last occurrence; it is the earliest known
+        store.firstSeen[id] = Math.min(store.firstSeen[id], timestamp);
+    }
+
+    // Returns the timestamp of the first occurrence.
+    public long getFirstSeen() {
+        return (id >= 0) ? store.firstSeen[id] : 0;
+    }
+
     @Override
     public String toString() {
         return name;
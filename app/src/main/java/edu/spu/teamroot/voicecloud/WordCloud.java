@@ -1,25 +1,29 @@
 package edu.spu.teamroot.voicecloud;
 
+import android.animation.ValueAnimator;
 import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Point;
 import android.graphics.Rect;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.util.Log;
-import android.widget.RelativeLayout;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.sql.Timestamp;
-import java.util.Deque;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class WordCloud {
     /*
@@ -28,16 +32,36 @@ public class WordCloud {
 
     private static WordCloud instance;
     public static Context context;
-    public static RelativeLayout layout; // The layout containing all word views
+    public static WordCloudLayout layout; // The layout containing all word views
 
     public static final int PADDING = 20;
 
+    // Keys for the weighting preference
+    public static final String WEIGHTER_SIMPLE = "simple";
+    public static final String WEIGHTER_RELATIVE = "relative";
+    public static final String WEIGHTER_DECAY = "decay";
+    public static final String WEIGHTER_TOP_K = "topk";
+    public static final String WEIGHTER_TF_IDF = "tfidf";
+
     /*
      * Static methods
      */
 
+    // Receives every change to word counts, e.g. to journal them. Called with the cloud locked,
+    // possibly off the UI thread; implementations must not block.
+    public interface DeltaListener {
+        void onWordDelta(long time, Word word, int delta);
+
+        void onWordRemoved(long time, Word word);
+
+        void onCleared(long time);
+
+        // The cloud was replaced by a loaded snapshot, after onCleared().
+        void onSnapshotLoaded(CloudSnapshot snapshot);
+    }
+
     // Creates a static instance of the class.
-    public static WordCloud createInstance(Context context, RelativeLayout layout) {
+    public static WordCloud createInstance(Context context, WordCloudLayout layout) {
         Log.d("WordCloud", "createInstance(" + context + ", " + layout + ")");
 
         if (instance == null) {
@@ -59,9 +83,28 @@ public class WordCloud {
     public static void deleteInstance() {
         Log.d("WordCloud", "deleteInstance()");
 
+        if (instance != null && instance.journal != null) {
+            instance.journal.close();
+        }
+
         instance = null;
     }
 
+    // Creates the weighter for a weighting preference key.
+    public static WordWeighter createWeighter(String key) {
+        if (WEIGHTER_RELATIVE.equals(key)) {
+            return new RelativeWeighter();
+        } else if (WEIGHTER_DECAY.equals(key)) {
+            return new DecayWeighter();
+        } else if (WEIGHTER_TOP_K.equals(key)) {
+            return new TopKWeighter();
+        } else if (WEIGHTER_TF_IDF.equals(key)) {
+            return new TfIdfWeighter();
+        } else {
+            return new SimpleWeighter();
+        }
+    }
+
     /*
      * Member variables
      */
@@ -69,12 +112,16 @@ public class WordCloud {
     public WordWeighter weighter;
 
     private Map<String, Word> wordList;
+    protected WordStore store; // Columnar word data, indexed by word ID
+
+    // Scratch output for batch weighting
+    private int[] batchSizes;
+    private int[] batchColors;
+    private boolean[] batchShow;
 
-    private Deque<WordGroup> freeGroups;
-    private int groupSize;
+    private int evaluatedMinCount = -1; // Threshold of the last evaluation of all words, or -1 to evaluate them all again
 
-    private WordGroup wordTreeRoot;
-    private int treeSize; // Number of (attached) words in the tree
+    private WordTree wordTree; // Attached words, in groups
 
     private long timestamp;
 
@@ -84,20 +131,75 @@ public class WordCloud {
 
     private Paint paint;
 
+    private Handler handler; // Main thread handler
+    private int loadGeneration; // Incremented to cancel chunked snapshot loads
+    private int viewGeneration; // Incremented to cancel chunked view rebuilds
+
+    private static final long LOAD_FRAME_BUDGET = 8; // Time a load chunk may use per frame, in ms
+
+    private int layoutVersion; // Incremented when words are attached, detached or moved
+    private ValueAnimator compactAnimator; // Moves of the last compaction pass
+
+    private static final long COMPACT_IDLE_DELAY = 5000; // Time without layout changes before compacting, in ms
+    private static final long COMPACT_DURATION = 1000;
+
+    // Computes compacted layouts off the UI thread
+    private static final ExecutorService layoutExecutor = Executors.newSingleThreadExecutor();
+
+    public static final String SNAPSHOT_FILENAME = "cloud.snapshot";
+
+    // Writes local snapshots in order, off the UI thread
+    private static final ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+
+    private String cloudId; // Web cloudid this cloud was last saved as or loaded from
+
+    private static final long CHECKPOINT_INTERVAL = 60000; // Longest time between checkpoints while changing, in ms
+
+    private SessionJournal journal; // Started by restoreLocalSnapshot()
+    private long generation; // Journal generation of the last checkpoint
+    private int changesSinceCheckpoint;
+
+    private final List<DeltaListener> deltaListeners = new CopyOnWriteArrayList<>();
+
+    private CloudTimeline timeline; // History of count changes, for showHistory()
+    private boolean inHistory;
+
+    // While the view is cached for a gesture, new words wait here (see pauseUpdates())
+    private boolean updatesPaused;
+    private final List<String> pendingNames = new ArrayList<>();
+    private final List<Integer> pendingCounts = new ArrayList<>();
+
+    private WordWeighter historyWeighter; // Used for history if the weighter has no lookup tables
+
+    private final Runnable compactTask = new Runnable() {
+        @Override
+        public void run() {
+            compact();
+        }
+    };
+
+    private final Runnable checkpointTask = new Runnable() {
+        @Override
+        public void run() {
+            if (changesSinceCheckpoint > 0) {
+                saveLocalSnapshot();
+            }
+        }
+    };
+
     /*
      * Constructors
      */
 
-    private WordCloud(Context context, RelativeLayout layout) {
+    private WordCloud(Context context, WordCloudLayout layout) {
         WordCloud.context = context;
         WordCloud.layout = layout;
 
-        weighter = new SimpleWeighter(); // TODO Adjust weighter based on settings
+        weighter = createWeighter(PreferenceManager.getDefaultSharedPreferences(context).getString("weighting", WEIGHTER_SIMPLE));
 
         wordList = new TreeMap<>();
-        freeGroups = new LinkedList<>();
-        groupSize = 0;
-        wordTreeRoot = new WordGroup();
+        store = new WordStore();
+        wordTree = new WordTree();
         timestamp = System.currentTimeMillis();
 
         // Get and set outline state
@@ -106,6 +208,17 @@ public class WordCloud {
         paint = new Paint();
         paint.setStyle(Paint.Style.STROKE);
 
+        handler = new Handler(Looper.getMainLooper());
+
+        timeline = new CloudTimeline(timestamp);
+        addDeltaListener(timeline);
+
+        // Record this session's counts on the device
+        if (HistoryDatabase.getInstance() != null) {
+            HistoryDatabase.getInstance().startSession(timestamp);
+            addDeltaListener(HistoryDatabase.getInstance());
+        }
+
         initRootBounds();
     }
 
@@ -114,17 +227,95 @@ public class WordCloud {
      */
 
     // Reloads a static instance of the class based on a new context and layout.
-    public void reloadInstance(Context newContext, RelativeLayout newLayout) {
-        context = newContext;
-
+    // The model is kept; the old views are released so the old activity can be collected.
+    // New views are created by rebuildViews(), or on demand as words change.
+    public synchronized void reloadInstance(Context newContext, WordCloudLayout newLayout) {
         WordCloud.layout.removeAllViews();
+
+        for (Word word : wordList.values()) {
+            word.releaseButton();
+        }
+
+        context = newContext;
         WordCloud.layout = newLayout;
 
+        // Cancel any views still being rebuilt for the old layout
+        viewGeneration++;
+    }
+
+    // Creates the views of the attached words after reloadInstance(). Words within visible (dp) are
+    // added at once; the rest follow nearest first, a frame's budget at a time.
+    public synchronized void rebuildViews(Rect visible) {
+        final int generation = ++viewGeneration;
+
+        List<Word> batch = new ArrayList<>();
+
+        // Sort the rest by distance from the visible center (high bits), then ID (low bits)
+        final long[] order = new long[wordTree.size()];
+        int n = 0;
+
         for (Word word : wordList.values()) {
-            if (word.isAttached()) {
-                WordCloud.layout.addView(word.button, word.layoutParams);
+            if (word.isCreated() || !word.isAttached()) continue;
+
+            if (Rect.intersects(visible, word.bounds)) {
+                word.rebuildButton();
+                batch.add(word);
+            } else if (n < order.length) {
+                long dx = word.center.x - visible.centerX();
+                long dy = word.center.y - visible.centerY();
+
+                order[n++] = (Math.min(dx * dx + dy * dy, Integer.MAX_VALUE) << 32) | word.getWordId();
             }
         }
+
+        addViews(batch);
+
+        Log.d("WordCloud", "rebuildViews: " + batch.size() + " visible, " + n + " deferred");
+
+        Arrays.sort(order, 0, n);
+        final int count = n;
+
+        Runnable rebuildChunk = new Runnable() {
+            private int next = 0;
+
+            @Override
+            public void run() {
+                synchronized (WordCloud.this) {
+                    if (generation != viewGeneration) return; // Reloaded again
+
+                    long deadline = SystemClock.uptimeMillis() + LOAD_FRAME_BUDGET;
+                    List<Word> batch = new ArrayList<>();
+
+                    while (next < count && SystemClock.uptimeMillis() < deadline) {
+                        int id = (int) order[next++];
+                        Word word = (id < store.size()) ? store.getWord(id) : null;
+
+                        // Skip words removed, detached or already rebuilt since
+                        if (word == null || word.isCreated() || !word.isAttached()) continue;
+
+                        word.rebuildButton();
+                        batch.add(word);
+                    }
+
+                    addViews(batch);
+
+                    if (next < count) {
+                        handler.post(this); // Continue on the next frame
+                    }
+                }
+            }
+        };
+
+        if (count > 0) {
+            handler.post(rebuildChunk);
+        }
+    }
+
+    // Adds the buttons of many words to the layout in one pass.
+    private void addViews(List<Word> words) {
+        if (words.isEmpty()) return;
+
+        layout.addWordsInBatch(words);
     }
 
     // Retrieves a saved bundle from the cloud instance.
@@ -152,8 +343,8 @@ public class WordCloud {
         width = UnitConverter.getInstance().toDp(layout.getLayoutParams().width);
         height = UnitConverter.getInstance().toDp(layout.getLayoutParams().height);
 
-        wordTreeRoot.setBounds(new Rect(width / 2, height / 2, width / 2, height / 2));
-        Log.d("wordTreeRoot", "Width: " + width + " Height: " + height);
+        wordTree.reset(new Rect(width / 2, height / 2, width / 2, height / 2));
+        Log.d("wordTree", "Width: " + width + " Height: " + height);
     }
 
     // Adds a word to the cloud.
@@ -163,6 +354,13 @@ public class WordCloud {
 
     // Adds a word with specified count to the cloud.
     public synchronized void addWord(String name, int count) {
+        if (updatesPaused) {
+            // Added once the gesture ends
+            pendingNames.add(name);
+            pendingCounts.add(count);
+            return;
+        }
+
         // Get the word from the list
         Word word = wordList.get(name);
 
@@ -175,6 +373,8 @@ public class WordCloud {
             word.incrementCount(count);
         }
 
+        fireWordDelta(word, count);
+
         // Update the word
         boolean isAttached = word.isAttached();
         boolean shouldShow = weighter.shouldShow(word);
@@ -200,6 +400,39 @@ public class WordCloud {
         }
     }
 
+    // Shows or hides a word based on the current weighting, without changing its count.
+    public synchronized void evaluateWord(Word word) {
+        boolean isAttached = word.isAttached();
+        boolean shouldShow = weighter.shouldShow(word);
+
+        if (isAttached && !shouldShow) {
+            hideWord(word);
+        } else if (!isAttached && shouldShow) {
+            showWord(word);
+        }
+    }
+
+    // Replaces the weighter, then re-weighs and re-evaluates all words.
+    public synchronized void setWeighter(WordWeighter newWeighter) {
+        Log.d("WordCloud", "setWeighter(" + newWeighter + ")");
+
+        weighter = newWeighter;
+        evaluatedMinCount = -1;
+
+        for (int id = 0; id < store.size(); id++) {
+            Word word = store.words[id];
+            if (word == null) continue; // Free ID
+
+            word.refreshSize(word.isAttached());
+
+            if (word.isAttached()) {
+                repositionWord(word, false);
+            }
+        }
+
+        evaluateAllWords();
+    }
+
     // Attaches and shows a word in the cloud.
     private void showWord(Word word) {
         Log.d("WordCloud", word.getName() + ": showWord");
@@ -218,9 +451,30 @@ public class WordCloud {
     }
 
     // Re-evaluates all words based on updated size and weighting.
-    private void evaluateAllWords() {
-        for (Map.Entry pair : wordList.entrySet()) {
-            Word word = (Word)pair.getValue();
+    protected synchronized void evaluateAllWords() {
+        if (weighter instanceof ThresholdWeighter) {
+            int minCount = ((ThresholdWeighter) weighter).getMinCount();
+
+            if (evaluatedMinCount >= 0) {
+                // Only words between the old and new threshold can change
+                evaluateCounts(Math.min(evaluatedMinCount, minCount), Math.max(evaluatedMinCount, minCount));
+                evaluatedMinCount = minCount;
+                return;
+            }
+
+            evaluatedMinCount = minCount;
+        }
+
+        if (weighter instanceof BatchWeighter) {
+            evaluateAllWords((BatchWeighter) weighter);
+            return;
+        }
+
+        Word[] words = store.words;
+
+        for (int id = 0; id < store.size(); id++) {
+            Word word = words[id];
+            if (word == null) continue; // Free ID
 
             boolean isAttached = word.isAttached();
             boolean shouldShow = weighter.shouldShow(word);
@@ -235,75 +489,96 @@ public class WordCloud {
         }
     }
 
-    // Returns a word from the word list.
-    public Word getWord(String name) {
-        return wordList.get(name);
-    }
+    // Re-evaluates the words with counts from from to to (exclusive), through the store's count buckets.
+    private void evaluateCounts(int from, int to) {
+        if (from >= to) return;
 
-    // Returns the timestamp of the word cloud.
-    public long getTimestamp() {
-        return this.timestamp;
-    }
+        int last = WordStore.bucketOf(to - 1);
 
-    // Updates the list of free groups.
-    private void refreshFreeGroups() {
-        freeGroups.clear();
+        for (int bucket = WordStore.bucketOf(from); bucket <= last; bucket++) {
+            int id = store.bucketHeads[bucket];
 
-        for (WordGroup group : wordTreeRoot.children) {
-            if (group.children.size() < groupSize) {
-                freeGroups.addFirst(group);
+            while (id >= 0) {
+                int count = store.counts[id];
+
+                if (count >= from && count < to) {
+                    evaluateWord(store.words[id]); // Last bucket holds larger counts too
+                }
+
+                id = store.nextByCount[id];
             }
         }
     }
 
-    // Returns a free group from the list. Updates max group size if count changes.
-    protected WordGroup getFreeGroup() {
-        // Calculate new group size ( 1 + floor( sqrt( n-1 ) ) )
-        // e.g. n=4, size = 2 groups of 2; n=8, size = 3 groups of 3
-        int newSize = 1 + (int)Math.floor(Math.sqrt(treeSize - 1));
+    // Re-evaluates all words in one pass over the store's count column.
+    private void evaluateAllWords(BatchWeighter batchWeighter) {
+        int n = store.size();
 
-        // If size needs to be increased, or there are no free groups (for some reason)
-        if (newSize > groupSize || freeGroups.isEmpty()) {
-            // Update to newSize, or increment count if we need a new group
-            if (newSize > groupSize) {
-                groupSize = newSize;
-            } else {
-                groupSize++;
+        if (batchSizes == null || batchSizes.length < n) {
+            batchSizes = new int[store.counts.length];
+            batchColors = new int[store.counts.length];
+            batchShow = new boolean[store.counts.length];
+        }
+
+        batchWeighter.weighAll(store.counts, n, batchSizes, batchColors, batchShow);
+
+        Word[] words = store.words;
+
+        for (int id = 0; id < n; id++) {
+            Word word = words[id];
+            if (word == null) continue; // Free ID
+
+            boolean isAttached = word.isAttached();
+            boolean shouldShow = batchShow[id];
+
+            if (isAttached && !shouldShow) {
+                hideWord(word);
+            } else if (!isAttached && shouldShow) {
+                showWord(word);
+            } else if (isAttached && (store.sizes[id] != batchSizes[id] || store.colors[id] != batchColors[id])) {
+                // Weight changed without a count change; resize and make room
+                word.applyWeight(batchSizes[id], batchColors[id], true);
+                repositionWord(word, false);
             }
+        }
+    }
 
-            // Update free groups list (group size has changed)
-            refreshFreeGroups();
+    // Returns a word from the word list.
+    public Word getWord(String name) {
+        return wordList.get(name);
+    }
 
-            // Create new word group and link to tree hierarchy
-            WordGroup newGroup = new WordGroup();
-            wordTreeRoot.addChild(newGroup);
+    // Returns the timestamp of the word cloud.
+    public long getTimestamp() {
+        return this.timestamp;
+    }
 
-            return newGroup;
-        } else {
-            // Get a free group and add the word to it
-            return freeGroups.removeFirst();
+    // Returns a key identifying this cloud in the upload outbox. Changes when the cloud is cleared.
+    public String getCloudKey() {
+        return "cloud-" + this.timestamp;
+    }
+
+    // Records the cloudid of a queued upload of this cloud, once it reaches the server.
+    public void onCloudUploaded(String key, String cloudid) {
+        if (key.equals(getCloudKey())) {
+            cloudId = cloudid;
         }
     }
 
-    // Adds a word to the word cloud. Finds a free group, and increases group size if needed.
+    // Adds a word to the word cloud, in a free group (a new one if needed).
     protected void attachWord(Word word) {
         Log.d("WordCloud", word.getName() + ": attachWord");
 
         // Do not attach word if already parented!
         if (word.isAttached()) return;
 
-        // Add the word to the view
-        WordCloud.layout.addView(word.button, word.layoutParams);
-
-        WordGroup group = getFreeGroup();
-        group.addChild(word);
+        onLayoutChanged();
 
-        // Stick group back if still has room
-        if (group.children.size() < groupSize) {
-            freeGroups.addFirst(group);
-        }
+        // Add the word to the view (its button may have been released by a reload)
+        word.rebuildButton();
+        WordCloud.layout.addView(word.button, word.layoutParams);
 
-        treeSize++;
+        wordTree.attach(word);
     }
 
     // Detaches a word from the word cloud, leaving it in the list.
@@ -313,23 +588,16 @@ public class WordCloud {
         // Do not detach if already detached.
         if (!word.isAttached()) return;
 
-        word.button.clearAnimation();
+        onLayoutChanged();
 
         // Remove the word from the view
-        WordCloud.layout.removeView(word.button);
-
-        // Remove the word from the word tree
-        WordGroup group = word.parent;
-
-        group.removeChild(word);
-        group.refreshBounds();
-
-        // Add parent to list of free groups
-        if (group.children.size() < groupSize && !freeGroups.contains(group)) {
-            freeGroups.addFirst(group);
+        if (word.isCreated()) {
+            word.button.clearAnimation();
+            WordCloud.layout.removeView(word.button);
         }
 
-        treeSize--;
+        // Remove the word from the word tree
+        wordTree.detach(word);
     }
 
     // Repositions a word inside a group.
@@ -338,22 +606,22 @@ public class WordCloud {
 
         if (!word.isAttached()) return;
 
-        // Initially, reposition word in parent group (otherwise relative to current position)
-        word.parent.repositionChild(word, initialPlacement);
+        onLayoutChanged();
 
-        // Now, reposition parent group within the root.
-        // If size <= 1, give it an initial position
-        wordTreeRoot.repositionChild(word.parent, word.parent.children.size() <= 1);
+        // Reposition word in its group, then the group among the rest of the words
+        wordTree.place(word, initialPlacement);
 
         // Check if words are too close to edge
-        boolean leftOffscreen = wordTreeRoot.bounds.left < PADDING;
-        boolean topOffscreen = wordTreeRoot.bounds.top < PADDING;
+        WordGroup root = wordTree.root;
+
+        boolean leftOffscreen = root.bounds.left < PADDING;
+        boolean topOffscreen = root.bounds.top < PADDING;
 
         if (leftOffscreen || topOffscreen) {
-            int dx = leftOffscreen ? (-wordTreeRoot.bounds.left + PADDING) : 0;
-            int dy = topOffscreen ? (-wordTreeRoot.bounds.top + PADDING) : 0;
+            int dx = leftOffscreen ? (-root.bounds.left + PADDING) : 0;
+            int dy = topOffscreen ? (-root.bounds.top + PADDING) : 0;
 
-            wordTreeRoot.moveBy(dx, dy);
+            root.moveBy(dx, dy);
         }
     }
 
@@ -369,17 +637,10 @@ public class WordCloud {
 
         if (deleteFromList) {
             wordList.remove(word.getName()); // Remove from word list
+            fireWordRemoved(word);
         }
 
-        WordGroup group = word.parent; // Cache word parent group
         word.delete(); // This will remove from tree and delete button
-
-        if (group != null) {
-            // Add parent to list of free groups
-            if (group.children.size() < groupSize && !freeGroups.contains(group)) {
-                freeGroups.addFirst(group);
-            }
-        }
     }
 
     // Clears the word cloud.
@@ -395,9 +656,27 @@ public class WordCloud {
             it.remove(); // Proper way to delete when using iterators
         }
 
+        store.clear();
+
+        // Cancel any snapshot still loading, and views still being rebuilt
+        loadGeneration++;
+        viewGeneration++;
+
+        // Nothing left to show history for
+        inHistory = false;
+
+        pendingNames.clear();
+        pendingCounts.clear();
+        evaluatedMinCount = -1;
+
+        // Next save starts a new web cloud
+        cloudId = null;
+
         // Update timestamp
         timestamp = System.currentTimeMillis();
 
+        fireCleared();
+
         // Reset bounds for cloud to original layout
         initRootBounds();
     }
@@ -407,238 +686,591 @@ public class WordCloud {
         return wordList.containsKey(name);
     }
 
-    // Saves the word cloud to the web, returning the cloudid.
-    public String saveWordCloud() {
-        try {
-            JSONObject toSend = toJSON();
-
-            // Transmit object to web server
-            JSONTransmitter transmitter = new JSONTransmitter();
-            transmitter.execute(toSend);
+    // Saves the word cloud to the web in the background. The callback receives the cloudid.
+    // Saves after the first only send what changed. Failed saves are queued in the UploadOutbox.
+    public CloudSync.Task saveWordCloud(final CloudSync.Callback<String> callback) {
+        // Only the snapshot copy happens here; serialization and transfer run off the UI thread
+        final CloudSnapshot snapshot = snapshot();
+        final String key = getCloudKey();
+
+        return CloudSync.save(cloudId, snapshot, new CloudSync.Callback<String>() {
+            @Override
+            public void onProgress(long bytes, long total) {
+                callback.onProgress(bytes, total);
+            }
 
-            JSONObject result = transmitter.get();
-            String cloudID = result.getString("cloudid");
+            @Override
+            public void onSuccess(String result) {
+                // Unless the cloud was cleared or replaced while saving, as onCloudUploaded() checks
+                if (key.equals(getCloudKey())) {
+                    cloudId = result;
+                }
 
-            if (cloudID.length() > 0) return cloudID;
-            else return "none";
+                callback.onSuccess(result);
+            }
 
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+            @Override
+            public void onFailure(Exception e) {
+                // Keep it for later instead of losing it
+                if (UploadOutbox.getInstance() != null) {
+                    UploadOutbox.getInstance().enqueue(key, snapshot);
+                }
 
-        return "none";
+                callback.onFailure(e);
+            }
+        });
     }
 
-    // Loads the word cloud from the web, given the cloudid.
-    public synchronized boolean loadWordCloud(String cloudid) {
+    // Loads the word cloud from the web in the background, given the cloudid.
+    // The callback receives true once the loaded words are being placed.
+    public CloudSync.Task loadWordCloud(final String cloudid, final CloudSync.Callback<Boolean> callback) {
         // Make request
         Log.d("wordCloud", "Loading CLOUDID " + cloudid);
 
-        try {
-            // Create Master JSON Object
-            JSONObject toSend = new JSONObject();
+        return CloudSync.load(cloudid, new CloudSync.Callback<CloudSnapshot>() {
+            @Override
+            public void onProgress(long bytes, long total) {
+                callback.onProgress(bytes, total);
+            }
 
-            toSend.put("cloudid", cloudid);
+            @Override
+            public void onSuccess(CloudSnapshot snapshot) {
+                boolean loaded = loadSnapshot(snapshot);
+                if (loaded) cloudId = cloudid;
+                callback.onSuccess(loaded);
+            }
 
-            // Transmit object to web server
-            JSONTransmitter transmitter = new JSONTransmitter();
-            transmitter.execute(toSend);
+            @Override
+            public void onFailure(Exception e) {
+                callback.onFailure(e);
+            }
+        });
+    }
 
-            // Ping API and get JSON object
-            JSONObject result = transmitter.get();
-            result = new JSONObject(result.getString("cloudid"));
+    // Saves the cloud to local storage in the background, for restoreLocalSnapshot().
+    // This is a journal checkpoint: later changes go to a new journal generation.
+    public synchronized void saveLocalSnapshot() {
+        checkpoint(snapshot());
+    }
 
-            return fromJSON(result);
-        } catch (Exception e) {
-            e.printStackTrace();
+    // Writes a snapshot as a checkpoint and starts a new journal generation.
+    // Must be called with the lock held, so no change lands in both the snapshot and the new journal.
+    // The snapshot is not modified; it may be the one CloudSync keeps as acknowledged.
+    private void checkpoint(final CloudSnapshot snapshot) {
+        final File file = new File(context.getFilesDir(), SNAPSHOT_FILENAME);
+        final File journalDirectory = new File(context.getFilesDir(), SessionJournal.DIRECTORY);
+        final long checkpointGeneration = ++generation;
+
+        if (journal == null) {
+            journal = new SessionJournal(journalDirectory, checkpointGeneration);
+            addDeltaListener(journal);
+        } else {
+            journal.rotate(checkpointGeneration);
         }
 
-        return false;
+        changesSinceCheckpoint = 0;
+        handler.removeCallbacks(checkpointTask);
+
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SnapshotFile.write(snapshot, checkpointGeneration, file);
+
+                    // Older journals are covered by the snapshot now
+                    SessionJournal.deleteBefore(journalDirectory, checkpointGeneration);
+                } catch (IOException e) {
+                    Log.d("WordCloud", "Error saving local snapshot!");
+                    e.printStackTrace();
+                }
+            }
+        });
     }
 
-    // Saves the word cloud to a JSON representation.
-    public synchronized JSONObject toJSON() {
-        Log.d("WordCloud", "Saving word cloud");
+    // Restores the cloud from the last checkpoint plus the journal written since, and starts journaling.
+    // The files are read on the disk thread; the cloud is loaded on the main thread once they are.
+    public synchronized void restoreLocalSnapshot() {
+        final File file = new File(context.getFilesDir(), SNAPSHOT_FILENAME);
+        final File journalDirectory = new File(context.getFilesDir(), SessionJournal.DIRECTORY);
+        final long emptyTimestamp = timestamp;
+
+        // Queued ahead of any checkpoint, so the files are read before they can be replaced
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = SystemClock.uptimeMillis();
+                CloudSnapshot snapshot = null;
+
+                if (file.exists()) {
+                    try {
+                        snapshot = SnapshotFile.read(file);
+                    } catch (IOException e) {
+                        Log.d("WordCloud", "Local snapshot is damaged; discarding");
+                        e.printStackTrace();
+                        file.delete();
+                    }
+                }
+
+                final boolean hasSnapshot = (snapshot != null);
+
+                if (!hasSnapshot) {
+                    // Crashed before the first checkpoint; the journals are all there is
+                    snapshot = new CloudSnapshot(0, 0);
+                    snapshot.timestamp = emptyTimestamp;
+                }
+
+                long[] generations = SessionJournal.listGenerations(journalDirectory);
+                final long latest = (generations.length > 0) ? generations[generations.length - 1] : 0;
+                final int replayed = SessionJournal.replay(journalDirectory, snapshot.generation, snapshot);
+                final CloudSnapshot restored = snapshot;
 
-        // Create Master JSON Object
-        JSONObject saveObj = new JSONObject();
+                Log.d("WordCloud", "Read local snapshot and " + replayed + " journal events in " + (SystemClock.uptimeMillis() - start) + " ms");
 
-        // Create layout JSON Object
-        JSONObject cloud = new JSONObject();
-        int width = UnitConverter.getInstance().toDp(layout.getLayoutParams().width);
-        int height = UnitConverter.getInstance().toDp(layout.getLayoutParams().height);
-        String timestamp = new Timestamp(this.getTimestamp()).toString();
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        finishRestore(restored, hasSnapshot, replayed, latest);
+                    }
+                });
+            }
+        });
+    }
+
+    // Loads a restored snapshot on the main thread. Starts journaling even if there was nothing to restore.
+    private synchronized void finishRestore(CloudSnapshot snapshot, boolean hasSnapshot, int replayed, long latest) {
+        generation = Math.max(generation, Math.max(snapshot.generation, latest));
 
-        try {
-            cloud.put("width", width);
-            cloud.put("height", height);
-            cloud.put("timestamp", timestamp);
-        } catch (JSONException e) {
-            e.printStackTrace();
+        if (!hasSnapshot && replayed == 0) {
+            // Nothing to restore; start journaling from here
+            checkpoint(snapshot());
+            return;
         }
 
-        // Create Groups JSON Array
-        JSONArray groups = new JSONArray();
+        // Loading writes the recovered state as a new checkpoint
+        if (loadSnapshot(snapshot)) {
+            cloudId = snapshot.cloudId;
+        }
+    }
 
-        // Iterate through WordList and add to Json object
-        for (int i = 0; i < wordTreeRoot.children.size(); i++) {
-            // Get current word
-            WordGroup currGroup = wordTreeRoot.children.get(i);
+    /*
+     * Delta listeners
+     */
+
+    public void addDeltaListener(DeltaListener listener) {
+        deltaListeners.add(listener);
+    }
 
-            // Create JSON Object for word
-            JSONObject group = new JSONObject();
+    public void removeDeltaListener(DeltaListener listener) {
+        deltaListeners.remove(listener);
+    }
 
-            // Put current word cloud data into json object
-            try {
-                // Add all word properties
-                Log.d("wordCloud", "Group ID: " + currGroup.getId());
-                group.put("groupcloudid", currGroup.getId());
+    // Tells listeners about a count change, and schedules a checkpoint.
+    private void fireWordDelta(Word word, int delta) {
+        for (DeltaListener listener : deltaListeners) {
+            listener.onWordDelta(word.getTimestamp(), word, delta);
+        }
 
-                group.put("centerx", currGroup.center.x);
-                group.put("centery", currGroup.center.y);
+        onChanged();
+    }
 
-                group.put("bottom", currGroup.getBounds().bottom);
-                group.put("left", currGroup.getBounds().left);
-                group.put("right", currGroup.getBounds().right);
-                group.put("top", currGroup.getBounds().top);
+    private void fireWordRemoved(Word word) {
+        long time = System.currentTimeMillis();
 
-                // Add word json to words array
-                groups.put(group);
+        for (DeltaListener listener : deltaListeners) {
+            listener.onWordRemoved(time, word);
+        }
 
-            } catch (JSONException e) {
-                e.printStackTrace();
-            }
+        onChanged();
+    }
 
+    private void fireCleared() {
+        for (DeltaListener listener : deltaListeners) {
+            listener.onCleared(timestamp);
         }
 
-        // Create Words JSON Array
-        JSONArray words = new JSONArray();
+        onChanged();
+    }
 
-        // Iterate through WordList and add to Json object
-        for (Map.Entry pair : wordList.entrySet()) {
-            // Get current word
-            Word currWord = (Word) pair.getValue();
+    private void fireSnapshotLoaded(CloudSnapshot snapshot) {
+        for (DeltaListener listener : deltaListeners) {
+            listener.onSnapshotLoaded(snapshot);
+        }
+    }
 
-            // Create JSON Object for word
-            JSONObject word = new JSONObject();
+    /*
+     * History
+     */
 
-            // Put current word cloud data into json object
-            try {
-                word.put("name", currWord.getName());
-                word.put("count", currWord.getCount());
-                word.put("timestamp", new Timestamp(currWord.getTimestamp()).toString());
-                word.put("attached", currWord.isAttached() ? 1 : 0);
+    // Returns the history of count changes for this cloud.
+    public CloudTimeline getTimeline() {
+        return timeline;
+    }
 
-                // Put parent group if it exists
-                if (currWord.parent != null) word.put("group", currWord.parent.getId());
-                else word.put("group", -1);
+    // Returns true while the cloud is showing a past moment (see showHistory()).
+    public boolean isShowingHistory() {
+        return inHistory;
+    }
 
-                word.put("bottom", currWord.getBounds().bottom);
-                word.put("left", currWord.getBounds().left);
-                word.put("right", currWord.getBounds().right);
-                word.put("top", currWord.getBounds().top);
+    // Shows the cloud as it was at a past time, by resizing and hiding the words already placed.
+    // Words keep their current positions, and the model is not changed; call showLive() to return.
+    public synchronized void showHistory(long time) {
+        int[] history = timeline.reconstruct(time);
+        int n = store.size();
 
-                // Add word json to words array
-                words.put(word);
+        BatchWeighter batchWeighter;
 
-            } catch (JSONException e) {
-                e.printStackTrace();
-            }
+        if (weighter instanceof BatchWeighter) {
+            batchWeighter = (BatchWeighter) weighter;
+        } else {
+            if (historyWeighter == null) historyWeighter = new SimpleWeighter();
+            batchWeighter = (BatchWeighter) historyWeighter;
+        }
+
+        // Map the timeline's counts onto word IDs
+        int[] counts = new int[store.counts.length];
+        Word[] words = store.words;
+
+        for (int id = 0; id < n; id++) {
+            if (words[id] == null) continue; // Free ID
 
+            int index = timeline.indexOf(words[id].getName());
+            counts[id] = (index >= 0 && index < history.length) ? history[index] : 0;
         }
 
-        // Add layout and words array to master json object
-        try {
-            saveObj.put("cloud", cloud);
-            cloud.put("words", words);
-            cloud.put("groups", groups);
-        } catch (JSONException e) {
-            e.printStackTrace();
+        if (batchSizes == null || batchSizes.length < counts.length) {
+            batchSizes = new int[counts.length];
+            batchColors = new int[counts.length];
+            batchShow = new boolean[counts.length];
         }
 
-        return saveObj;
+        batchWeighter.weighAll(counts, n, batchSizes, batchColors, batchShow);
+
+        for (int id = 0; id < n; id++) {
+            Word word = words[id];
+            if (word == null || !word.isAttached()) continue;
+
+            word.showHistoric(batchSizes[id], batchColors[id], batchShow[id] && counts[id] > 0);
+        }
+
+        inHistory = true;
     }
 
-    // Loads the word cloud from a JSON representation.
-    public synchronized boolean fromJSON(JSONObject fromRecv) {
-        Log.d("WordCloud", "Loading word cloud");
+    // Returns every word to its current size and color after showHistory().
+    public synchronized void showLive() {
+        if (!inHistory) return;
 
-        try {
-            // Clear out current cloud
-            this.clear();
-            treeSize = 0;
+        Word[] words = store.words;
 
-            // Create map for id to group instance
-            Map<Integer, WordGroup> groupMap = new TreeMap<>();
+        for (int id = 0; id < store.size(); id++) {
+            Word word = words[id];
+            if (word == null || !word.isAttached()) continue;
 
-            // Populate groups
-            JSONArray groupArray = fromRecv.getJSONObject("cloud").getJSONArray("groups");
+            word.showLive();
+        }
 
-            for (int i = 0; i < groupArray.length(); i++) {
-                JSONObject group = groupArray.getJSONObject(i);
+        inHistory = false;
+    }
 
-                // Get id
-                Integer groupId = Integer.parseInt(group.getString("groupcloudid"));
+    // Holds back new words, and compaction, until resumeUpdates(). Used while the view is cached as a
+    // layer for a zoom or fling, since any change to a word would redraw the whole layer.
+    public synchronized void pauseUpdates() {
+        updatesPaused = true;
+    }
 
-                // Get center
-                Point center = new Point(Integer.parseInt(group.getString("centerx")), Integer.parseInt(group.getString("centery")));
+    // Adds the words held back since pauseUpdates(), in order.
+    public synchronized void resumeUpdates() {
+        if (!updatesPaused) return;
 
-                // Get bounds
-                Rect bounds = new Rect(Integer.parseInt(group.getString("left")), Integer.parseInt(group.getString("top")), Integer.parseInt(group.getString("right")), Integer.parseInt(group.getString("bottom")));
+        updatesPaused = false;
 
-                WordGroup wordGroup = new WordGroup(center, bounds);
-                groupMap.put(groupId, wordGroup);
-                wordTreeRoot.addChild(wordGroup);
+        for (int i = 0; i < pendingNames.size(); i++) {
+            addWord(pendingNames.get(i), pendingCounts.get(i));
+        }
+
+        pendingNames.clear();
+        pendingCounts.clear();
+
+        // A compaction may have been skipped meanwhile
+        handler.removeCallbacks(compactTask);
+        handler.postDelayed(compactTask, COMPACT_IDLE_DELAY);
+    }
+
+    // Notes a layout change. Cuts short a compaction being shown, and schedules the next pass
+    // for when the cloud has been idle for a while (e.g. between recognition results).
+    private void onLayoutChanged() {
+        layoutVersion++;
+
+        if (compactAnimator != null) {
+            compactAnimator.end(); // Jump to the compacted positions the change was made against
+            compactAnimator = null;
+        }
+
+        handler.removeCallbacks(compactTask);
+        handler.postDelayed(compactTask, COMPACT_IDLE_DELAY);
+    }
+
+    // Compacts the cloud if its packing density has dropped below CloudCompactor.MIN_DENSITY.
+    // New positions are computed on a worker thread, then applied as one animation if the layout
+    // has not changed meanwhile (if it has, the next idle pass tries again).
+    public synchronized void compact() {
+        if (inHistory || updatesPaused || wordTree.size() < 2) return;
+
+        final CloudCompactor compactor = new CloudCompactor(wordTree, PADDING);
+        final float density = compactor.getDensity();
+
+        if (density >= CloudCompactor.MIN_DENSITY) return;
+
+        final int version = layoutVersion;
+
+        layoutExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                compactor.compute();
+
+                float newDensity = compactor.getNewDensity();
+                Log.d("WordCloud", "compact: density " + density + " -> " + newDensity);
+
+                if (newDensity <= density) return; // No better; leave the words where they are
+
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        applyCompaction(compactor, version);
+                    }
+                });
             }
+        });
+    }
 
-            // Populate words
-            JSONArray wordArray = fromRecv.getJSONObject("cloud").getJSONArray("words");
+    // Moves the words to the positions computed by a compactor, animating them together.
+    private synchronized void applyCompaction(CloudCompactor compactor, int version) {
+        if (version != layoutVersion || inHistory || updatesPaused) return; // Stale, or the view is cached
 
-            for (int i = 0; i < wordArray.length(); i++) {
-                JSONObject word = wordArray.getJSONObject(i);
+        final List<Word> moved = new ArrayList<>();
 
-                // Get properties
-                String name = word.getString("name");
-                Integer count = Integer.parseInt(word.getString("count"));
-                Long timestamp = Timestamp.valueOf(word.getString("timestamp")).getTime();
-                Integer groupId = Integer.parseInt(word.getString("group"));
+        // Margins (left, top) of each moved view, before and after, in px
+        final int[] fromMargins = new int[2 * compactor.size()];
+        final int[] toMargins = new int[2 * compactor.size()];
 
-                // Get bounds
-                Integer top = Integer.parseInt(word.getString("top"));
-                Integer left = Integer.parseInt(word.getString("left"));
-                Integer bottom = Integer.parseInt(word.getString("bottom"));
-                Integer right = Integer.parseInt(word.getString("right"));
-                Rect bounds = new Rect(left, top, right, bottom);
+        for (int i = 0; i < compactor.size(); i++) {
+            if (!compactor.isMoved(i)) continue;
 
-                Word newWord = new Word(name, count);
-                wordList.put(newWord.getName(), newWord);
+            Word word = compactor.words[i];
+            int k = 2 * moved.size();
 
-                // Check if word is attached (groupId is valid)
-                if (groupId >= 0) {
-                    // Get parent group
-                    WordGroup parentGroup = groupMap.get(groupId);
-                    parentGroup.addChild(newWord);
+            if (word.isCreated()) {
+                fromMargins[k] = word.layoutParams.leftMargin;
+                fromMargins[k + 1] = word.layoutParams.topMargin;
+            }
 
-                    // Add the word to the view
-                    WordCloud.layout.addView(newWord.button, newWord.layoutParams);
+            // Update the model at once; the animation only catches the views up
+            word.placeAt(compactor.newLeft[i] + word.bounds.width() / 2, compactor.newTop[i] + word.bounds.height() / 2);
 
-                    newWord.moveTo(bounds.centerX(), bounds.centerY());
-                    newWord.show();
+            if (word.isCreated()) {
+                toMargins[k] = word.layoutParams.leftMargin;
+                toMargins[k + 1] = word.layoutParams.topMargin;
+                moved.add(word);
+            }
+        }
+
+        // Every group may have moved; index them again
+        wordTree.rebuild();
 
-                    treeSize++;
+        layoutVersion++;
+
+        if (moved.isEmpty()) {
+            layout.requestLayout();
+            return;
+        }
+
+        // One animator for the whole batch, with a single layout request per frame
+        compactAnimator = ValueAnimator.ofFloat(0.0f, 1.0f);
+        compactAnimator.setInterpolator(new SpringInterpolator());
+        compactAnimator.setDuration(COMPACT_DURATION);
+        compactAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
+            @Override
+            public void onAnimationUpdate(ValueAnimator animation) {
+                float fraction = (Float) animation.getAnimatedValue();
+
+                for (int k = 0; k < moved.size(); k++) {
+                    Word word = moved.get(k);
+                    if (!word.isCreated()) continue; // Released since
+
+                    word.layoutParams.leftMargin = fromMargins[2 * k] + Math.round((toMargins[2 * k] - fromMargins[2 * k]) * fraction);
+                    word.layoutParams.topMargin = fromMargins[2 * k + 1] + Math.round((toMargins[2 * k + 1] - fromMargins[2 * k + 1]) * fraction);
                 }
+
+                layout.requestLayout();
             }
+        });
 
-            // Update group size and refresh free groups
-            groupSize = 1 + (int)Math.floor(Math.sqrt(treeSize - 1));
-            refreshFreeGroups();
+        compactAnimator.start();
+
+        Log.d("WordCloud", "applyCompaction: moving " + moved.size() + " words");
+    }
 
-            return true;
-        } catch (Exception e) {
-            e.printStackTrace();
+    // Checkpoints a while after the first change, so the journal stays short.
+    private void onChanged() {
+        if (journal != null && changesSinceCheckpoint++ == 0) {
+            handler.postDelayed(checkpointTask, CHECKPOINT_INTERVAL);
         }
+    }
+
+    // Copies the model into a snapshot that can be serialized off the UI thread.
+    public synchronized CloudSnapshot snapshot() {
+        List<WordGroup> groups = wordTree.getGroups();
+        CloudSnapshot snapshot = new CloudSnapshot(groups.size(), store.liveCount());
+
+        snapshot.width = UnitConverter.getInstance().toDp(layout.getLayoutParams().width);
+        snapshot.height = UnitConverter.getInstance().toDp(layout.getLayoutParams().height);
+        snapshot.timestamp = timestamp;
+        snapshot.cloudId = cloudId;
+
+        for (int i = 0; i < snapshot.groupCount; i++) {
+            WordGroup group = groups.get(i);
+
+            snapshot.groupIds[i] = group.getId();
+            snapshot.groupCenterX[i] = group.center.x;
+            snapshot.groupCenterY[i] = group.center.y;
+            snapshot.groupLeft[i] = group.bounds.left;
+            snapshot.groupTop[i] = group.bounds.top;
+            snapshot.groupRight[i] = group.bounds.right;
+            snapshot.groupBottom[i] = group.bounds.bottom;
+        }
+
+        int i = 0;
+
+        for (int id = 0; id < store.size(); id++) {
+            Word word = store.words[id];
+            if (word == null) continue; // Free ID
+
+            snapshot.names[i] = store.names[id];
+            snapshot.counts[i] = store.counts[id];
+            snapshot.timestamps[i] = store.timestamps[id];
+            snapshot.wordGroups[i] = (word.parent != null) ? word.parent.getId() : -1;
+            snapshot.left[i] = store.left[id];
+            snapshot.top[i] = store.top[id];
+            snapshot.right[i] = store.right[id];
+            snapshot.bottom[i] = store.bottom[id];
+            snapshot.sizes[i] = store.sizes[id];
+            snapshot.colors[i] = store.colors[id];
+            i++;
+        }
+
+        return snapshot;
+    }
+
+    // Loads the word cloud from a snapshot. The model is filled first; words are then created
+    // in frame-sized chunks, and each chunk's views are attached with a single layout pass.
+    public synchronized boolean loadSnapshot(final CloudSnapshot snapshot) {
+        Log.d("WordCloud", "Loading snapshot (" + snapshot.wordCount + " words)");
 
-        return false;
+        // Clear out current cloud (also cancels any load in progress)
+        this.clear();
+
+        if (snapshot.timestamp != 0) {
+            timestamp = snapshot.timestamp;
+        }
+
+        // The loaded cloud is the new starting point for the journal
+        checkpoint(snapshot);
+        fireSnapshotLoaded(snapshot);
+
+        // Create map for id to group instance
+        final Map<Integer, WordGroup> groupMap = new TreeMap<>();
+        List<WordGroup> groups = new ArrayList<>();
+
+        for (int i = 0; i < snapshot.groupCount; i++) {
+            Point center = new Point(snapshot.groupCenterX[i], snapshot.groupCenterY[i]);
+            Rect bounds = new Rect(snapshot.groupLeft[i], snapshot.groupTop[i], snapshot.groupRight[i], snapshot.groupBottom[i]);
+
+            // Keep the saved IDs, so the next save can be sent as a delta against this snapshot
+            WordGroup wordGroup = new WordGroup(snapshot.groupIds[i], center, bounds);
+            groupMap.put(snapshot.groupIds[i], wordGroup);
+            groups.add(wordGroup);
+        }
+
+        // Index the saved groups by their saved bounds (older saves have larger groups; they are kept)
+        wordTree.load(groups);
+
+        final int generation = loadGeneration;
+
+        Runnable loadChunk = new Runnable() {
+            private int next = 0;
+
+            @Override
+            public void run() {
+                synchronized (WordCloud.this) {
+                    if (generation != loadGeneration) return; // Cloud was cleared or reloaded
+
+                    long deadline = SystemClock.uptimeMillis() + LOAD_FRAME_BUDGET;
+                    List<Word> batch = new ArrayList<>();
+
+                    while (next < snapshot.wordCount && SystemClock.uptimeMillis() < deadline) {
+                        loadWord(snapshot, next++, groupMap, batch);
+                    }
+
+                    // Add the chunk's views in one pass
+                    addViews(batch);
+                    onLayoutChanged();
+
+                    // Refresh free groups
+                    wordTree.refreshFreeGroups();
+
+                    if (next < snapshot.wordCount) {
+                        handler.post(this); // Continue on the next frame
+                    } else {
+                        // Drop groups left empty and index the rest by their actual bounds
+                        wordTree.rebuild();
+
+                        // Detached words (e.g. recovered from the journal) may need showing
+                        for (int i = 0; i < snapshot.wordCount; i++) {
+                            Word word = (snapshot.wordGroups[i] < 0 && snapshot.names[i] != null) ? wordList.get(snapshot.names[i]) : null;
+                            if (word != null && !word.isAttached()) evaluateWord(word);
+                        }
+
+                        Log.d("WordCloud", "Snapshot loaded (" + wordTree.size() + " attached, tree height " + wordTree.getHeight() + ")");
+                    }
+                }
+            }
+        };
+
+        loadChunk.run();
+
+        return true;
+    }
+
+    // Creates word i of a snapshot. Attached words are positioned and added to the batch.
+    private void loadWord(CloudSnapshot snapshot, int i, Map<Integer, WordGroup> groupMap, List<Word> batch) {
+        String name = snapshot.names[i];
+        if (name == null) return;
+
+        Word word = wordList.get(name);
+
+        if (word != null) {
+            // Spoken while the cloud was loading; merge the counts
+            word.incrementCount(snapshot.counts[i]);
+            return;
+        }
+
+        word = new Word(name, snapshot.counts[i]);
+        word.setTimestamp(snapshot.timestamps[i]);
+        wordList.put(name, word);
+
+        // Check if word is attached (groupId is valid)
+        WordGroup parentGroup = (snapshot.wordGroups[i] >= 0) ? groupMap.get(snapshot.wordGroups[i]) : null;
+
+        if (parentGroup != null) {
+            wordTree.attachTo(parentGroup, word);
+
+            // Position from the saved bounds; the layout is requested once per batch
+            word.placeAt(
+                    (snapshot.left[i] + snapshot.right[i]) / 2,
+                    (snapshot.top[i] + snapshot.bottom[i]) / 2);
+            word.show(false);
+
+            batch.add(word);
+        }
     }
 
     /*
@@ -662,7 +1294,7 @@ public class WordCloud {
         paint.setColor(context.getResources().getColor(R.color.accentBlackTransparent));
         paint.setStrokeWidth(4.0f);
 
-        for (WordGroup group : wordTreeRoot.children) {
+        for (WordGroup group : wordTree.getNodes()) {
             canvas.drawRect(
                     UnitConverter.getInstance().toPx(group.bounds.left),
                     UnitConverter.getInstance().toPx(group.bounds.top),
@@ -676,10 +1308,10 @@ public class WordCloud {
         paint.setStrokeWidth(8.0f);
 
         canvas.drawRect(
-                UnitConverter.getInstance().toPx(wordTreeRoot.bounds.left),
-                UnitConverter.getInstance().toPx(wordTreeRoot.bounds.top),
-                UnitConverter.getInstance().toPx(wordTreeRoot.bounds.right),
-                UnitConverter.getInstance().toPx(wordTreeRoot.bounds.bottom),
+                UnitConverter.getInstance().toPx(wordTree.root.bounds.left),
+                UnitConverter.getInstance().toPx(wordTree.root.bounds.top),
+                UnitConverter.getInstance().toPx(wordTree.root.bounds.right),
+                UnitConverter.getInstance().toPx(wordTree.root.bounds.bottom),
                 paint
         );
 
@@ -2,23 +2,316 @@ package edu.spu.teamroot.voicecloud;
 
 import android.content.Context;
 import android.graphics.Canvas;
+import android.graphics.Paint;
 import android.util.AttributeSet;
-import android.widget.RelativeLayout;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.Arrays;
+import java.util.List;
+
+// Lays out word buttons at absolute positions: each child sits at its left and top margins (the
+// word's bounds, in px), and takes its own wrapped size.
+//
+// Unlike RelativeLayout, which this replaced, there are no rules to resolve, so each pass measures
+// a child at most once, and only if it asked for a layout (e.g. its text size changed). Children
+// that only moved keep their measured size and are just placed again.
+//
+// Zoomed out, words are drawn with less detail (see setScale()): only the largest words are drawn
+// as buttons with text; below the text scale the rest are drawn as boxes in their color, and below
+// the placeholder scale they are not drawn at all.
+public class WordCloudLayout extends ViewGroup implements TwoDScrollView.OnScaleChangeListener {
+    /*
+     * Static members
+     */
+
+    private static final int UNSPECIFIED = MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED);
+
+    // Levels of detail
+    private static final int DETAIL_FULL = 0; // Every word as a button
+    private static final int DETAIL_PLACEHOLDERS = 1; // Largest words as buttons, the rest as boxes
+    private static final int DETAIL_LARGEST = 2; // Largest words as buttons, the rest not drawn
+
+    // Values of the "detail" preference
+    public static final String DETAIL_SETTING_FULL = "full"; // Never reduce detail
+    public static final String DETAIL_SETTING_BALANCED = "balanced";
+    public static final String DETAIL_SETTING_FAST = "fast";
+
+    /*
+     * Member variables
+     */
+
+    private float textScale = 0.5f; // Below this scale, only the largest words are drawn as text
+    private float placeholderScale = 0.25f; // Below this scale, the other words are not drawn
+    private int maxTextWords = 200;
+
+    private int detail = DETAIL_FULL;
+
+    // Lowest rank (see getRank()) drawn as text when detail is reduced, and what it was computed from
+    private long minTextRank;
+    private int minTextRankChildren = -1;
+    private boolean measuredSinceMinTextRank;
+
+    private final Paint placeholderPaint = new Paint();
+    private final float insetX; // Inset of a button's background, in px
+    private final float insetY;
+
+    /*
+     * Constructors
+     */
 
-public class WordCloudLayout extends RelativeLayout {
     public WordCloudLayout(Context context) {
-        super(context);
+        this(context, null);
     }
 
     public WordCloudLayout(Context context, AttributeSet attrs) {
-        super(context, attrs);
+        this(context, attrs, 0);
     }
 
     public WordCloudLayout(Context context, AttributeSet attrs, int defStyleAttr) {
         super(context, attrs, defStyleAttr);
+
+        float density = context.getResources().getDisplayMetrics().density;
+        insetX = PngExporter.INSET_X * density;
+        insetY = PngExporter.INSET_Y * density;
+    }
+
+    /*
+     * Level of detail
+     */
+
+    // Sets the detail thresholds from a value of the "detail" preference. Balanced if unknown.
+    public void setDetail(String value) {
+        if (DETAIL_SETTING_FULL.equals(value)) {
+            setDetail(0, 0, Integer.MAX_VALUE);
+        } else if (DETAIL_SETTING_FAST.equals(value)) {
+            setDetail(0.75f, 0.4f, 50);
+        } else {
+            setDetail(0.5f, 0.25f, 200);
+        }
+    }
+
+    // Sets the scales below which detail is reduced, and how many of the largest words keep their text.
+    public void setDetail(float textScale, float placeholderScale, int maxTextWords) {
+        this.textScale = textScale;
+        this.placeholderScale = placeholderScale;
+        this.maxTextWords = maxTextWords;
+
+        minTextRankChildren = -1; // Recompute
+        setScale(getScaleX());
+        invalidate();
+    }
+
+    // Called by the scroll view as it zooms. Redraws if the level of detail changes.
+    @Override
+    public void onScaleChanged(float scale) {
+        setScale(scale);
+    }
+
+    // Picks the level of detail for a scale.
+    private void setScale(float scale) {
+        int newDetail;
+
+        if (scale >= textScale) {
+            newDetail = DETAIL_FULL;
+        } else if (scale >= placeholderScale) {
+            newDetail = DETAIL_PLACEHOLDERS;
+        } else {
+            newDetail = DETAIL_LARGEST;
+        }
+
+        if (newDetail != detail) {
+            detail = newDetail;
+            invalidate();
+        }
+    }
+
+    // Returns the lowest rank among the maxTextWords highest ranked words shown.
+    // Recomputed only after words are added, removed or resized.
+    private long getMinTextRank() {
+        int count = getChildCount();
+
+        if (count == minTextRankChildren && !measuredSinceMinTextRank) {
+            return minTextRank;
+        }
+
+        long[] ranks = new long[count];
+        int n = 0;
+
+        for (int i = 0; i < count; i++) {
+            Word word = getWord(getChildAt(i));
+            if (word != null) ranks[n++] = getRank(word);
+        }
+
+        Arrays.sort(ranks, 0, n);
+
+        minTextRank = (n > maxTextWords) ? ranks[n - maxTextWords] : Long.MIN_VALUE;
+        minTextRankChildren = count;
+        measuredSinceMinTextRank = false;
+
+        return minTextRank;
+    }
+
+    // Ranks a word by text size (high bits), then ID (low bits). Ranks are unique, so at most
+    // maxTextWords words keep their text even when many share a size (e.g. every word said once).
+    private static long getRank(Word word) {
+        int id = word.getWordId();
+        return ((long) word.store.sizes[id] << 32) | id;
+    }
+
+    // Returns the word a child view shows, or null.
+    private static Word getWord(View child) {
+        Object tag = child.getTag();
+
+        if (tag instanceof Word && ((Word) tag).getWordId() >= 0) {
+            return (Word) tag;
+        }
+
+        return null;
+    }
+
+    /*
+     * Measure and layout
+     */
+
+    // Measures children whose size may have changed, then takes the size from the layout params,
+    // grown to hold every child (as RelativeLayout did for wrapped children).
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int right = 0;
+        int bottom = 0;
+
+        for (int i = 0, count = getChildCount(); i < count; i++) {
+            View child = getChildAt(i);
+            if (child.getVisibility() == GONE) continue;
+
+            if (child.isLayoutRequested() || child.getMeasuredWidth() == 0) {
+                // Words wrap their text and are never clipped by the layout
+                child.measure(UNSPECIFIED, UNSPECIFIED);
+                measuredSinceMinTextRank = true;
+            }
+
+            LayoutParams lp = (LayoutParams) child.getLayoutParams();
+            right = Math.max(right, lp.leftMargin + child.getMeasuredWidth());
+            bottom = Math.max(bottom, lp.topMargin + child.getMeasuredHeight());
+        }
+
+        ViewGroup.LayoutParams params = getLayoutParams();
+
+        int width = Math.max(right + getPaddingLeft() + getPaddingRight(), getSuggestedMinimumWidth());
+        int height = Math.max(bottom + getPaddingTop() + getPaddingBottom(), getSuggestedMinimumHeight());
+
+        if (params != null) {
+            if (params.width >= 0) width = Math.max(width, params.width);
+            if (params.height >= 0) height = Math.max(height, params.height);
+        }
+
+        setMeasuredDimension(resolveSize(width, widthMeasureSpec), resolveSize(height, heightMeasureSpec));
+    }
+
+    // Places each child at its margins, at its measured size.
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        int paddingLeft = getPaddingLeft();
+        int paddingTop = getPaddingTop();
+
+        for (int i = 0, count = getChildCount(); i < count; i++) {
+            View child = getChildAt(i);
+            if (child.getVisibility() == GONE) continue;
+
+            LayoutParams lp = (LayoutParams) child.getLayoutParams();
+            int left = paddingLeft + lp.leftMargin;
+            int top = paddingTop + lp.topMargin;
+
+            child.layout(left, top, left + child.getMeasuredWidth(), top + child.getMeasuredHeight());
+        }
+    }
+
+    @Override
+    public boolean shouldDelayChildPressedState() {
+        return false; // Does not scroll itself
+    }
+
+    /*
+     * Layout params
+     */
+
+    @Override
+    protected boolean checkLayoutParams(ViewGroup.LayoutParams p) {
+        return p instanceof LayoutParams;
+    }
+
+    @Override
+    protected LayoutParams generateDefaultLayoutParams() {
+        return new LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT);
+    }
+
+    @Override
+    public LayoutParams generateLayoutParams(AttributeSet attrs) {
+        return new LayoutParams(getContext(), attrs);
+    }
+
+    @Override
+    protected LayoutParams generateLayoutParams(ViewGroup.LayoutParams p) {
+        if (p instanceof MarginLayoutParams) {
+            return new LayoutParams((MarginLayoutParams) p);
+        }
+
+        return new LayoutParams(p);
+    }
+
+    // Position of a word button: its left and top margins, in px. Width and height are ignored.
+    public static class LayoutParams extends MarginLayoutParams {
+        public LayoutParams(int width, int height) {
+            super(width, height);
+        }
+
+        public LayoutParams(Context context, AttributeSet attrs) {
+            super(context, attrs);
+        }
+
+        public LayoutParams(MarginLayoutParams source) {
+            super(source);
+        }
+
+        public LayoutParams(ViewGroup.LayoutParams source) {
+            super(source);
+        }
+    }
+
+    /*
+     * Drawing
+     */
+
+    // Draws a child, or a box in its place (or nothing) if detail is reduced and its word is small.
+    @Override
+    protected boolean drawChild(Canvas canvas, View child, long drawingTime) {
+        if (detail == DETAIL_FULL) {
+            return super.drawChild(canvas, child, drawingTime);
+        }
+
+        Word word = getWord(child);
+
+        if (word == null || getRank(word) >= getMinTextRank()) {
+            return super.drawChild(canvas, child, drawingTime);
+        }
+
+        if (detail == DETAIL_PLACEHOLDERS && child.getVisibility() == VISIBLE && child.getAlpha() > 0) {
+            placeholderPaint.setColor(word.store.colors[word.getWordId()]);
+
+            canvas.drawRect(
+                    child.getLeft() + insetX,
+                    child.getTop() + insetY,
+                    child.getRight() - insetX,
+                    child.getBottom() - insetY,
+                    placeholderPaint);
+        }
+
+        return false;
     }
 
     // Dispatches a draw to its children. Enables drawing of word group outlines.
+    @Override
     protected void dispatchDraw(Canvas canvas) {
         super.dispatchDraw(canvas);
 
@@ -27,6 +320,16 @@ public class WordCloudLayout extends RelativeLayout {
         }
     }
 
+    // Adds the buttons of many words, requesting a single layout pass instead of one per word.
+    public void addWordsInBatch(List<Word> words) {
+        for (Word word : words) {
+            addViewInLayout(word.button, -1, word.layoutParams, true);
+        }
+
+        requestLayout();
+        invalidate();
+    }
+
     // Draws the layout to a canvas object.
     public void drawToCanvas(Canvas canvas) {
         super.draw(canvas);
@@ -8,6 +8,11 @@ import java.util.Random;
 
 public class WordGroup {
     private static int curIndex = 0;
+    private static final Random random = new Random();
+
+    // Spiral search for a free position (see Spiral)
+    private static final double ARC_LENGTH = 20; // Length between each potential word position
+    private static final double RADIUS_RATE = 5;  // Rate of radius growth per radian
 
     private enum Precision {
         COARSE,
@@ -16,6 +21,68 @@ public class WordGroup {
         FINE_GRAINED
     }
 
+    // Candidate positions for a spiral search: the center, then points about ARC_LENGTH apart on a
+    // spiral whose radius grows RADIUS_RATE per radian. Used by repositionChild(), WordTree and CloudCompactor.
+    static class Spiral {
+        private static final double START_ANGLE = ARC_LENGTH / (RADIUS_RATE * 2);
+
+        private final int centerX;
+        private final int centerY;
+        private final int jitter;
+        private final Random random;
+
+        private double angle = START_ANGLE;
+
+        // The current point
+        int x;
+        int y;
+
+        Spiral(int centerX, int centerY) {
+            this(centerX, centerY, 0, null);
+        }
+
+        // Spirals around a center, adding a random x offset of up to a quarter of jitter to each point after the center.
+        Spiral(int centerX, int centerY, int jitter, Random random) {
+            this.centerX = centerX;
+            this.centerY = centerY;
+            this.jitter = jitter;
+            this.random = random;
+
+            x = centerX;
+            y = centerY;
+        }
+
+        // Skips ahead to a point at least the given angle around the spiral, if that is past the center.
+        void skipTo(double startAngle) {
+            if (startAngle > angle) {
+                angle = startAngle;
+                next();
+            }
+        }
+
+        // Moves to the next point.
+        void next() {
+            double radius = RADIUS_RATE * angle; // Radius grows as angle increases
+
+            x = centerX + (int) (radius * Math.cos(angle));
+            y = centerY + (int) (radius * Math.sin(angle));
+
+            if (jitter > 0) {
+                x += random.nextInt(jitter / 2 + 1) - jitter / 4;
+            }
+
+            // Estimate delta angle using ARC_LENGTH / radius
+            // This will give us an angle that will result in a position ARC_LENGTH away.
+            // (arc = theta * radius) -> (theta = arc / radius)
+            angle += ARC_LENGTH / radius;
+        }
+
+        // Returns the angle of the next point.
+        double getAngle() {
+            return angle;
+        }
+    }
+
     private final int GROUP_ID;
 
     private Precision precision;
@@ -56,6 +123,19 @@ public class WordGroup {
         children = new ArrayList<>();
     }
 
+    // Creates a group with a saved ID, so a loaded cloud keeps the group IDs the server knows.
+    // Groups created afterwards are numbered above it.
+    public WordGroup(int id, Point center, Rect bounds) {
+        GROUP_ID = id;
+        curIndex = Math.max(curIndex, id + 1);
+
+        precision = Precision.COARSE;
+        this.center = center;
+        this.bounds = bounds;
+        parent = null;
+        children = new ArrayList<>();
+    }
+
     // Moves the group and all its children by a specified delta.
     public void moveBy(int dx, int dy) {
         center.offset(dx, dy);
@@ -141,35 +221,17 @@ public class WordGroup {
             relativeToGroup = true;
         }
 
-        final double ARC_LENGTH = 20; // Length between each potential word position
-        final double RADIUS_RATE = 5;  // Rate of radius growth per radian
-
         final int CENTER_X = relativeToGroup ? center.x : child.center.x;
         final int CENTER_Y = relativeToGroup ? center.y : child.center.y;
 
-        double angle = ARC_LENGTH / (RADIUS_RATE * 2);
-
-        int x = CENTER_X;
-        int y = CENTER_Y;
+        // If positioning in group, add a random x offset
+        Spiral spiral = new Spiral(CENTER_X, CENTER_Y, relativeToGroup ? bounds.width() : 0, random);
 
-        while (isChildOverlap(child, x, y)) {
-            double radius = RADIUS_RATE * angle; // Radius grows as angle increases
-
-            x = CENTER_X + (int)(radius * Math.cos(angle));
-            y = CENTER_Y + (int)(radius * Math.sin(angle));
-
-            if (relativeToGroup) {
-                // If positioning in group, add a random x offset
-                x += new Random().nextInt(bounds.width() / 2 + 1) - bounds.width() / 4;
-            }
-
-            // Estimate delta angle using ARC_LENGTH / radius
-            // This will give us an angle that will result in a position ARC_LENGTH away.
-            // (arc = theta * radius) -> (theta = arc / radius)
-            angle += ARC_LENGTH / radius;
+        while (isChildOverlap(child, spiral.x, spiral.y)) {
+            spiral.next();
         }
 
-        child.moveTo(x, y);
+        child.moveTo(spiral.x, spiral.y);
 
         // Update bounds
         bounds.setEmpty();
@@ -198,7 +260,14 @@ public class WordGroup {
             switch (precision) {
                 default:
                 case COARSE:
-                    if (Rect.intersects(checkBounds, child.bounds)) {
+                    if (child instanceof Word) {
+                        // Word bounds are mirrored in the columnar word store
+                        Word word = (Word) child;
+
+                        if (word.store.intersects(word.getWordId(), checkBounds)) {
+                            return true;
+                        }
+                    } else if (Rect.intersects(checkBounds, child.bounds)) {
                         return true;
                     }
                     break;
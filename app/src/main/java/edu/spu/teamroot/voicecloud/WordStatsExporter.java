@@ -0,0 +1,201 @@
+package edu.spu.teamroot.voicecloud;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+// Streams per-word statistics as CSV or TSV: name, count, first and last seen (UTC, ISO 8601),
+// occurrences per minute since the cloud started, and exclusion list hits.
+//
+// The four exported columns are copied under the cloud's lock (names are immutable and shared),
+// then rows are formatted by hand into one reused buffer and written without holding the lock, so
+// words keep arriving while a large export is written to slow storage. The copy costs about 20
+// bytes per word; formatting straight from the store would hold the lock for the whole write.
+public class WordStatsExporter {
+    public static final char CSV = ',';
+    public static final char TSV = '\t';
+
+    private static final String[] HEADER = {"name", "count", "first_seen", "last_seen", "per_minute", "exclusion_hits"};
+
+    // The columns an export reads, indexed by word ID. Free IDs have a null name.
+    static class Columns {
+        final String[] names;
+        final int[] counts;
+        final long[] firstSeen;
+        final long[] lastSeen;
+
+        Columns(String[] names, int[] counts, long[] firstSeen, long[] lastSeen) {
+            this.names = names;
+            this.counts = counts;
+            this.firstSeen = firstSeen;
+            this.lastSeen = lastSeen;
+        }
+    }
+
+    // Writes a row per word in the cloud, then a row per excluded word not in it. Returns the number of rows.
+    // The cloud is locked only while its columns are copied. The writer is flushed, not closed.
+    public static int export(WordCloud cloud, Map<String, Integer> exclusionHits, char separator, Writer out) throws IOException {
+        Columns columns;
+        long start;
+
+        synchronized (cloud) {
+            WordStore store = cloud.store;
+            int n = store.size();
+
+            columns = new Columns(
+                    Arrays.copyOf(store.names, n),
+                    Arrays.copyOf(store.counts, n),
+                    Arrays.copyOf(store.firstSeen, n),
+                    Arrays.copyOf(store.timestamps, n));
+
+            start = cloud.getTimestamp();
+        }
+
+        return export(columns, start, System.currentTimeMillis(), exclusionHits, separator, out);
+    }
+
+    // Writes the rows for every ID in the columns. The cloud started at start; rates are up to now.
+    static int export(Columns columns, long start, long now, Map<String, Integer> exclusionHits, char separator, Writer out) throws IOException {
+        StringBuilder line = new StringBuilder(128);
+        char[] buffer = new char[128];
+        int rows = 0;
+
+        Set<String> excludedInStore = new HashSet<>(); // Excluded words that have a row already
+
+        for (int i = 0; i < HEADER.length; i++) {
+            if (i > 0) line.append(separator);
+            line.append(HEADER[i]);
+        }
+
+        buffer = writeLine(out, line, buffer);
+
+        double minutes = Math.max(now - start, 1) / 60000.0;
+
+        for (int id = 0; id < columns.names.length; id++) {
+            String name = columns.names[id];
+            if (name == null) continue; // Free ID
+
+            Integer hits = (exclusionHits != null) ? exclusionHits.get(name) : null;
+            if (hits != null) excludedInStore.add(name);
+
+            line.setLength(0);
+            appendField(line, name, separator);
+            line.append(separator).append(columns.counts[id]);
+            line.append(separator);
+            appendTimestamp(line, columns.firstSeen[id]);
+            line.append(separator);
+            appendTimestamp(line, columns.lastSeen[id]);
+            line.append(separator);
+            appendHundredths(line, Math.round(columns.counts[id] / minutes * 100));
+            line.append(separator).append((hits != null) ? hits : 0);
+
+            buffer = writeLine(out, line, buffer);
+            rows++;
+        }
+
+        if (exclusionHits != null) {
+            // Excluded words never reach the cloud; list them on their own
+            for (Map.Entry<String, Integer> entry : exclusionHits.entrySet()) {
+                if (excludedInStore.contains(entry.getKey())) continue;
+
+                line.setLength(0);
+                appendField(line, entry.getKey(), separator);
+                line.append(separator).append(0);
+                line.append(separator).append(separator);
+                line.append(separator).append("0.00");
+                line.append(separator).append(entry.getValue());
+
+                buffer = writeLine(out, line, buffer);
+                rows++;
+            }
+        }
+
+        out.flush();
+        return rows;
+    }
+
+    // Writes a line and a newline through a reused buffer. Returns the buffer, grown if needed.
+    private static char[] writeLine(Writer out, StringBuilder line, char[] buffer) throws IOException {
+        line.append('\n');
+
+        if (line.length() > buffer.length) {
+            buffer = new char[line.length() * 2];
+        }
+
+        line.getChars(0, line.length(), buffer, 0);
+        out.write(buffer, 0, line.length());
+        return buffer;
+    }
+
+    // Appends a text field. CSV fields are quoted if needed; TSV fields have tabs and newlines replaced.
+    private static void appendField(StringBuilder line, String text, char separator) {
+        if (separator == TSV) {
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                line.append((c == '\t' || c == '\n' || c == '\r') ? ' ' : c);
+            }
+        } else if (text.indexOf(separator) >= 0 || text.indexOf('"') >= 0 || text.indexOf('\n') >= 0 || text.indexOf('\r') >= 0) {
+            line.append('"');
+
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '"') line.append('"');
+                line.append(c);
+            }
+
+            line.append('"');
+        } else {
+            line.append(text);
+        }
+    }
+
+    // Appends a non-negative number of hundredths as a decimal, e.g. 1234 as 12.34.
+    private static void appendHundredths(StringBuilder line, long hundredths) {
+        line.append(hundredths / 100).append('.');
+
+        int fraction = (int) (hundredths % 100);
+        if (fraction < 10) line.append('0');
+        line.append(fraction);
+    }
+
+    // Appends a time as yyyy-MM-ddTHH:mm:ssZ (UTC), or nothing for 0.
+    // Formatted by hand; SimpleDateFormat is several times slower per row.
+    private static void appendTimestamp(StringBuilder line, long millis) {
+        if (millis <= 0) return;
+
+        long seconds = millis / 1000;
+        long days = seconds / 86400;
+        int secondOfDay = (int) (seconds % 86400);
+
+        // Civil date from days since 1970-01-01 (proleptic Gregorian)
+        long z = days + 719468;
+        long era = z / 146097;
+        int dayOfEra = (int) (z - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int monthIndex = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * monthIndex + 2) / 5 + 1;
+        int month = (monthIndex < 10) ? monthIndex + 3 : monthIndex - 9;
+        long year = yearOfEra + era * 400 + ((month <= 2) ? 1 : 0);
+
+        line.append(year).append('-');
+        appendTwoDigits(line, month);
+        line.append('-');
+        appendTwoDigits(line, day);
+        line.append('T');
+        appendTwoDigits(line, secondOfDay / 3600);
+        line.append(':');
+        appendTwoDigits(line, (secondOfDay / 60) % 60);
+        line.append(':');
+        appendTwoDigits(line, secondOfDay % 60);
+        line.append('Z');
+    }
+
+    private static void appendTwoDigits(StringBuilder line, int value) {
+        if (value < 10) line.append('0');
+        line.append(value);
+    }
+}
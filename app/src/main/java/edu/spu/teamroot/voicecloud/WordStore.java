@@ -0,0 +1,217 @@
+package edu.spu.teamroot.voicecloud;
+
+import android.graphics.Rect;
+
+import java.util.Arrays;
+
+public class WordStore {
+    /*
+     * Static members
+     */
+
+    private static final int INITIAL_CAPACITY = 64;
+    public static final int BUCKET_COUNT = 1024; // Counts from BUCKET_COUNT - 1 up share the last bucket
+
+    /*
+     * Member variables
+     */
+
+    // Parallel columns, indexed by word ID
+    protected Word[] words;
+    protected String[] names;
+    protected int[] counts;
+    protected long[] timestamps;
+    protected long[] firstSeen; // Time of the first occurrence
+
+    // Last text size (sp) and color applied to each word
+    protected int[] sizes;
+    protected int[] colors;
+
+    // Word bounds, in dp (mirrors Word.bounds)
+    protected int[] left;
+    protected int[] top;
+    protected int[] right;
+    protected int[] bottom;
+
+    // Words by count: a list per bucket, linked through the ID columns (-1 ends a list)
+    protected int[] bucketHeads;
+    protected int[] nextByCount;
+    private int[] previousByCount;
+
+    private int size; // One past the highest ID handed out
+
+    private int[] freeIds; // Released IDs, reused before growing
+    private int freeCount;
+
+    /*
+     * Constructors
+     */
+
+    public WordStore() {
+        allocateColumns(INITIAL_CAPACITY);
+        freeIds = new int[INITIAL_CAPACITY];
+        bucketHeads = new int[BUCKET_COUNT];
+        Arrays.fill(bucketHeads, -1);
+        size = 0;
+        freeCount = 0;
+    }
+
+    /*
+     * Methods
+     */
+
+    // Allocates an ID for a word. The word's columns are reset.
+    public int allocate(Word word, String name) {
+        int id;
+
+        if (freeCount > 0) {
+            id = freeIds[--freeCount];
+        } else {
+            if (size == words.length) {
+                growColumns(size * 2);
+            }
+
+            id = size++;
+        }
+
+        words[id] = word;
+        names[id] = name;
+        counts[id] = 0;
+        timestamps[id] = 0;
+        firstSeen[id] = 0;
+        sizes[id] = 0;
+        colors[id] = 0;
+        left[id] = top[id] = right[id] = bottom[id] = 0;
+        link(id);
+
+        return id;
+    }
+
+    // Releases an ID so it can be reused by a new word.
+    public void release(int id) {
+        if (id < 0 || id >= size || names[id] == null) return; // Already free; an ID is live while named
+
+        unlink(id);
+        words[id] = null;
+        names[id] = null;
+
+        if (freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+        }
+
+        freeIds[freeCount++] = id;
+    }
+
+    // Removes all words from the store.
+    public void clear() {
+        Arrays.fill(words, 0, size, null);
+        Arrays.fill(names, 0, size, null);
+        Arrays.fill(bucketHeads, -1);
+        size = 0;
+        freeCount = 0;
+    }
+
+    // Returns one past the highest ID in use. Released IDs below this hold null words.
+    public int size() {
+        return size;
+    }
+
+    // Returns the number of live words in the store.
+    public int liveCount() {
+        return size - freeCount;
+    }
+
+    // Returns the word with the given ID, or null if the ID is free.
+    public Word getWord(int id) {
+        return words[id];
+    }
+
+    // Sets the count of a word, moving it to its bucket.
+    public void setCount(int id, int count) {
+        if (bucketOf(count) != bucketOf(counts[id])) {
+            unlink(id);
+            counts[id] = count;
+            link(id);
+        } else {
+            counts[id] = count;
+        }
+    }
+
+    // Returns the bucket holding words with a count. Counts below 0 go in bucket 0.
+    public static int bucketOf(int count) {
+        return Math.min(Math.max(count, 0), BUCKET_COUNT - 1);
+    }
+
+    // Copies a rect into the bounds columns.
+    public void setBounds(int id, Rect rect) {
+        left[id] = rect.left;
+        top[id] = rect.top;
+        right[id] = rect.right;
+        bottom[id] = rect.bottom;
+    }
+
+    // Returns true if the bounds of the word intersect the rect.
+    public boolean intersects(int id, Rect rect) {
+        return left[id] < rect.right && rect.left < right[id]
+                && top[id] < rect.bottom && rect.top < bottom[id];
+    }
+
+    // Adds a word to the front of the bucket for its count.
+    private void link(int id) {
+        int bucket = bucketOf(counts[id]);
+        int head = bucketHeads[bucket];
+
+        nextByCount[id] = head;
+        previousByCount[id] = -1;
+        if (head >= 0) previousByCount[head] = id;
+        bucketHeads[bucket] = id;
+    }
+
+    // Removes a word from the bucket for its count.
+    private void unlink(int id) {
+        int next = nextByCount[id];
+        int previous = previousByCount[id];
+
+        if (previous >= 0) {
+            nextByCount[previous] = next;
+        } else {
+            bucketHeads[bucketOf(counts[id])] = next;
+        }
+
+        if (next >= 0) previousByCount[next] = previous;
+    }
+
+    // Creates all columns with the given capacity.
+    private void allocateColumns(int capacity) {
+        words = new Word[capacity];
+        names = new String[capacity];
+        counts = new int[capacity];
+        timestamps = new long[capacity];
+        firstSeen = new long[capacity];
+        sizes = new int[capacity];
+        colors = new int[capacity];
+        left = new int[capacity];
+        top = new int[capacity];
+        right = new int[capacity];
+        bottom = new int[capacity];
+        nextByCount = new int[capacity];
+        previousByCount = new int[capacity];
+    }
+
+    // Grows all columns to the given capacity, keeping existing values.
+    private void growColumns(int capacity) {
+        words = Arrays.copyOf(words, capacity);
+        names = Arrays.copyOf(names, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        firstSeen = Arrays.copyOf(firstSeen, capacity);
+        sizes = Arrays.copyOf(sizes, capacity);
+        colors = Arrays.copyOf(colors, capacity);
+        left = Arrays.copyOf(left, capacity);
+        top = Arrays.copyOf(top, capacity);
+        right = Arrays.copyOf(right, capacity);
+        bottom = Arrays.copyOf(bottom, capacity);
+        nextByCount = Arrays.copyOf(nextByCount, capacity);
+        previousByCount = Arrays.copyOf(previousByCount, capacity);
+    }
+}
@@ -0,0 +1,622 @@
+package edu.spu.teamroot.voicecloud;
+
+import android.graphics.Point;
+import android.graphics.Rect;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+// The word tree: words in groups of at most GROUP_SIZE, and groups indexed by a balanced tree
+// of nodes with at most MAX_CHILDREN children each, split and merged like an R-tree.
+//
+// A word spirals out around its group's center until it overlaps no word of the group and the
+// grown group overlaps no other group, checked through the index (visiting only the nodes whose
+// bounds meet it, about O(log n), instead of one check per group). If the group is hemmed in, the
+// group moves instead; new groups resume the root's spiral near where the last one went, rather
+// than searching out from the center through the whole cloud each time.
+// Groups never overlap each other; the nodes above them may.
+public class WordTree {
+    /*
+     * Static members
+     */
+
+    public static final int GROUP_SIZE = 12; // Most words in a group
+    public static final int MAX_CHILDREN = 8; // Most children of a node; more and it is split
+    private static final int MIN_CHILDREN = 3; // Fewest children of a node (but the root); fewer and it is merged away
+    private static final int MAX_WORD_STEPS = 64; // Most points tried for a word before its group is moved instead
+
+    /*
+     * Member variables
+     */
+
+    protected WordGroup root;
+    private int height; // Levels of nodes above the groups; 1 if the root's children are groups
+
+    private final Set<WordGroup> groups = new LinkedHashSet<>(); // Groups of words (leaves), in creation order
+    private final Deque<WordGroup> freeGroups = new ArrayDeque<>(); // Groups with room, most recent first
+    private final Set<WordGroup> freeSet = new HashSet<>();
+
+    private int size; // Number of words in the tree
+    private double spiralAngle; // Angle on the root's spiral where the last new group was placed
+
+    private final Random random = new Random();
+
+    /*
+     * Constructors
+     */
+
+    public WordTree() {
+        root = new WordGroup();
+        height = 1;
+    }
+
+    /*
+     * Methods
+     */
+
+    // Empties the tree and sets the initial bounds of the root (its center is where groups start).
+    public void reset(Rect bounds) {
+        root = new WordGroup();
+        root.setBounds(bounds);
+        height = 1;
+
+        groups.clear();
+        freeGroups.clear();
+        freeSet.clear();
+        size = 0;
+        spiralAngle = 0;
+    }
+
+    // Returns the number of words in the tree.
+    public int size() {
+        return size;
+    }
+
+    // Returns the number of levels of nodes above the groups.
+    public int getHeight() {
+        return height;
+    }
+
+    // Returns the groups of words, in creation order.
+    public List<WordGroup> getGroups() {
+        return new ArrayList<>(groups);
+    }
+
+    // Returns every node below the root: groups and the nodes indexing them.
+    public List<WordGroup> getNodes() {
+        List<WordGroup> nodes = new ArrayList<>();
+        collectNodes(root, 0, nodes);
+        return nodes;
+    }
+
+    private void collectNodes(WordGroup node, int level, List<WordGroup> nodes) {
+        if (level == height) return; // Children are words
+
+        for (WordGroup child : node.children) {
+            nodes.add(child);
+            collectNodes(child, level + 1, nodes);
+        }
+    }
+
+    // Adds a word to a free group, creating a group if there are none. Does not position it.
+    public void attach(WordGroup word) {
+        WordGroup group = freeGroups.isEmpty() ? newGroup() : freeGroups.removeFirst();
+        freeSet.remove(group);
+
+        group.addChild(word);
+        size++;
+
+        // Stick group back if still has room
+        markFree(group);
+    }
+
+    // Adds a word to a particular group, keeping its position. Used when loading a saved cloud.
+    public void attachTo(WordGroup group, WordGroup word) {
+        group.addChild(word);
+        size++;
+    }
+
+    // Removes a word from its group. Empty groups are removed from the tree.
+    public void detach(WordGroup word) {
+        WordGroup group = word.parent;
+        if (group == null) return;
+
+        group.removeChild(word);
+        size--;
+
+        if (group.children.isEmpty()) {
+            groups.remove(group);
+            freeGroups.remove(group);
+            freeSet.remove(group);
+
+            removeNode(group);
+        } else {
+            group.refreshBounds();
+            refreshUp(group);
+            markFree(group);
+        }
+    }
+
+    // Positions a word: first among the words of its group, then its group among the other groups.
+    public void place(WordGroup word, boolean initialPlacement) {
+        WordGroup group = word.parent;
+        if (group == null) return;
+
+        boolean newPosition = group.children.size() <= 1;
+
+        if (!placeInGroup(group, word, initialPlacement)) {
+            // Hemmed in by other groups; place it among its group only, and move the group instead.
+            // A new word moves its group out to where new groups go, rather than across the cloud
+            group.repositionChild(word, initialPlacement);
+            newPosition |= initialPlacement;
+        }
+
+        // Now, reposition the group among the others. If size <= 1, give it an initial position
+        placeGroup(group, newPosition);
+    }
+
+    // Moves a word to the first point on a spiral around its group's center (or its own) where it
+    // overlaps no other word of the group, and the group's bounds, grown to hold it, overlap no other group.
+    // Gives up after MAX_WORD_STEPS points; returns false if so, or if the word is alone in its group.
+    private boolean placeInGroup(WordGroup group, WordGroup word, boolean relativeToGroup) {
+        if (group.children.size() <= 1) return false;
+
+        if (!relativeToGroup && word.center.x == 0 && word.center.y == 0) {
+            // Never positioned; see WordGroup.repositionChild()
+            relativeToGroup = true;
+        }
+
+        final int CENTER_X = relativeToGroup ? group.center.x : word.center.x;
+        final int CENTER_Y = relativeToGroup ? group.center.y : word.center.y;
+
+        // Bounds of the rest of the group
+        Rect others = new Rect();
+
+        for (WordGroup child : group.children) {
+            if (child != word) others.union(child.bounds);
+        }
+
+        // If positioning in group, add a random x offset
+        WordGroup.Spiral spiral = new WordGroup.Spiral(CENTER_X, CENTER_Y, relativeToGroup ? others.width() : 0, random);
+
+        Rect check = new Rect();
+        Rect grown = new Rect();
+
+        for (int step = 0; step < MAX_WORD_STEPS; step++) {
+            check.set(word.bounds);
+            check.offset(spiral.x - word.center.x, spiral.y - word.center.y);
+
+            if (!overlapsChild(group, word, check)) {
+                grown.set(others);
+                grown.union(check);
+
+                if (!overlapsGroup(group, grown, root, 0)) {
+                    word.moveTo(spiral.x, spiral.y);
+                    group.bounds.set(grown);
+                    return true;
+                }
+            }
+
+            spiral.next();
+        }
+
+        return false;
+    }
+
+    // Checks if a rect overlaps any word of a group other than word.
+    private static boolean overlapsChild(WordGroup group, WordGroup word, Rect rect) {
+        for (WordGroup child : group.children) {
+            if (child != word && Rect.intersects(rect, child.bounds)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // Moves a group to the first point on a spiral where its bounds overlap no other group's.
+    // As WordGroup.repositionChild() does for the root, but checking through the index.
+    private void placeGroup(WordGroup group, boolean initialPlacement) {
+        if (!initialPlacement && group.center.x == 0 && group.center.y == 0) {
+            // Never positioned; see WordGroup.repositionChild()
+            initialPlacement = true;
+        }
+
+        final int CENTER_X = initialPlacement ? root.center.x : group.center.x;
+        final int CENTER_Y = initialPlacement ? root.center.y : group.center.y;
+
+        // If positioning a new group, add a random x offset
+        WordGroup.Spiral spiral = new WordGroup.Spiral(CENTER_X, CENTER_Y, initialPlacement ? root.bounds.width() : 0, random);
+
+        if (initialPlacement) {
+            // The spiral around the root is full up to about where the last new group went;
+            // start a little before that instead of at the center
+            spiral.skipTo(spiralAngle - Math.PI / 4);
+        }
+
+        Rect check = new Rect();
+
+        while (true) {
+            check.set(group.bounds);
+            check.offset(spiral.x - group.center.x, spiral.y - group.center.y);
+
+            if (!overlapsGroup(group, check, root, 0)) break;
+
+            spiral.next();
+        }
+
+        if (initialPlacement) {
+            spiralAngle = spiral.getAngle();
+        }
+
+        int x = spiral.x;
+        int y = spiral.y;
+
+        if (x != group.center.x || y != group.center.y) {
+            group.moveTo(x, y);
+
+            // Moved; find it a better place in the index
+            removeNode(group);
+            insertNode(group);
+        } else {
+            refreshUp(group);
+        }
+    }
+
+    // Checks if a rect overlaps the bounds of any group under node (at level) other than group.
+    // Only nodes whose bounds meet the rect are visited.
+    private boolean overlapsGroup(WordGroup group, Rect rect, WordGroup node, int level) {
+        for (WordGroup child : node.children) {
+            if (child == group || child.bounds.isEmpty() || !Rect.intersects(rect, child.bounds)) continue;
+
+            if (level + 1 == height || overlapsGroup(group, rect, child, level + 1)) {
+                return true; // A group, or a group under a node
+            }
+        }
+
+        return false;
+    }
+
+    // Recomputes the bounds of every group and rebuilds the index from them. Empty groups are dropped.
+    // Used after moving many words at once.
+    public void rebuild() {
+        List<WordGroup> kept = new ArrayList<>();
+
+        for (WordGroup group : groups) {
+            if (group.children.isEmpty()) continue;
+
+            group.refreshBounds();
+            kept.add(group);
+        }
+
+        load(kept);
+    }
+
+    // Replaces the contents of the tree with groups that have bounds already (from a saved cloud),
+    // building the index in one pass. Words are added to them with attachTo().
+    public void load(List<WordGroup> newGroups) {
+        groups.clear();
+        groups.addAll(newGroups);
+
+        // Pack the groups into nodes, level by level (sort-tile-recursive)
+        List<WordGroup> level = new ArrayList<>(newGroups);
+        height = 1;
+
+        while (level.size() > MAX_CHILDREN) {
+            level = pack(level);
+            height++;
+        }
+
+        root.children.clear();
+
+        for (WordGroup node : level) {
+            root.addChild(node);
+        }
+
+        unionBounds(root);
+        refreshFreeGroups();
+
+        spiralAngle = 0; // The next new group searches from the center again
+    }
+
+    // Updates the list of free groups.
+    public void refreshFreeGroups() {
+        freeGroups.clear();
+        freeSet.clear();
+
+        for (WordGroup group : groups) {
+            markFree(group);
+        }
+    }
+
+    // Returns the tree's word count, checking that nodes hold their children's bounds,
+    // nodes below the root have MIN_CHILDREN to MAX_CHILDREN children, and groups are all at one depth.
+    // Throws IllegalStateException if not. For testing.
+    public int check() {
+        int words = check(root, 0);
+
+        if (words != size) {
+            throw new IllegalStateException("Counted " + words + " words, expected " + size);
+        }
+
+        return words;
+    }
+
+    private int check(WordGroup node, int level) {
+        if (level == height) {
+            if (!groups.contains(node)) throw new IllegalStateException("Unknown group at depth " + level);
+            return node.children.size();
+        }
+
+        if (node != root && (node.children.size() < MIN_CHILDREN || node.children.size() > MAX_CHILDREN)) {
+            throw new IllegalStateException("Node with " + node.children.size() + " children at depth " + level);
+        }
+
+        int words = 0;
+
+        for (WordGroup child : node.children) {
+            if (child.parent != node) throw new IllegalStateException("Bad parent at depth " + level);
+
+            if (!child.bounds.isEmpty() && !node.bounds.contains(child.bounds)) {
+                throw new IllegalStateException("Node bounds " + node.bounds + " miss " + child.bounds);
+            }
+
+            words += check(child, level + 1);
+        }
+
+        return words;
+    }
+
+    // Creates an empty group and adds it to the index.
+    private WordGroup newGroup() {
+        WordGroup group = new WordGroup();
+        groups.add(group);
+        insertNode(group);
+        return group;
+    }
+
+    // Adds a group to the free list if it has room.
+    private void markFree(WordGroup group) {
+        if (group.children.size() < GROUP_SIZE && freeSet.add(group)) {
+            freeGroups.addFirst(group);
+        }
+    }
+
+    // Adds a group to the index, under the node whose bounds grow least. Splits full nodes.
+    private void insertNode(WordGroup group) {
+        WordGroup node = root;
+
+        for (int level = 1; level < height; level++) {
+            node = chooseChild(node, group.bounds);
+        }
+
+        node.addChild(group);
+        refreshUp(group);
+
+        if (node.children.size() > MAX_CHILDREN) {
+            split(node);
+        }
+    }
+
+    // Returns the child whose bounds would grow least to hold a rect (fewest children, for an empty rect).
+    private static WordGroup chooseChild(WordGroup node, Rect rect) {
+        WordGroup best = null;
+        long bestGrowth = Long.MAX_VALUE;
+        long bestArea = Long.MAX_VALUE;
+
+        Rect union = new Rect();
+
+        for (WordGroup child : node.children) {
+            long area = area(child.bounds);
+            long growth;
+
+            if (rect.isEmpty()) {
+                growth = child.children.size();
+            } else {
+                union.set(child.bounds);
+
+                if (union.isEmpty()) {
+                    union.set(rect);
+                } else {
+                    union.union(rect);
+                }
+
+                growth = area(union) - area;
+            }
+
+            if (growth < bestGrowth || (growth == bestGrowth && area < bestArea)) {
+                best = child;
+                bestGrowth = growth;
+                bestArea = area;
+            }
+        }
+
+        return best;
+    }
+
+    // Splits a node in two across the longer side of its bounds. Splits its parent if that fills up.
+    private void split(WordGroup node) {
+        final boolean byX = node.bounds.width() >= node.bounds.height();
+
+        List<WordGroup> children = new ArrayList<>(node.children);
+        Collections.sort(children, new Comparator<WordGroup>() {
+            @Override
+            public int compare(WordGroup a, WordGroup b) {
+                int ca = byX ? a.bounds.centerX() : a.bounds.centerY();
+                int cb = byX ? b.bounds.centerX() : b.bounds.centerY();
+                return (ca < cb) ? -1 : ((ca == cb) ? 0 : 1);
+            }
+        });
+
+        WordGroup sibling = new WordGroup();
+
+        for (int i = children.size() / 2; i < children.size(); i++) {
+            WordGroup child = children.get(i);
+            node.removeChild(child);
+            sibling.addChild(child);
+        }
+
+        unionBounds(node);
+        unionBounds(sibling);
+
+        if (node == root) {
+            // Grow a level; the new root keeps the old one's center, where new groups start
+            root = new WordGroup(new Point(node.center), new Rect());
+            root.addChild(node);
+            root.addChild(sibling);
+            unionBounds(root);
+            height++;
+        } else {
+            WordGroup parent = node.parent;
+            parent.addChild(sibling);
+
+            if (parent.children.size() > MAX_CHILDREN) {
+                split(parent);
+            }
+        }
+    }
+
+    // Removes a group from the index. Nodes left with too few children are removed and their
+    // groups added again; a root with a single node child is replaced by it.
+    private void removeNode(WordGroup group) {
+        WordGroup node = group.parent;
+        if (node == null) return;
+
+        node.removeChild(group);
+
+        List<WordGroup> orphans = new ArrayList<>();
+
+        while (node != root) {
+            WordGroup parent = node.parent;
+
+            if (node.children.size() < MIN_CHILDREN) {
+                parent.removeChild(node);
+                collectGroups(node, orphans);
+            } else {
+                unionBounds(node);
+            }
+
+            node = parent;
+        }
+
+        while (height > 1 && root.children.size() == 1) {
+            WordGroup child = root.children.get(0);
+            root.removeChild(child);
+
+            for (WordGroup grandChild : new ArrayList<>(child.children)) {
+                root.addChild(grandChild);
+            }
+
+            height--;
+        }
+
+        if (root.children.isEmpty()) {
+            height = 1;
+        }
+
+        unionBounds(root);
+
+        for (WordGroup orphan : orphans) {
+            insertNode(orphan);
+        }
+    }
+
+    // Adds the groups under a node to a list.
+    private void collectGroups(WordGroup node, List<WordGroup> out) {
+        for (WordGroup child : node.children) {
+            if (groups.contains(child)) {
+                out.add(child);
+            } else {
+                collectGroups(child, out);
+            }
+        }
+    }
+
+    // Packs nodes into parents of up to MAX_CHILDREN, keeping nearby nodes together.
+    private static List<WordGroup> pack(List<WordGroup> nodes) {
+        int parentCount = (nodes.size() + MAX_CHILDREN - 1) / MAX_CHILDREN;
+        int sliceCount = (int) Math.ceil(Math.sqrt(parentCount));
+        int sliceSize = sliceCount * MAX_CHILDREN;
+
+        Collections.sort(nodes, new Comparator<WordGroup>() {
+            @Override
+            public int compare(WordGroup a, WordGroup b) {
+                return compareInts(a.bounds.centerX(), b.bounds.centerX());
+            }
+        });
+
+        List<WordGroup> parents = new ArrayList<>();
+
+        for (int start = 0; start < nodes.size(); start += sliceSize) {
+            List<WordGroup> slice = new ArrayList<>(nodes.subList(start, Math.min(start + sliceSize, nodes.size())));
+
+            Collections.sort(slice, new Comparator<WordGroup>() {
+                @Override
+                public int compare(WordGroup a, WordGroup b) {
+                    return compareInts(a.bounds.centerY(), b.bounds.centerY());
+                }
+            });
+
+            for (int i = 0; i < slice.size(); i += MAX_CHILDREN) {
+                WordGroup parent = new WordGroup();
+
+                for (WordGroup node : slice.subList(i, Math.min(i + MAX_CHILDREN, slice.size()))) {
+                    parent.addChild(node);
+                }
+
+                unionBounds(parent);
+                parents.add(parent);
+            }
+        }
+
+        // The last parent may be short; top it up from its neighbor so every node has MIN_CHILDREN
+        WordGroup last = parents.get(parents.size() - 1);
+
+        if (parents.size() > 1 && last.children.size() < MIN_CHILDREN) {
+            WordGroup previous = parents.get(parents.size() - 2);
+
+            while (last.children.size() < MIN_CHILDREN) {
+                WordGroup moved = previous.children.get(previous.children.size() - 1);
+                previous.removeChild(moved);
+                last.addChild(moved);
+            }
+
+            unionBounds(previous);
+            unionBounds(last);
+        }
+
+        return parents;
+    }
+
+    private static int compareInts(int a, int b) {
+        return (a < b) ? -1 : ((a == b) ? 0 : 1);
+    }
+
+    // Updates the bounds of the nodes above a node.
+    private static void refreshUp(WordGroup node) {
+        for (WordGroup parent = node.parent; parent != null; parent = parent.parent) {
+            unionBounds(parent);
+        }
+    }
+
+    // Sets a node's bounds to hold its children, keeping its center.
+    private static void unionBounds(WordGroup node) {
+        node.bounds.setEmpty();
+
+        for (WordGroup child : node.children) {
+            node.bounds.union(child.bounds);
+        }
+    }
+
+    private static long area(Rect rect) {
+        return (long) rect.width() * rect.height();
+    }
+}